@@ -0,0 +1,62 @@
+package educational.regex.parser;
+
+import educational.regex.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * How long it takes to compile a pattern, bypassing the pattern cache, next to java.util.regex.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CompileBenchmark {
+    @Param({"short", "long", "alternation"})
+    public String kind;
+
+    private String regex;
+
+    @Setup
+    public void setUp() {
+        if (kind.equals("short")) {
+            regex = "(a|b)*abb";
+        } else if (kind.equals("long")) {
+            final StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < 8; ++i) {
+                builder.append("[0-9]+-[0-9]+ (INFO|WARN|ERROR) [a-zA-Z_]+: (GET|PUT|POST) /[a-z/]*( [0-9]+)?;");
+            }
+            regex = builder.toString();
+        } else {
+            final StringBuilder builder = new StringBuilder("word0");
+            for (int i = 1; i < 10000; ++i) {
+                builder.append("|word").append(i);
+            }
+            regex = builder.toString();
+        }
+    }
+
+    @Benchmark
+    public Matcher compile() throws ParseException {
+        return Parser.compileUncached(regex, CompileOptions.DEFAULT);
+    }
+
+    @Benchmark
+    public Pattern javaUtilRegex() {
+        return Pattern.compile(regex);
+    }
+}
@@ -0,0 +1,86 @@
+package educational.regex.parser;
+
+import educational.regex.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Match throughput over inputs of growing length, for each engine next to java.util.regex:
+ *
+ * - literal: find() of a word at the very end of a log, which is mostly up to the prefilter.
+ * - charClass: matches() of a long run of characters from a class of several ranges. It's a single class
+ *   rather than an alternation of classes since java.util.regex recurses once per repetition of a group,
+ *   and runs out of stack on the longer inputs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MatchBenchmark {
+    private static final String CHAR_CLASS_ALPHABET = "abcXYZ019_ ,;:";
+
+    @Param({"literal", "charClass"})
+    public String kind;
+
+    @Param({"64", "4096", "262144"})
+    public int length;
+
+    @Param({"NFA", "LAZY_DFA", "BIT_PARALLEL"})
+    public Engine engine;
+
+    private String input;
+    private Matcher matcher;
+    private Pattern pattern;
+
+    @Setup
+    public void setUp() throws ParseException {
+        final StringBuilder builder = new StringBuilder(length);
+        final String regex;
+        if (kind.equals("literal")) {
+            regex = "timeout";
+            final String line = "INFO request served in 12ms\n";
+            while (builder.length() + line.length() + regex.length() <= length) {
+                builder.append(line);
+            }
+            while (builder.length() + regex.length() < length) {
+                builder.append(' ');
+            }
+            builder.append(regex);
+        } else {
+            regex = "[a-zA-Z0-9_ ,;:]*!";
+            final Random random = new Random(42);
+            while (builder.length() < length - 1) {
+                builder.append(CHAR_CLASS_ALPHABET.charAt(random.nextInt(CHAR_CLASS_ALPHABET.length())));
+            }
+            builder.append('!');
+        }
+        input = builder.toString();
+        matcher = Parser.compileUncached(regex, CompileOptions.DEFAULT.withEngine(engine));
+        pattern = Pattern.compile(regex);
+    }
+
+    @Benchmark
+    public boolean match() {
+        return kind.equals("literal") ? matcher.find(input) != null : matcher.matches(input);
+    }
+
+    @Benchmark
+    public boolean javaUtilRegex() {
+        return kind.equals("literal") ? pattern.matcher(input).find() : pattern.matcher(input).matches();
+    }
+}
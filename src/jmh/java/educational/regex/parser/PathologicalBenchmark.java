@@ -0,0 +1,63 @@
+package educational.regex.parser;
+
+import educational.regex.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * a?^n a^n against a^n, from https://swtch.com/~rsc/regexp/regexp1.html. Backtracking takes time
+ * exponential in n on it, and simulating the automaton does not.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PathologicalBenchmark {
+    @Param({"8", "16", "24"})
+    public int n;
+
+    @Param({"NFA", "LAZY_DFA", "BIT_PARALLEL"})
+    public Engine engine;
+
+    private String input;
+    private Matcher matcher;
+    private Pattern pattern;
+
+    @Setup
+    public void setUp() throws ParseException {
+        final StringBuilder regex = new StringBuilder();
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < n; ++i) {
+            regex.append("a?");
+            builder.append('a');
+        }
+        regex.append(builder);
+        input = builder.toString();
+        matcher = Parser.compileUncached(regex.toString(), CompileOptions.DEFAULT.withEngine(engine));
+        pattern = Pattern.compile(regex.toString());
+    }
+
+    @Benchmark
+    public boolean match() {
+        return matcher.matches(input);
+    }
+
+    @Benchmark
+    public boolean javaUtilRegex() {
+        return pattern.matcher(input).matches();
+    }
+}
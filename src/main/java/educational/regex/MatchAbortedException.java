@@ -0,0 +1,44 @@
+package educational.regex;
+
+/**
+ * A match that was given up on before it was done, because it went over one of the limits it was called with.
+ * Nothing is known about whether the input matches.
+ */
+public class MatchAbortedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason {
+        /**
+         * The match took more steps than its budget.
+         */
+        STEP_BUDGET,
+        /**
+         * The match was still running at its deadline.
+         */
+        DEADLINE,
+        /**
+         * The match was cancelled from elsewhere.
+         */
+        CANCELLED,
+    }
+
+    private final Reason reason;
+    private final long steps;
+
+    public MatchAbortedException(final Reason reason, final long steps) {
+        super("Match aborted (" + reason + ") after " + steps + " steps");
+        this.reason = reason;
+        this.steps = steps;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * How many steps the match had taken when it was given up on, as counted at the last check.
+     */
+    public long getSteps() {
+        return steps;
+    }
+}
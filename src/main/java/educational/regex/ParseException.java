@@ -4,4 +4,24 @@ package educational.regex;
  * Created by prasanna.venkatasubramanian on 9/2/15.
  */
 public class ParseException extends Exception {
+    private final int position;
+
+    public ParseException() {
+        this.position = -1;
+    }
+
+    /**
+     * @param position index into the pattern where the problem was found.
+     */
+    public ParseException(final String message, final int position) {
+        super(message + " at position " + position);
+        this.position = position;
+    }
+
+    /**
+     * Index into the pattern where the problem was found, or -1 if not known.
+     */
+    public int getPosition() {
+        return position;
+    }
 }
@@ -4,4 +4,10 @@ package educational.regex;
  * Created by prasanna.venkatasubramanian on 9/3/15.
  */
 public class UnexpectedEscapeChar extends ParseException {
+    public UnexpectedEscapeChar() {
+    }
+
+    public UnexpectedEscapeChar(final int position) {
+        super("Unexpected escape", position);
+    }
 }
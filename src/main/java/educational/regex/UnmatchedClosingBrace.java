@@ -4,4 +4,10 @@ package educational.regex;
  * Created by prasanna.venkatasubramanian on 9/2/15.
  */
 public class UnmatchedClosingBrace extends ParseException {
+    public UnmatchedClosingBrace() {
+    }
+
+    public UnmatchedClosingBrace(final int position) {
+        super("Unmatched closing brace", position);
+    }
 }
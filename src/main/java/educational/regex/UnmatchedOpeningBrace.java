@@ -0,0 +1,10 @@
+package educational.regex;
+
+/**
+ * An opening brace that is never closed.
+ */
+public class UnmatchedOpeningBrace extends ParseException {
+    public UnmatchedOpeningBrace(final int position) {
+        super("Unmatched opening brace", position);
+    }
+}
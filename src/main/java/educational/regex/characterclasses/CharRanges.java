@@ -0,0 +1,115 @@
+package educational.regex.characterclasses;
+
+import java.util.Arrays;
+
+/**
+ * Set operations on sets of chars written down as sorted, non-overlapping, non-adjacent ranges.
+ * A set is an int[] of inclusive [from, to] pairs: {'0', '9', 'a', 'z'} is [0-9a-z].
+ */
+final class CharRanges {
+    static final int[] EMPTY = {};
+    static final int[] ALL = {Character.MIN_VALUE, Character.MAX_VALUE};
+
+    private CharRanges() {
+    }
+
+    static int[] of(final char from, final char to) {
+        return new int[]{from, to};
+    }
+
+    static int[] union(final int[] one, final int[] two) {
+        final int[] all = new int[one.length + two.length];
+        System.arraycopy(one, 0, all, 0, one.length);
+        System.arraycopy(two, 0, all, one.length, two.length);
+        return canonicalize(all);
+    }
+
+    static int[] intersection(final int[] one, final int[] two) {
+        final int[] result = new int[one.length + two.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < one.length && j < two.length) {
+            final int from = Math.max(one[i], two[j]);
+            final int to = Math.min(one[i + 1], two[j + 1]);
+            if (from <= to) {
+                result[count++] = from;
+                result[count++] = to;
+            }
+            // Move past whichever range ends first.
+            if (one[i + 1] < two[j + 1]) {
+                i += 2;
+            } else {
+                j += 2;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    static int[] complement(final int[] ranges) {
+        final int[] result = new int[ranges.length + 2];
+        int count = 0;
+        int from = Character.MIN_VALUE;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > from) {
+                result[count++] = from;
+                result[count++] = ranges[i] - 1;
+            }
+            from = ranges[i + 1] + 1;
+        }
+        if (from <= Character.MAX_VALUE) {
+            result[count++] = from;
+            result[count++] = Character.MAX_VALUE;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Works out the ranges of any character class by asking it about every char. Only needed for
+     * classes that don't come out of CharacterClasses.
+     */
+    static int[] probe(final CharacterClass characterClass) {
+        int[] result = new int[16];
+        int count = 0;
+        int from = -1;
+        for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE + 1; ++c) {
+            final boolean accepted = c <= Character.MAX_VALUE && characterClass.isAccepted((char) c);
+            if (accepted && from < 0) {
+                from = c;
+            } else if (!accepted && from >= 0) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count * 2);
+                }
+                result[count++] = from;
+                result[count++] = c - 1;
+                from = -1;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Sorts the ranges and merges the ones that overlap or touch.
+     */
+    static int[] canonicalize(final int[] ranges) {
+        final long[] packed = new long[ranges.length / 2];
+        for (int i = 0; i < packed.length; ++i) {
+            packed[i] = ((long) ranges[2 * i] << 32) | ranges[2 * i + 1];
+        }
+        Arrays.sort(packed);
+
+        final int[] result = new int[ranges.length];
+        int count = 0;
+        for (final long range : packed) {
+            final int from = (int) (range >>> 32);
+            final int to = (int) range;
+            if (count > 0 && from <= result[count - 1] + 1) {
+                result[count - 1] = Math.max(result[count - 1], to);
+            } else {
+                result[count++] = from;
+                result[count++] = to;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+}
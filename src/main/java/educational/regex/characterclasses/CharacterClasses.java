@@ -34,5 +34,71 @@ public class CharacterClasses {
     public static CharacterClass intersection(final CharacterClass setOne, final CharacterClass setTwo) {
         return new Intersection(setOne, setTwo);
     }
-}
 
+    /**
+     * Flattens a tree of character classes (unions, intersections, negations and so on) into a single class
+     * that answers isAccepted() with a table lookup.
+     */
+    public static CharacterClass compile(final CharacterClass characterClass) {
+        if (characterClass instanceof CompiledCharacterClass) {
+            return characterClass;
+        }
+        return new CompiledCharacterClass(ranges(characterClass));
+    }
+
+    /**
+     * The compiled class that accepts the chars in the given inclusive [from, to] pairs, which can come in
+     * any order and overlap. This is the way back from ranges().
+     */
+    public static CharacterClass fromRanges(final int[] ranges) {
+        if (ranges.length % 2 != 0) {
+            throw new IllegalArgumentException("Ranges come in pairs, got " + ranges.length + " ints");
+        }
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] < Character.MIN_VALUE || ranges[i] > ranges[i + 1] || ranges[i + 1] > Character.MAX_VALUE) {
+                throw new IllegalArgumentException("Not a range of chars: [" + ranges[i] + ", " + ranges[i + 1] + "]");
+            }
+        }
+        return new CompiledCharacterClass(CharRanges.canonicalize(ranges.clone()));
+    }
+
+    /**
+     * The chars the class accepts, as sorted, non-overlapping and non-adjacent inclusive [from, to] pairs.
+     * An empty array means the class accepts nothing.
+     */
+    public static int[] ranges(final CharacterClass characterClass) {
+        if (characterClass instanceof CompiledCharacterClass) {
+            return ((CompiledCharacterClass) characterClass).getRanges();
+        }
+        if (characterClass instanceof SingleChar) {
+            final char c = ((SingleChar) characterClass).getAcceptedChar();
+            return CharRanges.of(c, c);
+        }
+        if (characterClass instanceof Range) {
+            final Range range = (Range) characterClass;
+            return CharRanges.of(range.getFrom(), range.getTo());
+        }
+        if (characterClass instanceof AnyChar) {
+            return CharRanges.ALL.clone();
+        }
+        if (characterClass instanceof Negation) {
+            return CharRanges.complement(ranges(((Negation) characterClass).getNegated()));
+        }
+        if (characterClass instanceof Union) {
+            // [a-zA-Z0-9_] comes out as a left leaning chain of unions, walk down it without recursing.
+            CharacterClass current = characterClass;
+            int[] ranges = CharRanges.EMPTY;
+            while (current instanceof Union) {
+                final Union union = (Union) current;
+                ranges = CharRanges.union(ranges, ranges(union.getSetTwo()));
+                current = union.getSetOne();
+            }
+            return CharRanges.union(ranges, ranges(current));
+        }
+        if (characterClass instanceof Intersection) {
+            final Intersection intersection = (Intersection) characterClass;
+            return CharRanges.intersection(ranges(intersection.getSetOne()), ranges(intersection.getSetTwo()));
+        }
+        return CharRanges.probe(characterClass);
+    }
+}
@@ -0,0 +1,172 @@
+package educational.regex.characterclasses;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A character class flattened into lookup tables, so that testing a char never goes through more than
+ * one of them: a 256 bit bitmap for Latin-1 (which covers ASCII), and a two level table for the rest of
+ * the BMP, where the high byte of the char picks a 256 bit block and the low byte picks the bit in it.
+ * Blocks that come out the same (most commonly all clear or all set) are stored once.
+ *
+ * The canonical sorted list of ranges the tables are built from is kept around for anyone that wants to
+ * reason about the class as a whole.
+ */
+final class CompiledCharacterClass implements CharacterClass {
+    private static final int BLOCK_BITS = 256;
+    private static final int LONGS_PER_BLOCK = BLOCK_BITS / 64;
+    private static final long[] ALL_CLEAR = new long[LONGS_PER_BLOCK];
+    private static final long[] ALL_SET = {-1L, -1L, -1L, -1L};
+
+    private final int[] ranges;
+    private final long[] latin1;
+    private final char[] blockIndex;
+    private final long[] blocks;
+
+    CompiledCharacterClass(final int[] ranges) {
+        this.ranges = ranges;
+
+        // Each block is built straight from the ranges: it's all clear unless a range covers it whole, in
+        // which case it's all set, or only part of it, in which case its bits are filled in.
+        this.latin1 = new long[LONGS_PER_BLOCK];
+        final int blockCount = (Character.MAX_VALUE + 1) / BLOCK_BITS;
+        final boolean[] allSet = new boolean[blockCount];
+        final long[][] partial = new long[blockCount][];
+        for (int i = 0; i < ranges.length; i += 2) {
+            final int lo = ranges[i];
+            final int hi = ranges[i + 1];
+            if (lo < BLOCK_BITS) {
+                setBits(latin1, lo, Math.min(hi, BLOCK_BITS - 1));
+            }
+            for (int high = lo >>> 8; high <= hi >>> 8; ++high) {
+                final int blockLo = Math.max(lo, high << 8);
+                final int blockHi = Math.min(hi, (high << 8) | 0xFF);
+                if (blockHi - blockLo == BLOCK_BITS - 1) {
+                    allSet[high] = true;
+                } else {
+                    if (partial[high] == null) {
+                        partial[high] = new long[LONGS_PER_BLOCK];
+                    }
+                    setBits(partial[high], blockLo & 0xFF, blockHi & 0xFF);
+                }
+            }
+        }
+
+        // Only the blocks that are neither all clear nor all set need to be compared to find the distinct ones.
+        final Map<Block, Integer> distinctBlocks = new HashMap<Block, Integer>();
+        final List<long[]> blockList = new ArrayList<long[]>();
+        int clearIndex = -1;
+        int setIndex = -1;
+        this.blockIndex = new char[blockCount];
+        for (int high = 0; high < blockCount; ++high) {
+            final int index;
+            if (allSet[high]) {
+                if (setIndex < 0) {
+                    setIndex = blockList.size();
+                    blockList.add(ALL_SET);
+                }
+                index = setIndex;
+            } else if (partial[high] == null) {
+                if (clearIndex < 0) {
+                    clearIndex = blockList.size();
+                    blockList.add(ALL_CLEAR);
+                }
+                index = clearIndex;
+            } else {
+                final Block block = new Block(partial[high]);
+                final Integer known = distinctBlocks.get(block);
+                if (known == null) {
+                    index = blockList.size();
+                    distinctBlocks.put(block, index);
+                    blockList.add(partial[high]);
+                } else {
+                    index = known;
+                }
+            }
+            blockIndex[high] = (char) index;
+        }
+        this.blocks = new long[blockList.size() * LONGS_PER_BLOCK];
+        for (int i = 0; i < blockList.size(); ++i) {
+            System.arraycopy(blockList.get(i), 0, blocks, i * LONGS_PER_BLOCK, LONGS_PER_BLOCK);
+        }
+    }
+
+    /**
+     * Sets bits from..to, inclusive, a whole long at a time where it can.
+     */
+    private static void setBits(final long[] bits, final int from, final int to) {
+        final int first = from >>> 6;
+        final int last = to >>> 6;
+        final long lastMask = -1L >>> (63 - (to & 63));
+        if (first == last) {
+            bits[first] |= (-1L << from) & lastMask;
+            return;
+        }
+        bits[first] |= -1L << from;
+        for (int i = first + 1; i < last; ++i) {
+            bits[i] = -1L;
+        }
+        bits[last] |= lastMask;
+    }
+
+    @Override
+    public boolean isAccepted(final char c) {
+        if (c < BLOCK_BITS) {
+            return (latin1[c >>> 6] & (1L << c)) != 0;
+        }
+        return (blocks[(blockIndex[c >>> 8] * LONGS_PER_BLOCK) | ((c & 0xFF) >>> 6)] & (1L << c)) != 0;
+    }
+
+    public int[] getRanges() {
+        return ranges.clone();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof CompiledCharacterClass && Arrays.equals(ranges, ((CompiledCharacterClass) o).ranges);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ranges);
+    }
+
+    @Override
+    public String toString() {
+        if (Arrays.equals(ranges, CharRanges.ALL)) {
+            return "ANY";
+        }
+        if (ranges.length == 2 && ranges[0] == ranges[1]) {
+            return String.valueOf((char) ranges[0]);
+        }
+        final StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < ranges.length; i += 2) {
+            sb.append((char) ranges[i]);
+            if (ranges[i + 1] != ranges[i]) {
+                sb.append('-').append((char) ranges[i + 1]);
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    private static final class Block {
+        private final long[] bits;
+
+        Block(final long[] bits) {
+            this.bits = bits;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Block && Arrays.equals(bits, ((Block) o).bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bits);
+        }
+    }
+}
@@ -6,4 +6,10 @@ import educational.regex.ParseException;
  * Created by prasanna.venkatasubramanian on 9/6/15.
  */
 public class InvalidCharacterClassSpecification extends ParseException {
+    public InvalidCharacterClassSpecification() {
+    }
+
+    public InvalidCharacterClassSpecification(final String message, final int position) {
+        super(message, position);
+    }
 }
@@ -15,6 +15,10 @@ class Negation implements CharacterClass {
         return !characterClass.isAccepted(c);
     }
 
+    public CharacterClass getNegated() {
+        return characterClass;
+    }
+
     @Override
     public String toString() {
         return "not " + characterClass.toString();
@@ -20,6 +20,14 @@ class Range implements CharacterClass {
         return from <= c && c <= to;
     }
 
+    public char getFrom() {
+        return from;
+    }
+
+    public char getTo() {
+        return to;
+    }
+
     @Override
     public String toString() {
         return "[" + from + "-" + to + "]";
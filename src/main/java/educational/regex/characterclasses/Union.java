@@ -17,6 +17,14 @@ class Union implements CharacterClass {
         return setOne.isAccepted(c) || setTwo.isAccepted(c);
     }
 
+    public CharacterClass getSetOne() {
+        return setOne;
+    }
+
+    public CharacterClass getSetTwo() {
+        return setTwo;
+    }
+
     @Override
     public String toString() {
         return setOne.toString() + " union " + setTwo.toString();
@@ -0,0 +1,76 @@
+package educational.regex.parser;
+
+import educational.regex.characterclasses.CharacterClass;
+import educational.regex.characterclasses.CharacterClasses;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Splits the chars into equivalence classes, such that no character class of the program can tell two
+ * chars of the same equivalence class apart. An automaton then only needs a transition per equivalence
+ * class instead of one per char: [a-z]+x has just four of them, [^a-z], [a-w], x and [y-z].
+ *
+ * Equivalence classes are numbered in the order of the chars they hold, and each is a contiguous range.
+ */
+final class Alphabet {
+    private static final int ASCII = 128;
+
+    // Equivalence class i is [boundaries[i], boundaries[i + 1] - 1].
+    private final int[] boundaries;
+    private final int[] asciiClasses = new int[ASCII];
+
+    private Alphabet(final int[] boundaries) {
+        this.boundaries = boundaries;
+        for (int c = 0; c < ASCII; ++c) {
+            asciiClasses[c] = search(c);
+        }
+    }
+
+    public static Alphabet of(final CharacterClass[] classes) {
+        final TreeSet<Integer> boundaries = new TreeSet<Integer>();
+        boundaries.add((int) Character.MIN_VALUE);
+        boundaries.add(Character.MAX_VALUE + 1);
+        for (final CharacterClass characterClass : classes) {
+            final int[] ranges = CharacterClasses.ranges(characterClass);
+            for (int i = 0; i < ranges.length; i += 2) {
+                boundaries.add(ranges[i]);
+                boundaries.add(ranges[i + 1] + 1);
+            }
+        }
+
+        final int[] sortedBoundaries = new int[boundaries.size()];
+        int i = 0;
+        for (final int boundary : boundaries) {
+            sortedBoundaries[i++] = boundary;
+        }
+        return new Alphabet(sortedBoundaries);
+    }
+
+    public int size() {
+        return boundaries.length - 1;
+    }
+
+    public int classOf(final char c) {
+        return c < ASCII ? asciiClasses[c] : search(c);
+    }
+
+    /**
+     * The smallest char in the given equivalence class, it stands in for all of them.
+     */
+    public char representative(final int equivalenceClass) {
+        return (char) boundaries[equivalenceClass];
+    }
+
+    /**
+     * The largest char in the given equivalence class.
+     */
+    public char last(final int equivalenceClass) {
+        return (char) (boundaries[equivalenceClass + 1] - 1);
+    }
+
+    private int search(final int c) {
+        final int index = Arrays.binarySearch(boundaries, c);
+        return index >= 0 ? index : -index - 2;
+    }
+}
@@ -0,0 +1,25 @@
+package educational.regex.parser;
+
+import java.util.List;
+
+/**
+ * Two or more branches separated by |, which are preferred in the order they appear.
+ */
+final class AlternationNode extends Node {
+    final List<Node> branches;
+
+    AlternationNode(final List<Node> branches, final int start, final int end) {
+        super(start, end);
+        this.branches = branches;
+    }
+
+    @Override
+    List<Node> getChildren() {
+        return branches;
+    }
+
+    @Override
+    String label() {
+        return "alt";
+    }
+}
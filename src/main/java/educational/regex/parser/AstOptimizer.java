@@ -0,0 +1,271 @@
+package educational.regex.parser;
+
+import educational.regex.characterclasses.CharacterClass;
+import educational.regex.characterclasses.CharacterClasses;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Stack;
+
+/**
+ * Rewrites a syntax tree from RegexParser into a smaller one for the same pattern, which lowers to fewer
+ * NFA states. Patterns generated from lists of words are full of a|b|c and foo|foobar|fool.
+ *
+ * <ul>
+ * <li>Non-capturing groups are dropped, since such a group is just its child, and nested concats and
+ * alternations are flattened into their parents. Capture groups stay, and nothing is merged across one.</li>
+ * <li>Branches next to each other that are single chars or classes, as in a|b|[cd], become one class.</li>
+ * <li>Branches next to each other that start with the same chars share them, the way a trie would:
+ * foobar|fool becomes foo(bar|l). A branch that is all shared, as in foobar|foo, would leave an empty
+ * branch, which is dropped by making the rest optional: foo(bar)?.</li>
+ * <li>A repetition of a repetition, as in (x*)* or (x+)?, becomes a single one where that's the same.</li>
+ * </ul>
+ *
+ * None of this changes which match find() prefers, only how it's reached. That's why only branches next
+ * to each other are merged, and why an empty branch can only be dropped when it comes last: in foo|foobar
+ * the foo is preferred, which foo(bar)? wouldn't do, so that one is left as is.
+ */
+final class AstOptimizer {
+    /**
+     * Factoring out a shared prefix recurses on the branches after it, to at most this depth.
+     */
+    private static final int MAX_FACTORING_DEPTH = 100;
+
+    private AstOptimizer() {
+    }
+
+    /**
+     * The tree is walked in post-order with an explicit stack, like RegexNfa.fromAst() does, so the
+     * children of a node have been rewritten by the time the node is.
+     */
+    public static Node optimize(final Node root) {
+        final Stack<Visit> visits = new Stack<Visit>();
+        final Stack<Node> rewritten = new Stack<Node>();
+        visits.push(new Visit(root));
+        while (!visits.empty()) {
+            final Visit visit = visits.peek();
+            final List<Node> children = visit.node.getChildren();
+            if (visit.child < children.size()) {
+                visits.push(new Visit(children.get(visit.child++)));
+                continue;
+            }
+            visits.pop();
+            final Node[] newChildren = new Node[children.size()];
+            for (int i = newChildren.length - 1; i >= 0; --i) {
+                newChildren[i] = rewritten.pop();
+            }
+            rewritten.push(rewrite(visit.node, Arrays.asList(newChildren)));
+        }
+        return rewritten.pop();
+    }
+
+    private static Node rewrite(final Node node, final List<Node> children) {
+        if (node instanceof GroupNode) {
+            final GroupNode group = (GroupNode) node;
+            return group.index == GroupNode.NON_CAPTURING ? children.get(0) :
+                    new GroupNode(children.get(0), group.index, node.start, node.end);
+        }
+        if (node instanceof ConcatNode) {
+            return concat(children, node.start, node.end);
+        }
+        if (node instanceof AlternationNode) {
+            return alternation(children, node.start, node.end, 0);
+        }
+        if (node instanceof RepeatNode) {
+            final RepeatNode repeat = (RepeatNode) node;
+            return repeat(children.get(0), repeat.min, repeat.max, node.start, node.end);
+        }
+        return node;
+    }
+
+    private static Node concat(final List<Node> items, final int start, final int end) {
+        final List<Node> flattened = new ArrayList<Node>(items.size());
+        for (final Node item : items) {
+            flattened.addAll(itemsOf(item));
+        }
+        return flattened.size() == 1 ? flattened.get(0) : new ConcatNode(flattened, start, end);
+    }
+
+    /**
+     * x{1} is x, (x*){m,n} is x*, and the repetitions that are each one of ?, * and + make a single one:
+     * it's optional if either is, and unbounded if either is.
+     */
+    private static Node repeat(final Node child, final int min, final int max, final int start, final int end) {
+        if (min == 1 && max == 1) {
+            return child;
+        }
+        if (child instanceof RepeatNode) {
+            final RepeatNode inner = (RepeatNode) child;
+            if (inner.min == 0 && inner.max == RepeatNode.UNBOUNDED) {
+                return inner;
+            }
+            if (isSimple(inner.min, inner.max) && isSimple(min, max)) {
+                final boolean unbounded = inner.max == RepeatNode.UNBOUNDED || max == RepeatNode.UNBOUNDED;
+                return new RepeatNode(inner.child, inner.min * min, unbounded ? RepeatNode.UNBOUNDED : 1, start, end);
+            }
+        }
+        return new RepeatNode(child, min, max, start, end);
+    }
+
+    private static boolean isSimple(final int min, final int max) {
+        return (min == 0 || min == 1) && (max == 1 || max == RepeatNode.UNBOUNDED);
+    }
+
+    private static Node alternation(final List<Node> branches, final int start, final int end, final int depth) {
+        final List<Node> flattened = new ArrayList<Node>(branches.size());
+        for (final Node branch : branches) {
+            if (branch instanceof AlternationNode) {
+                flattened.addAll(((AlternationNode) branch).branches);
+            } else {
+                flattened.add(branch);
+            }
+        }
+
+        List<Node> result = mergeClasses(flattened);
+        if (depth < MAX_FACTORING_DEPTH) {
+            result = factorPrefixes(result, depth);
+        }
+        return result.size() == 1 ? result.get(0) : new AlternationNode(result, start, end);
+    }
+
+    /**
+     * Merges each run of single char branches into one class.
+     */
+    private static List<Node> mergeClasses(final List<Node> branches) {
+        final List<Node> merged = new ArrayList<Node>(branches.size());
+        for (int i = 0; i < branches.size(); ) {
+            int j = i;
+            while (j < branches.size() && isSingleChar(branches.get(j))) {
+                ++j;
+            }
+            if (j - i < 2) {
+                merged.add(branches.get(i));
+                ++i;
+                continue;
+            }
+            int length = 0;
+            final int[][] ranges = new int[j - i][];
+            for (int k = i; k < j; ++k) {
+                ranges[k - i] = CharacterClasses.ranges(classOf(branches.get(k)));
+                length += ranges[k - i].length;
+            }
+            final int[] all = new int[length];
+            length = 0;
+            for (final int[] r : ranges) {
+                System.arraycopy(r, 0, all, length, r.length);
+                length += r.length;
+            }
+            merged.add(new ClassNode(CharacterClasses.fromRanges(all), branches.get(i).start, branches.get(j - 1).end));
+            i = j;
+        }
+        return merged;
+    }
+
+    /**
+     * Makes each run of branches that start with the same literal into a single branch. A run stops at a
+     * branch that is just that literal, so an emptied branch can only be the last one.
+     */
+    private static List<Node> factorPrefixes(final List<Node> branches, final int depth) {
+        final List<Node> factored = new ArrayList<Node>(branches.size());
+        for (int i = 0; i < branches.size(); ) {
+            final LiteralNode first = firstLiteral(branches.get(i));
+            int j = i + 1;
+            if (first != null) {
+                while (j < branches.size() && itemsOf(branches.get(j - 1)).size() > 1 &&
+                        isLiteral(firstLiteral(branches.get(j)), first.c)) {
+                    ++j;
+                }
+            }
+            factored.add(j - i < 2 ? branches.get(i) : factor(branches.subList(i, j), depth));
+            i = j;
+        }
+        return factored;
+    }
+
+    /**
+     * Takes the longest literal prefix that the branches share, and that leaves all but the last one with
+     * something after it, out of them.
+     */
+    private static Node factor(final List<Node> run, final int depth) {
+        final List<List<Node>> items = new ArrayList<List<Node>>(run.size());
+        for (final Node branch : run) {
+            items.add(itemsOf(branch));
+        }
+        int shared = 1;
+        while (sharesLiteral(items, shared)) {
+            ++shared;
+        }
+
+        final Node last = run.get(run.size() - 1);
+        final List<Node> rests = new ArrayList<Node>(run.size());
+        for (final List<Node> branch : items) {
+            if (branch.size() > shared) {
+                final List<Node> rest = branch.subList(shared, branch.size());
+                rests.add(rest.size() == 1 ? rest.get(0) :
+                        new ConcatNode(new ArrayList<Node>(rest), rest.get(0).start, rest.get(rest.size() - 1).end));
+            }
+        }
+        final int restStart = rests.get(0).start;
+        Node rest = alternation(rests, restStart, last.end, depth + 1);
+        if (rests.size() < run.size()) {
+            rest = repeat(rest, 0, 1, restStart, last.end);
+        }
+
+        final List<Node> factored = new ArrayList<Node>(items.get(0).subList(0, shared));
+        factored.add(rest);
+        return concat(factored, run.get(0).start, last.end);
+    }
+
+    /**
+     * Whether the item at index is the same literal in all the branches, and isn't the last item of any
+     * but the last branch.
+     */
+    private static boolean sharesLiteral(final List<List<Node>> items, final int index) {
+        final List<Node> lastBranch = items.get(items.size() - 1);
+        if (index >= lastBranch.size() || !(items.get(0).get(index) instanceof LiteralNode)) {
+            return false;
+        }
+        final char c = ((LiteralNode) items.get(0).get(index)).c;
+        for (int i = 0; i < items.size(); ++i) {
+            final List<Node> branch = items.get(i);
+            final int limit = i == items.size() - 1 ? branch.size() : branch.size() - 1;
+            if (index >= limit || !isLiteral(branch.get(index), c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Node> itemsOf(final Node node) {
+        return node instanceof ConcatNode ? ((ConcatNode) node).items : Collections.singletonList(node);
+    }
+
+    private static LiteralNode firstLiteral(final Node node) {
+        final Node first = itemsOf(node).get(0);
+        return first instanceof LiteralNode ? (LiteralNode) first : null;
+    }
+
+    private static boolean isLiteral(final Node node, final char c) {
+        return node instanceof LiteralNode && ((LiteralNode) node).c == c;
+    }
+
+    private static boolean isSingleChar(final Node node) {
+        return node instanceof LiteralNode || node instanceof ClassNode;
+    }
+
+    private static CharacterClass classOf(final Node node) {
+        return node instanceof LiteralNode ?
+                CharacterClasses.exactMatchOf(((LiteralNode) node).c) : ((ClassNode) node).characterClass;
+    }
+
+    private static final class Visit {
+        private final Node node;
+        private int child = 0;
+
+        Visit(final Node node) {
+            this.node = node;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package educational.regex.parser;
+
+import educational.regex.characterclasses.CharacterClass;
+import educational.regex.characterclasses.CharacterClasses;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A binary format for compiled patterns, so a process that needs thousands of them can load them at
+ * startup instead of parsing and compiling each one.
+ *
+ * What gets saved is everything the parser works out: the NfaProgram (states, transitions, character
+ * classes as ranges, and the pattern ids on MATCH states), the literals the prefilter is built from, and
+ * the CompileOptions. Loading builds the Matcher straight from those. Tables that are derived from the
+ * program, like the epsilon closures, the lookup tables of the classes and any DFA, are built again on
+ * load.
+ *
+ * The layout, all big endian:
+ *
+ * header:  int magic ("RGXA"), int version, int payload length, int CRC32 of the payload
+ * payload: int number of patterns, then for each:
+ *          string pattern
+ *          string engine name, int dfaCacheSize, int dfaStateLimit
+ *          string prefix, string suffix, string required
+ *          int size, int start, then per pc: byte opcode, int next, int alternative, int classIndex, int matchId,
+ *                                            int counterMin, int counterMax, int slot
+ *          int number of classes, then for each: int number of ranges, int from and int to for each range
+ *
+ * where a string is an int length followed by that many chars.
+ */
+public final class AutomatonFormat {
+    static final int MAGIC = 0x52475841;
+    static final int VERSION = 3;
+    private static final int HEADER_SIZE = 16;
+    // A byte for the opcode, and seven ints.
+    private static final int PC_SIZE = 1 + 7 * 4;
+
+    private AutomatonFormat() {
+    }
+
+    /**
+     * @param matchers compiled patterns, by their regex. Iteration order is kept.
+     */
+    public static ByteBuffer encode(final Map<String, Matcher> matchers) {
+        final Writer writer = new Writer();
+        writer.putInt(matchers.size());
+        for (final Map.Entry<String, Matcher> entry : matchers.entrySet()) {
+            final Matcher matcher = entry.getValue();
+            writer.putString(entry.getKey());
+
+            final CompileOptions options = matcher.getOptions();
+            writer.putString(options.getEngine().name());
+            writer.putInt(options.getDfaCacheSize());
+            writer.putInt(options.getDfaStateLimit());
+
+            final Literals literals = matcher.getLiterals();
+            writer.putString(literals.getPrefix());
+            writer.putString(literals.getSuffix());
+            writer.putString(literals.getRequired());
+
+            final NfaProgram program = matcher.getProgram();
+            writer.putInt(program.size());
+            writer.putInt(program.start);
+            for (int pc = 0; pc < program.size(); ++pc) {
+                writer.putByte(program.opcodes[pc]);
+                writer.putInt(program.next[pc]);
+                writer.putInt(program.alternative[pc]);
+                writer.putInt(program.classIndex[pc]);
+                writer.putInt(program.matchIds[pc]);
+                writer.putInt(program.counterMin[pc]);
+                writer.putInt(program.counterMax[pc]);
+                writer.putInt(program.slots[pc]);
+            }
+            writer.putInt(program.classes.length);
+            for (final CharacterClass characterClass : program.classes) {
+                final int[] ranges = CharacterClasses.ranges(characterClass);
+                writer.putInt(ranges.length / 2);
+                for (final int bound : ranges) {
+                    writer.putInt(bound);
+                }
+            }
+        }
+
+        final ByteBuffer payload = writer.toByteBuffer();
+        final CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.remaining());
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(payload.remaining()).putInt((int) crc.getValue());
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static void write(final Map<String, Matcher> matchers, final WritableByteChannel channel)
+            throws IOException {
+        final ByteBuffer buffer = encode(matchers);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Reads the patterns at the buffer's position, leaving it right after them.
+     *
+     * @return the matchers by their regex, in the order they were written.
+     * @throws IOException if the buffer doesn't hold patterns in a version of the format we can read.
+     */
+    public static Map<String, Matcher> read(final ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IOException("Too short for a header: " + buffer.remaining() + " bytes");
+        }
+        final int magic = buffer.getInt();
+        if (magic != MAGIC) {
+            throw new IOException("Not compiled patterns, magic: " + Integer.toHexString(magic));
+        }
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version: " + version + ", expected: " + VERSION);
+        }
+        final int length = buffer.getInt();
+        final int checksum = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Truncated: payload of " + length + " bytes, " + buffer.remaining() + " left");
+        }
+
+        final ByteBuffer payload = buffer.slice();
+        payload.limit(length);
+        buffer.position(buffer.position() + length);
+        final CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Checksum mismatch");
+        }
+
+        try {
+            return readPayload(payload);
+        } catch (final BufferUnderflowException e) {
+            throw new IOException("Truncated payload", e);
+        } catch (final IllegalArgumentException e) {
+            throw new IOException("Corrupt payload: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Memory maps the file and reads the patterns in it.
+     */
+    public static Map<String, Matcher> read(final Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private static Map<String, Matcher> readPayload(final ByteBuffer payload) {
+        final int count = nonNegative(payload.getInt(), "pattern count");
+        final Map<String, Matcher> matchers = new LinkedHashMap<String, Matcher>();
+        for (int i = 0; i < count; ++i) {
+            final String pattern = getString(payload);
+
+            final CompileOptions options = CompileOptions.DEFAULT
+                    .withEngine(Engine.valueOf(getString(payload)))
+                    .withDfaCacheSize(payload.getInt())
+                    .withDfaStateLimit(payload.getInt());
+            final Literals literals = Literals.of(getString(payload), getString(payload), getString(payload));
+
+            final int size = getLength(payload, PC_SIZE, "program size");
+            final int start = payload.getInt();
+            checkPc(start, size);
+            final int[] opcodes = new int[size];
+            final int[] next = new int[size];
+            final int[] alternative = new int[size];
+            final int[] classIndex = new int[size];
+            final int[] matchIds = new int[size];
+            final int[] counterMin = new int[size];
+            final int[] counterMax = new int[size];
+            final int[] slots = new int[size];
+            for (int pc = 0; pc < size; ++pc) {
+                opcodes[pc] = payload.get();
+                next[pc] = payload.getInt();
+                alternative[pc] = payload.getInt();
+                classIndex[pc] = payload.getInt();
+                matchIds[pc] = payload.getInt();
+                counterMin[pc] = payload.getInt();
+                counterMax[pc] = payload.getInt();
+                slots[pc] = payload.getInt();
+            }
+
+            // Every class takes at least its number of ranges.
+            final CharacterClass[] classes = new CharacterClass[getLength(payload, 4, "class count")];
+            for (int k = 0; k < classes.length; ++k) {
+                final int[] ranges = new int[2 * getLength(payload, 8, "range count")];
+                for (int r = 0; r < ranges.length; ++r) {
+                    ranges[r] = payload.getInt();
+                }
+                classes[k] = CharacterClasses.fromRanges(ranges);
+            }
+
+            for (int pc = 0; pc < size; ++pc) {
+                switch (opcodes[pc]) {
+                    case NfaProgram.COUNT:
+                        if (counterMin[pc] < 1 || counterMin[pc] > counterMax[pc] ||
+                                counterMax[pc] > RegexParser.MAX_COUNT) {
+                            throw new IllegalArgumentException("Bad counts at pc " + pc + ": " + counterMin[pc] +
+                                    ", " + counterMax[pc]);
+                        }
+                        checkChar(pc, next[pc], classIndex[pc], size, classes.length);
+                        break;
+                    case NfaProgram.CHAR:
+                        checkChar(pc, next[pc], classIndex[pc], size, classes.length);
+                        break;
+                    case NfaProgram.SPLIT:
+                        checkPc(next[pc], size);
+                        checkPc(alternative[pc], size);
+                        break;
+                    case NfaProgram.SAVE:
+                        checkPc(next[pc], size);
+                        // Each slot takes a SAVE state of its own.
+                        if (slots[pc] < 0 || slots[pc] >= size) {
+                            throw new IllegalArgumentException("Bad slot at pc " + pc + ": " + slots[pc]);
+                        }
+                        break;
+                    case NfaProgram.MATCH:
+                        nonNegative(matchIds[pc], "match id");
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Bad opcode at pc " + pc + ": " + opcodes[pc]);
+                }
+            }
+
+            final NfaProgram program = new NfaProgram(opcodes, next, alternative, classIndex, matchIds, counterMin, counterMax,
+                    slots, classes, start);
+            matchers.put(pattern, new Matcher(program, literals, options));
+        }
+        return matchers;
+    }
+
+    private static String getString(final ByteBuffer buffer) {
+        final char[] chars = new char[getLength(buffer, 2, "string length")];
+        buffer.asCharBuffer().get(chars);
+        buffer.position(buffer.position() + 2 * chars.length);
+        return new String(chars);
+    }
+
+    /**
+     * Checks the next state and the class of a CHAR state, or of a COUNT state, which has them too.
+     */
+    private static void checkChar(final int pc, final int next, final int classIndex, final int size,
+                                  final int classCount) {
+        checkPc(next, size);
+        if (classIndex < 0 || classIndex >= classCount) {
+            throw new IllegalArgumentException("Bad class index at pc " + pc + ": " + classIndex);
+        }
+    }
+
+    /**
+     * Reads the number of items of something that follows, checking that the bytes left can hold that many
+     * before anything is allocated for them, so that a corrupt length can't ask for more memory than the
+     * payload could ever fill.
+     *
+     * @param itemSize the fewest bytes an item takes.
+     */
+    private static int getLength(final ByteBuffer buffer, final int itemSize, final String what) {
+        final int length = nonNegative(buffer.getInt(), what);
+        if (length > buffer.remaining() / itemSize) {
+            throw new IllegalArgumentException(what + " " + length + " is more than the " + buffer.remaining() +
+                    " bytes left can hold");
+        }
+        return length;
+    }
+
+    private static void checkPc(final int pc, final int size) {
+        if (pc < 0 || pc >= size) {
+            throw new IllegalArgumentException("pc out of range: " + pc + ", program size: " + size);
+        }
+    }
+
+    private static int nonNegative(final int value, final String what) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative " + what + ": " + value);
+        }
+        return value;
+    }
+
+    /**
+     * A growable big endian byte buffer.
+     */
+    private static final class Writer {
+        private ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+        void putByte(final int b) {
+            ensure(1);
+            buffer.put((byte) b);
+        }
+
+        void putInt(final int value) {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putString(final String string) {
+            putInt(string.length());
+            ensure(2 * string.length());
+            for (int i = 0; i < string.length(); ++i) {
+                buffer.putChar(string.charAt(i));
+            }
+        }
+
+        ByteBuffer toByteBuffer() {
+            final ByteBuffer result = buffer.duplicate();
+            result.flip();
+            return result;
+        }
+
+        private void ensure(final int bytes) {
+            if (buffer.remaining() < bytes) {
+                final ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package educational.regex.parser;
+
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Matches a batch of inputs, splitting it in halves until the pieces are down to the threshold, so a
+ * fork-join pool can spread them across its workers. Each piece is matched sequentially with one scratch.
+ *
+ * The results are the words of a BitSet. Pieces are cut at multiples of 64 inputs, so no two of them ever
+ * write to the same word.
+ */
+/* package */ final class BatchMatch extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Matcher matcher;
+    private final List<? extends CharSequence> inputs;
+    private final long[] words;
+    private final int threshold;
+    private final int from;
+    private final int to;
+
+    /**
+     * @param threshold how many inputs a piece has before it's worth splitting. At least 64.
+     */
+    BatchMatch(final Matcher matcher,
+               final List<? extends CharSequence> inputs,
+               final long[] words,
+               final int threshold,
+               final int from,
+               final int to) {
+        this.matcher = matcher;
+        this.inputs = inputs;
+        this.words = words;
+        this.threshold = threshold;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from > threshold) {
+            final int middle = (((from + to) >>> 1) + 63) & ~63;
+            invokeAll(new BatchMatch(matcher, inputs, words, threshold, from, middle),
+                    new BatchMatch(matcher, inputs, words, threshold, middle, to));
+            return;
+        }
+        final PikeVm.Scratch scratch = matcher.newScratch();
+        for (int i = from; i < to; ++i) {
+            if (matcher.matches(inputs.get(i), scratch)) {
+                words[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+}
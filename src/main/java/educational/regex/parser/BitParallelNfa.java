@@ -0,0 +1,185 @@
+package educational.regex.parser;
+
+/**
+ * Runs patterns with at most 64 character positions bit-parallel: the set of states we are on is a
+ * single long, and stepping over an input character takes a handful of bitwise operations.
+ *
+ * The automaton is the Glushkov (position) automaton, which has no unlabeled edges. Its positions are
+ * the CHAR states of the NfaProgram, and the closure tables give us everything else: first is the start
+ * closure, follow(p) is the closure after p, and p is final when that closure holds the MATCH state.
+ * Bit i stands for the i'th CHAR state in program order.
+ *
+ * Following a set of positions is done eight at a time, with a table per byte of the set
+ * (Navarro and Raffinot's trick), so it costs at most eight lookups however many of them are set.
+ */
+final class BitParallelNfa {
+    static final int MAX_POSITIONS = 64;
+
+    private static final int BITS_PER_TABLE = 8;
+
+    private final Alphabet alphabet;
+    private final long[] classMasks;
+    private final long[][] followTables;
+    private final long first;
+    private final long finals;
+    private final long acceptsForever;
+    private final boolean nullable;
+
+    private BitParallelNfa(final Alphabet alphabet,
+                           final long[] classMasks,
+                           final long[][] followTables,
+                           final long first,
+                           final long finals,
+                           final long acceptsForever,
+                           final boolean nullable) {
+        this.alphabet = alphabet;
+        this.classMasks = classMasks;
+        this.followTables = followTables;
+        this.first = first;
+        this.finals = finals;
+        this.acceptsForever = acceptsForever;
+        this.nullable = nullable;
+    }
+
+    /**
+     * @return null if the program has more than MAX_POSITIONS CHAR states.
+     */
+    public static BitParallelNfa compile(final NfaProgram program) {
+        final int[] positions = new int[program.size()];
+        int numPositions = 0;
+        for (int pc = 0; pc < program.size(); ++pc) {
+            if (program.opcodes[pc] == NfaProgram.CHAR) {
+                if (numPositions == MAX_POSITIONS) {
+                    return null;
+                }
+                positions[pc] = numPositions++;
+            }
+        }
+
+        final long[] follow = new long[numPositions];
+        long finals = 0;
+        for (int pc = 0; pc < program.size(); ++pc) {
+            if (program.opcodes[pc] == NfaProgram.CHAR) {
+                final int position = positions[pc];
+                for (final int nextPc : program.closureAfter(pc)) {
+                    if (program.isMatch(nextPc)) {
+                        finals |= 1L << position;
+                    } else {
+                        follow[position] |= 1L << positions[nextPc];
+                    }
+                }
+            }
+        }
+
+        // The positions that accept whatever input is left, see ProgramAnalysis.acceptsForever.
+        long acceptsForever = 0;
+        for (int pc = 0; program.analysis.acceptsForever != null && pc < program.size(); ++pc) {
+            if (program.analysis.acceptsForever[pc]) {
+                acceptsForever |= 1L << positions[pc];
+            }
+        }
+
+        long first = 0;
+        boolean nullable = false;
+        for (final int pc : program.startClosure()) {
+            if (program.isMatch(pc)) {
+                nullable = true;
+            } else {
+                first |= 1L << positions[pc];
+            }
+        }
+
+        final Alphabet alphabet = Alphabet.of(program.classes);
+        final long[] classMasks = new long[alphabet.size()];
+        for (int equivalenceClass = 0; equivalenceClass < classMasks.length; ++equivalenceClass) {
+            final char c = alphabet.representative(equivalenceClass);
+            for (int pc = 0; pc < program.size(); ++pc) {
+                if (program.matches(pc, c)) {
+                    classMasks[equivalenceClass] |= 1L << positions[pc];
+                }
+            }
+        }
+
+        final int numTables = (numPositions + BITS_PER_TABLE - 1) / BITS_PER_TABLE;
+        final long[][] followTables = new long[numTables][1 << BITS_PER_TABLE];
+        for (int table = 0; table < numTables; ++table) {
+            for (int bits = 1; bits < (1 << BITS_PER_TABLE); ++bits) {
+                final int lowest = Integer.numberOfTrailingZeros(bits);
+                final int position = table * BITS_PER_TABLE + lowest;
+                final long followLowest = position < numPositions ? follow[position] : 0;
+                followTables[table][bits] = followTables[table][bits & (bits - 1)] | followLowest;
+            }
+        }
+
+        return new BitParallelNfa(alphabet, classMasks, followTables, first, finals, acceptsForever, nullable);
+    }
+
+    public boolean matches(final CharSequence input) {
+        return matches(input, null);
+    }
+
+    /**
+     * @param budget if not null, the limits of the call, see MatchBudget.
+     */
+    public boolean matches(final CharSequence input, final MatchBudget budget) {
+        long active = first;
+        boolean accepting = nullable;
+        final int length = input.length();
+        for (int i = 0; i < length; ++i) {
+            if ((active & acceptsForever) != 0) {
+                return true;
+            }
+            if (budget != null) {
+                budget.step(1);
+            }
+            final long matched = active & classMasks[alphabet.classOf(input.charAt(i))];
+            if (matched == 0) {
+                return false;
+            }
+            accepting = (matched & finals) != 0;
+            active = follow(matched);
+        }
+        return accepting;
+    }
+
+    /**
+     * Looks for the pattern anywhere in input[from..].
+     *
+     * @return the smallest index at which some match ends, or -1 if there is no match.
+     */
+    public int searchFirstEnd(final CharSequence input, final int from) {
+        return searchFirstEnd(input, from, null);
+    }
+
+    /**
+     * @param budget if not null, the limits of the call, see MatchBudget.
+     */
+    public int searchFirstEnd(final CharSequence input, final int from, final MatchBudget budget) {
+        if (nullable) {
+            return from;
+        }
+        long active = first;
+        final int length = input.length();
+        for (int i = from; i < length; ++i) {
+            if (budget != null) {
+                budget.step(1);
+            }
+            final long matched = active & classMasks[alphabet.classOf(input.charAt(i))];
+            if ((matched & finals) != 0) {
+                return i + 1;
+            }
+            active = follow(matched) | first;
+        }
+        return -1;
+    }
+
+    private long follow(final long positions) {
+        long next = 0;
+        long remaining = positions;
+        for (int table = 0; remaining != 0; ++table) {
+            next |= followTables[table][(int) (remaining & 0xFF)];
+            remaining >>>= BITS_PER_TABLE;
+        }
+        return next;
+    }
+}
@@ -0,0 +1,61 @@
+package educational.regex.parser;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bytes seen as chars, each byte as the char of the same value from 0 to 255, so that the engines can walk
+ * them like any other input. For ASCII that's the text itself, and for UTF-8 it's what a program from
+ * Utf8Program expects. Nothing is copied: the bytes are read out of the buffer as they are asked for.
+ */
+final class ByteSequence implements CharSequence {
+    private final ByteBuffer bytes;
+    private int start;
+    private int length;
+
+    ByteSequence(final ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * bytes[start, end), with indexes into the whole of the buffer, not from its position.
+     */
+    ByteSequence(final ByteBuffer bytes, final int start, final int end) {
+        this(bytes);
+        reset(start, end);
+    }
+
+    void reset(final int start, final int end) {
+        this.start = start;
+        this.length = end - start;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(final int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+        }
+        return (char) (bytes.get(start + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(final int from, final int to) {
+        if (from < 0 || to > length || from > to) {
+            throw new IndexOutOfBoundsException("from: " + from + ", to: " + to + ", length: " + length);
+        }
+        return new ByteSequence(bytes, start + from, start + to);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            builder.append(charAt(i));
+        }
+        return builder.toString();
+    }
+}
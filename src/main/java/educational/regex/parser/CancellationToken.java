@@ -0,0 +1,18 @@
+package educational.regex.parser;
+
+/**
+ * Lets another thread stop the matches that were called with it, see {@link MatchLimits#withCancellation}.
+ * A match sees the cancellation at its next check, which comes at most a chunk of input later.
+ * A token can't be reset, and can be shared by any number of matches.
+ */
+public final class CancellationToken {
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
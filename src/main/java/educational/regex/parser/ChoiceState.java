@@ -1,7 +1,5 @@
 package educational.regex.parser;
 
-import java.util.Set;
-
 /**
  * Created by prasanna.venkatasubramanian on 9/2/15.
  */
@@ -17,11 +15,4 @@ class ChoiceState extends State {
     public boolean hasUnlabeledEdges() {
         return true;
     }
-
-    @Override
-    public Set<State> getNextStates() {
-        final Set<State> nextStates = super.getNextStates();
-        nextStates.add(alternative);
-        return nextStates;
-    }
 }
@@ -0,0 +1,28 @@
+package educational.regex.parser;
+
+import educational.regex.characterclasses.CharacterClass;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Any one char of a set: a bracketed class like [^a-z0-9] or the . wildcard.
+ */
+final class ClassNode extends Node {
+    final CharacterClass characterClass;
+
+    ClassNode(final CharacterClass characterClass, final int start, final int end) {
+        super(start, end);
+        this.characterClass = characterClass;
+    }
+
+    @Override
+    List<Node> getChildren() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    String label() {
+        return "[" + characterClass + "]";
+    }
+}
@@ -0,0 +1,144 @@
+package educational.regex.parser;
+
+/**
+ * Knobs that control how a pattern is compiled into a {@link Matcher}. Instances are immutable,
+ * every with* method returns a modified copy.
+ */
+public final class CompileOptions {
+    public static final CompileOptions DEFAULT =
+            new CompileOptions(Engine.NFA, 1000, 10000, false, RegexNfa.MAX_STATES, Integer.MAX_VALUE);
+
+    private final Engine engine;
+    private final int dfaCacheSize;
+    private final int dfaStateLimit;
+    private final boolean metrics;
+    private final int maxStates;
+    private final int maxClassRanges;
+
+    private CompileOptions(final Engine engine,
+                           final int dfaCacheSize,
+                           final int dfaStateLimit,
+                           final boolean metrics,
+                           final int maxStates,
+                           final int maxClassRanges) {
+        this.engine = engine;
+        this.dfaCacheSize = dfaCacheSize;
+        this.dfaStateLimit = dfaStateLimit;
+        this.metrics = metrics;
+        this.maxStates = maxStates;
+        this.maxClassRanges = maxClassRanges;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * The maximum number of DFA states the {@link Engine#LAZY_DFA} engine keeps cached before it
+     * flushes the cache and starts over.
+     */
+    public int getDfaCacheSize() {
+        return dfaCacheSize;
+    }
+
+    /**
+     * The maximum number of states the {@link Engine#DFA} engine builds before it gives up on the pattern
+     * and simulates the NFA instead.
+     */
+    public int getDfaStateLimit() {
+        return dfaStateLimit;
+    }
+
+    /**
+     * Whether the Matcher keeps {@link MatcherMetrics}. Off by default.
+     */
+    public boolean hasMetrics() {
+        return metrics;
+    }
+
+    /**
+     * The most NFA states a pattern may compile to, counting a counted repetition of a single char or class
+     * as the states it takes spelled out, as searches have it. Larger patterns fail to compile with a
+     * ParseException. A match steps over at most this many states per input char.
+     */
+    public int getMaxStates() {
+        return maxStates;
+    }
+
+    /**
+     * The most ranges a character class of the pattern may have, so [a-ce-g] has 2. A pattern with a larger
+     * class fails to compile with a ParseException. No limit by default.
+     */
+    public int getMaxClassRanges() {
+        return maxClassRanges;
+    }
+
+    public CompileOptions withEngine(final Engine engine) {
+        if (engine == null) {
+            throw new IllegalArgumentException("engine can't be null");
+        }
+        return new CompileOptions(engine, dfaCacheSize, dfaStateLimit, metrics, maxStates, maxClassRanges);
+    }
+
+    public CompileOptions withDfaCacheSize(final int dfaCacheSize) {
+        if (dfaCacheSize < 2) {
+            throw new IllegalArgumentException("The DFA cache needs room for at least 2 states, got: " + dfaCacheSize);
+        }
+        return new CompileOptions(engine, dfaCacheSize, dfaStateLimit, metrics, maxStates, maxClassRanges);
+    }
+
+    public CompileOptions withDfaStateLimit(final int dfaStateLimit) {
+        if (dfaStateLimit < 1) {
+            throw new IllegalArgumentException("The DFA state limit must be positive, got: " + dfaStateLimit);
+        }
+        return new CompileOptions(engine, dfaCacheSize, dfaStateLimit, metrics, maxStates, maxClassRanges);
+    }
+
+    /**
+     * Makes the Matcher count what its engines do, see {@link Matcher#getMetrics()}. Matchers read by
+     * {@link AutomatonFormat} never have metrics.
+     */
+    public CompileOptions withMetrics(final boolean metrics) {
+        return new CompileOptions(engine, dfaCacheSize, dfaStateLimit, metrics, maxStates, maxClassRanges);
+    }
+
+    public CompileOptions withMaxStates(final int maxStates) {
+        if (maxStates < 1) {
+            throw new IllegalArgumentException("The state limit must be positive, got: " + maxStates);
+        }
+        return new CompileOptions(engine, dfaCacheSize, dfaStateLimit, metrics, maxStates, maxClassRanges);
+    }
+
+    public CompileOptions withMaxClassRanges(final int maxClassRanges) {
+        if (maxClassRanges < 1) {
+            throw new IllegalArgumentException("The class range limit must be positive, got: " + maxClassRanges);
+        }
+        return new CompileOptions(engine, dfaCacheSize, dfaStateLimit, metrics, maxStates, maxClassRanges);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CompileOptions)) {
+            return false;
+        }
+        final CompileOptions that = (CompileOptions) o;
+        return engine == that.engine && dfaCacheSize == that.dfaCacheSize && dfaStateLimit == that.dfaStateLimit &&
+                metrics == that.metrics && maxStates == that.maxStates && maxClassRanges == that.maxClassRanges;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 31 * (31 * engine.hashCode() + dfaCacheSize) + dfaStateLimit;
+        hash = 31 * (31 * (31 * hash + (metrics ? 1 : 0)) + maxStates) + maxClassRanges;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "engine: " + engine + ", dfaCacheSize: " + dfaCacheSize + ", dfaStateLimit: " + dfaStateLimit +
+                ", metrics: " + metrics + ", maxStates: " + maxStates + ", maxClassRanges: " + maxClassRanges;
+    }
+}
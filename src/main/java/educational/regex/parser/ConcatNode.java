@@ -0,0 +1,25 @@
+package educational.regex.parser;
+
+import java.util.List;
+
+/**
+ * Two or more nodes, one after the other.
+ */
+final class ConcatNode extends Node {
+    final List<Node> items;
+
+    ConcatNode(final List<Node> items, final int start, final int end) {
+        super(start, end);
+        this.items = items;
+    }
+
+    @Override
+    List<Node> getChildren() {
+        return items;
+    }
+
+    @Override
+    String label() {
+        return "concat";
+    }
+}
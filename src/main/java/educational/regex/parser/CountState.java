@@ -0,0 +1,22 @@
+package educational.regex.parser;
+
+import educational.regex.characterclasses.CharacterClass;
+
+/**
+ * A char or class repeated between min and max times, as one state (see NfaProgram.COUNT).
+ */
+class CountState extends CharState {
+    final int min;
+    final int max;
+
+    CountState(final int id, final CharacterClass acceptableSet, final int min, final int max) {
+        super(id, acceptableSet);
+        this.min = min;
+        this.max = max;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + "{" + min + "," + max + "}";
+    }
+}
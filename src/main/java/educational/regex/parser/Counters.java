@@ -0,0 +1,100 @@
+package educational.regex.parser;
+
+import java.util.Arrays;
+
+/**
+ * The threads on the COUNT states of an NfaProgram, as working memory for one match at a time.
+ *
+ * Every thread on a COUNT state tests the same class against the same char, so they either all move on or
+ * all die, and all a thread has to remember is how many chars it has consumed there. Since that goes up by
+ * one for all of them at once, a COUNT state keeps a queue of the positions where its threads got on,
+ * oldest first, and the count of a thread is how far the current position is past where it got on. The
+ * threads that have repeated enough to leave, and the ones that can't repeat anymore, are at the front of
+ * the queue, so a step costs the same however large the counts are, and x{1000} takes a queue of 1001
+ * longs instead of a thousand states.
+ *
+ * That the threads on a COUNT state share one place in the order of preference is fine for telling
+ * whether the whole input matches, but not for searches, which run on NfaProgram.withoutCounters().
+ */
+final class Counters {
+    private final NfaProgram program;
+    private final int[] counterOf;
+    private final long[][] entered;
+    private final int[] head;
+    private final int[] size;
+
+    Counters(final NfaProgram program) {
+        this.program = program;
+        this.counterOf = new int[program.size()];
+        int count = 0;
+        for (int pc = 0; pc < program.size(); ++pc) {
+            counterOf[pc] = program.opcodes[pc] == NfaProgram.COUNT ? count++ : -1;
+        }
+        this.entered = new long[count][];
+        this.head = new int[count];
+        this.size = new int[count];
+        for (int pc = 0; pc < program.size(); ++pc) {
+            if (counterOf[pc] >= 0) {
+                // Threads with counts from 0 to max - 1 before a step, and one more that got on right here.
+                entered[counterOf[pc]] = new long[program.counterMax[pc] + 1];
+            }
+        }
+    }
+
+    void clear() {
+        Arrays.fill(size, 0);
+    }
+
+    boolean isEmpty(final int pc) {
+        return size[counterOf[pc]] == 0;
+    }
+
+    /**
+     * A thread gets on the COUNT state at pc at position. Threads that get on at the same position can't
+     * be told apart from then on, so it's kept once.
+     */
+    void enter(final int pc, final long position) {
+        final int k = counterOf[pc];
+        final long[] queue = entered[k];
+        if (size[k] > 0 && queue[(head[k] + size[k] - 1) % queue.length] == position) {
+            return;
+        }
+        final int tail = (head[k] + size[k]) % queue.length;
+        queue[tail] = position;
+        ++size[k];
+    }
+
+    /**
+     * Whether, once the char before position is accepted, some thread on the COUNT state at pc has repeated
+     * enough times to leave it.
+     */
+    boolean canLeave(final int pc, final long position) {
+        final int k = counterOf[pc];
+        return size[k] > 0 && position - entered[k][head[k]] >= program.counterMin[pc];
+    }
+
+    /**
+     * Moves the threads on the COUNT state at pc past the char before position, which its class accepted or
+     * not. The ones that have reached the most repetitions, or didn't get the char, are dropped. A thread
+     * that got on at position hasn't seen that char, and stays.
+     */
+    void step(final int pc, final boolean accepted, final long position) {
+        final int k = counterOf[pc];
+        final long[] queue = entered[k];
+        if (!accepted) {
+            final int last = (head[k] + size[k] - 1) % queue.length;
+            if (size[k] > 0 && queue[last] == position) {
+                head[k] = last;
+                size[k] = 1;
+            } else {
+                size[k] = 0;
+            }
+            return;
+        }
+        final int max = program.counterMax[pc];
+        while (size[k] > 0 && position - queue[head[k]] >= max) {
+            head[k] = (head[k] + 1) % queue.length;
+            --size[k];
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package educational.regex.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A DFA built ahead of time: the whole subset construction is done at compile time, the result is
+ * minimized with Hopcroft's algorithm, and matching is a lookup in a dense transition table per input
+ * character, with no NFA states left to look at.
+ *
+ * Transitions are on the equivalence classes of the program's Alphabet rather than on chars, so the table
+ * has a row of alphabet.size() entries per state. The table is complete: a state with nowhere to go moves
+ * to the dead state, if there is one, where the match stops early. The same goes for the universal state,
+ * an accepting one that every char keeps in, which a trailing .* makes.
+ *
+ * Subset construction can blow up exponentially ((a|b)*a(a|b)(a|b)...(a|b) needs 2^n states), so it
+ * gives up once it has more than a given number of states.
+ *
+ * Immutable, and so safe to share across threads.
+ */
+final class Dfa {
+    private final Alphabet alphabet;
+    private final int[] transitions;
+    private final int[][] matchIds;
+    private final int start;
+    private final int dead;
+    private final int universal;
+
+    private Dfa(final Alphabet alphabet,
+                final int[] transitions,
+                final int[][] matchIds,
+                final int start,
+                final int dead,
+                final int universal) {
+        this.alphabet = alphabet;
+        this.transitions = transitions;
+        this.matchIds = matchIds;
+        this.start = start;
+        this.dead = dead;
+        this.universal = universal;
+    }
+
+    /**
+     * @return null if the DFA needs more than maxStates states before minimization.
+     */
+    public static Dfa compile(final NfaProgram program, final int maxStates) {
+        final Alphabet alphabet = Alphabet.of(program.classes);
+        final int symbols = alphabet.size();
+
+        // Subset construction, numbering the DFA states in the order they are found.
+        final Map<LazyDfa.StateSet, Integer> ids = new HashMap<LazyDfa.StateSet, Integer>();
+        final List<int[]> stateSets = new ArrayList<int[]>();
+        final int[] startSet = program.startClosure().clone();
+        Arrays.sort(startSet);
+        ids.put(new LazyDfa.StateSet(startSet), 0);
+        stateSets.add(startSet);
+
+        int[] table = new int[Math.max(16, symbols)];
+        final SparseSet nextStates = new SparseSet(program.size());
+        for (int state = 0; state < stateSets.size(); ++state) {
+            if ((state + 1) * symbols > table.length) {
+                table = Arrays.copyOf(table, Math.max(table.length * 2, (state + 1) * symbols));
+            }
+            for (int symbol = 0; symbol < symbols; ++symbol) {
+                final char c = alphabet.representative(symbol);
+                nextStates.clear();
+                for (final int pc : stateSets.get(state)) {
+                    if (program.matches(pc, c)) {
+                        for (final int nextPc : program.closureAfter(pc)) {
+                            nextStates.add(nextPc);
+                        }
+                    }
+                }
+
+                final int[] nextSet = LazyDfa.toStateSet(nextStates);
+                final LazyDfa.StateSet key = new LazyDfa.StateSet(nextSet);
+                Integer next = ids.get(key);
+                if (next == null) {
+                    if (stateSets.size() == maxStates) {
+                        return null;
+                    }
+                    next = stateSets.size();
+                    ids.put(key, next);
+                    stateSets.add(nextSet);
+                }
+                table[state * symbols + symbol] = next;
+            }
+        }
+
+        final int[][] matchIds = new int[stateSets.size()][];
+        for (int state = 0; state < matchIds.length; ++state) {
+            matchIds[state] = program.matchIdsOf(stateSets.get(state));
+        }
+        return minimize(alphabet, Arrays.copyOf(table, stateSets.size() * symbols), matchIds);
+    }
+
+    Alphabet getAlphabet() {
+        return alphabet;
+    }
+
+    int getStart() {
+        return start;
+    }
+
+    /**
+     * The dead state, or -1 if every state can still get to a match.
+     */
+    int getDead() {
+        return dead;
+    }
+
+    /**
+     * The universal state, or -1 if there is none. Minimization leaves at most one for a single pattern; with
+     * several patterns there can be one for each set of them that matches, and this is one of those.
+     */
+    int getUniversal() {
+        return universal;
+    }
+
+    int transition(final int state, final int symbol) {
+        return transitions[state * alphabet.size() + symbol];
+    }
+
+    boolean isAccepting(final int state) {
+        return matchIds[state].length > 0;
+    }
+
+    public int getStateCount() {
+        return matchIds.length;
+    }
+
+    public boolean matches(final CharSequence input) {
+        return matches(input, (MatchBudget) null);
+    }
+
+    /**
+     * @param budget if not null, the limits of the call, see MatchBudget.
+     */
+    public boolean matches(final CharSequence input, final MatchBudget budget) {
+        return matchIds[run(input, budget)].length > 0;
+    }
+
+    /**
+     * @param matchingPatterns gets the ids of all the patterns that match the whole input.
+     */
+    public boolean matches(final CharSequence input, final BitSet matchingPatterns) {
+        final int[] ids = matchIds[run(input, null)];
+        for (final int id : ids) {
+            matchingPatterns.set(id);
+        }
+        return ids.length > 0;
+    }
+
+    private int run(final CharSequence input, final MatchBudget budget) {
+        final int symbols = alphabet.size();
+        int state = start;
+        final int length = input.length();
+        for (int i = 0; i < length && state != dead && state != universal; ++i) {
+            if (budget != null) {
+                budget.step(1);
+            }
+            state = transitions[state * symbols + alphabet.classOf(input.charAt(i))];
+        }
+        return state;
+    }
+
+    /**
+     * Hopcroft's algorithm. The states start out split by the patterns they accept for, and a block is split
+     * whenever some of its states move into a splitter block on a symbol and others don't. Of the two halves
+     * of a split block, only the smaller one needs to become a splitter, unless the block was already waiting
+     * to be one, which is what makes this O(n log n) splits per symbol.
+     *
+     * Blocks are ranges of the elements array. Splitting a block moves the states that go into the splitter
+     * to the front of its range, and the front part becomes a new block.
+     */
+    private static Dfa minimize(final Alphabet alphabet, final int[] table, final int[][] matchIds) {
+        final int symbols = alphabet.size();
+        final int n = matchIds.length;
+
+        // predecessors[predecessorStart[t * symbols + c] ...] are the states that move to t on c.
+        final int[] predecessorStart = new int[n * symbols + 1];
+        for (int state = 0; state < n; ++state) {
+            for (int symbol = 0; symbol < symbols; ++symbol) {
+                ++predecessorStart[table[state * symbols + symbol] * symbols + symbol + 1];
+            }
+        }
+        for (int i = 0; i < n * symbols; ++i) {
+            predecessorStart[i + 1] += predecessorStart[i];
+        }
+        final int[] predecessors = new int[n * symbols];
+        final int[] fill = Arrays.copyOf(predecessorStart, n * symbols);
+        for (int state = 0; state < n; ++state) {
+            for (int symbol = 0; symbol < symbols; ++symbol) {
+                predecessors[fill[table[state * symbols + symbol] * symbols + symbol]++] = state;
+            }
+        }
+
+        final int[] elements = new int[n];
+        final int[] location = new int[n];
+        final int[] blockOf = new int[n];
+        final int[] blockStart = new int[n + 1];
+        final int[] blockEnd = new int[n + 1];
+        final int[] marked = new int[n + 1];
+        final boolean[] waiting = new boolean[n + 1];
+        final int[] worklist = new int[n + 1];
+        int waitingCount = 0;
+
+        // The initial partition.
+        final Map<List<Integer>, Integer> blockIds = new HashMap<List<Integer>, Integer>();
+        int blocks = 0;
+        for (int state = 0; state < n; ++state) {
+            final List<Integer> key = new ArrayList<Integer>();
+            for (final int id : matchIds[state]) {
+                key.add(id);
+            }
+            Integer block = blockIds.get(key);
+            if (block == null) {
+                block = blocks++;
+                blockIds.put(key, block);
+            }
+            blockOf[state] = block;
+            ++blockEnd[block];
+        }
+        for (int block = 1; block < blocks; ++block) {
+            blockStart[block] = blockEnd[block - 1];
+            blockEnd[block] += blockStart[block];
+        }
+        final int[] blockFill = Arrays.copyOf(blockStart, blocks);
+        for (int state = 0; state < n; ++state) {
+            location[state] = blockFill[blockOf[state]]++;
+            elements[location[state]] = state;
+        }
+        for (int block = 0; block < blocks; ++block) {
+            waiting[block] = true;
+            worklist[waitingCount++] = block;
+        }
+
+        final int[] splitter = new int[n];
+        final int[] touched = new int[n];
+        while (waitingCount > 0) {
+            final int block = worklist[--waitingCount];
+            waiting[block] = false;
+            final int splitterSize = blockEnd[block] - blockStart[block];
+            System.arraycopy(elements, blockStart[block], splitter, 0, splitterSize);
+
+            for (int symbol = 0; symbol < symbols; ++symbol) {
+                int touchedCount = 0;
+                for (int k = 0; k < splitterSize; ++k) {
+                    final int index = splitter[k] * symbols + symbol;
+                    for (int p = predecessorStart[index]; p < predecessorStart[index + 1]; ++p) {
+                        final int state = predecessors[p];
+                        final int stateBlock = blockOf[state];
+                        if (location[state] < blockStart[stateBlock] + marked[stateBlock]) {
+                            continue;
+                        }
+                        if (marked[stateBlock] == 0) {
+                            touched[touchedCount++] = stateBlock;
+                        }
+                        // Swap the state to the end of the marked front of its block.
+                        final int to = blockStart[stateBlock] + marked[stateBlock]++;
+                        final int other = elements[to];
+                        elements[location[state]] = other;
+                        location[other] = location[state];
+                        elements[to] = state;
+                        location[state] = to;
+                    }
+                }
+
+                for (int t = 0; t < touchedCount; ++t) {
+                    final int split = touched[t];
+                    final int front = marked[split];
+                    marked[split] = 0;
+                    if (front == blockEnd[split] - blockStart[split]) {
+                        continue;
+                    }
+                    final int created = blocks++;
+                    blockStart[created] = blockStart[split];
+                    blockEnd[created] = blockStart[split] + front;
+                    blockStart[split] = blockEnd[created];
+                    for (int i = blockStart[created]; i < blockEnd[created]; ++i) {
+                        blockOf[elements[i]] = created;
+                    }
+                    if (waiting[split] || front <= blockEnd[split] - blockStart[split]) {
+                        waiting[created] = true;
+                        worklist[waitingCount++] = created;
+                    } else {
+                        waiting[split] = true;
+                        worklist[waitingCount++] = split;
+                    }
+                }
+            }
+        }
+
+        final int[] minimized = new int[blocks * symbols];
+        final int[][] minimizedMatchIds = new int[blocks][];
+        for (int block = 0; block < blocks; ++block) {
+            final int representative = elements[blockStart[block]];
+            minimizedMatchIds[block] = matchIds[representative];
+            for (int symbol = 0; symbol < symbols; ++symbol) {
+                minimized[block * symbols + symbol] = blockOf[table[representative * symbols + symbol]];
+            }
+        }
+
+        int dead = -1;
+        int universal = -1;
+        for (int block = 0; block < blocks; ++block) {
+            if (loopsOnEverything(minimized, block, symbols)) {
+                if (minimizedMatchIds[block].length == 0) {
+                    dead = block;
+                } else {
+                    universal = block;
+                }
+            }
+        }
+        return new Dfa(alphabet, minimized, minimizedMatchIds, blockOf[0], dead, universal);
+    }
+
+    private static boolean loopsOnEverything(final int[] table, final int state, final int symbols) {
+        for (int symbol = 0; symbol < symbols; ++symbol) {
+            if (table[state * symbols + symbol] != state) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
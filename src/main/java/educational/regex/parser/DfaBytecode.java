@@ -0,0 +1,446 @@
+package educational.regex.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Turns a Dfa into a JVM class, so that the JIT compiles the automaton itself to native code instead of
+ * a loop that looks its transitions up in a table. The generated class is a Predicate<CharSequence>, and
+ * in test() every state is a block of code, with transitions as jumps between them:
+ *
+ *   state1:
+ *       if (i == input.length()) return state1 is accepting;
+ *       c = input.charAt(i++);
+ *       if ('a' <= c && c <= 'z') goto state2;
+ *       if (c == '!') goto state3;
+ *       goto dead;
+ *
+ * So the state we are in is where the code is, and is never stored anywhere. A state tests c against
+ * the ranges of chars that take it somewhere else, and the state that the most ranges go to is left for
+ * last so it needs no test. When there are too many ranges to compare with one by one, an ASCII c
+ * picks its target from a tableswitch instead. Moving to the dead state returns false right away, and moving
+ * to the universal state true.
+ *
+ * The class file is written by hand, as version 49 (Java 5), the last one that doesn't need StackMapTable
+ * frames, and is defined by a class loader of its own so it can be unloaded along with the Matcher.
+ */
+final class DfaBytecode {
+    /**
+     * Branch offsets are signed 16 bit, so the code of the method has to stay within that.
+     */
+    static final int MAX_CODE_SIZE = Short.MAX_VALUE;
+
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    /**
+     * A state that tells more runs of chars than this apart switches on ASCII chars instead.
+     */
+    private static final int MAX_COMPARED_RUNS = 3;
+    private static final int ASCII = 128;
+
+    // Locals of test(Object).
+    private static final int INPUT = 2;
+    private static final int LENGTH = 3;
+    private static final int INDEX = 4;
+    private static final int CHAR = 5;
+
+    private DfaBytecode() {
+    }
+
+    /**
+     * @return null if the code for the DFA doesn't fit in a method.
+     */
+    @SuppressWarnings("unchecked")
+    static Predicate<CharSequence> generate(final Dfa dfa) {
+        final String name = "educational/regex/parser/GeneratedDfa" + classCount.incrementAndGet();
+        final byte[] classFile = assemble(name, dfa);
+        if (classFile == null) {
+            return null;
+        }
+        try {
+            final Class<?> generated = new Loader(DfaBytecode.class.getClassLoader()).define(name.replace('/', '.'), classFile);
+            return (Predicate<CharSequence>) generated.getConstructor().newInstance();
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException("Generated a class we can't instantiate", e);
+        }
+    }
+
+    private static byte[] assemble(final String name, final Dfa dfa) {
+        final ConstantPool pool = new ConstantPool();
+        final int thisClass = pool.classRef(name);
+        final int superClass = pool.classRef("java/lang/Object");
+        final int predicate = pool.classRef("java/util/function/Predicate");
+        final int objectInit = pool.methodRef("java/lang/Object", "<init>", "()V", false);
+        final int length = pool.methodRef("java/lang/CharSequence", "length", "()I", true);
+        final int charAt = pool.methodRef("java/lang/CharSequence", "charAt", "(I)C", true);
+        final int charSequence = pool.classRef("java/lang/CharSequence");
+        final int code = pool.utf8("Code");
+
+        final Code init = new Code();
+        init.op(0x2a);                      // aload_0
+        init.op(0xb7).u2(objectInit);       // invokespecial Object.<init>
+        init.op(0xb1);                      // return
+
+        final Code test = matchCode(dfa, pool, length, charAt, charSequence);
+        if (test == null) {
+            return null;
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            final int initName = pool.utf8("<init>");
+            final int initType = pool.utf8("()V");
+            final int testName = pool.utf8("test");
+            final int testType = pool.utf8("(Ljava/lang/Object;)Z");
+            pool.writeTo(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(predicate);
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+            writeMethod(out, initName, initType, code, init, 1, 1);
+            writeMethod(out, testName, testType, code, test, 2, CHAR + 1);
+            out.writeShort(0); // attributes
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Code matchCode(final Dfa dfa,
+                                  final ConstantPool pool,
+                                  final int length,
+                                  final int charAt,
+                                  final int charSequence) {
+        final Code code = new Code();
+        final int states = dfa.getStateCount();
+        final int reject = code.newLabel();
+        final int accept = code.newLabel();
+        final int[] stateLabels = new int[states];
+        for (int state = 0; state < states; ++state) {
+            if (state == dfa.getDead()) {
+                stateLabels[state] = reject;
+            } else if (state == dfa.getUniversal()) {
+                stateLabels[state] = accept;
+            } else {
+                stateLabels[state] = code.newLabel();
+            }
+        }
+
+        code.op(0x2b);                                    // aload_1
+        code.op(0xc0).u2(charSequence);                   // checkcast CharSequence
+        code.op(0x3a).u1(INPUT);                          // astore input
+        code.op(0x19).u1(INPUT);                          // aload input
+        code.op(0xb9).u2(length).u1(1).u1(0);             // invokeinterface length
+        code.op(0x36).u1(LENGTH);                         // istore length
+        code.op(0x03);                                    // iconst_0
+        code.op(0x36).u1(INDEX);                          // istore i
+        code.jump(0xa7, stateLabels[dfa.getStart()]);     // goto start
+
+        final Alphabet alphabet = dfa.getAlphabet();
+        for (int state = 0; state < states; ++state) {
+            if (state == dfa.getDead() || state == dfa.getUniversal()) {
+                continue;
+            }
+            code.bind(stateLabels[state]);
+            final int read = code.newLabel();
+            code.op(0x15).u1(INDEX);                      // iload i
+            code.op(0x15).u1(LENGTH);                     // iload length
+            code.jump(0xa1, read);                        // if_icmplt read
+            code.op(dfa.isAccepting(state) ? 0x04 : 0x03); // iconst_1 or iconst_0
+            code.op(0xac);                                // ireturn
+            code.bind(read);
+            code.op(0x19).u1(INPUT);                      // aload input
+            code.op(0x15).u1(INDEX);                      // iload i
+            code.op(0xb9).u2(charAt).u1(2).u1(0);         // invokeinterface charAt
+            code.op(0x36).u1(CHAR);                       // istore c
+            code.op(0x84).u1(INDEX).u1(1);                // iinc i, 1
+
+            // Runs of adjacent equivalence classes that go to the same state.
+            final List<int[]> runs = new ArrayList<int[]>();
+            final Map<Integer, Integer> runsPerTarget = new HashMap<Integer, Integer>();
+            for (int symbol = 0; symbol < alphabet.size(); ++symbol) {
+                final int target = dfa.transition(state, symbol);
+                final int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+                if (last != null && last[2] == target) {
+                    last[1] = alphabet.last(symbol);
+                } else {
+                    runs.add(new int[]{alphabet.representative(symbol), alphabet.last(symbol), target});
+                    final Integer count = runsPerTarget.get(target);
+                    runsPerTarget.put(target, count == null ? 1 : count + 1);
+                }
+            }
+            int fallback = -1;
+            for (final Map.Entry<Integer, Integer> entry : runsPerTarget.entrySet()) {
+                if (fallback < 0 || entry.getValue() > runsPerTarget.get(fallback)) {
+                    fallback = entry.getKey();
+                }
+            }
+
+            int minChar = Character.MIN_VALUE;
+            if (runs.size() - runsPerTarget.get(fallback) > MAX_COMPARED_RUNS) {
+                // Too many comparisons to go through one by one: switch on ASCII chars, and only compare the rest.
+                // The switch jumps to a goto rather than straight to the target, since the interpreter only
+                // counts gotos and ifs as loop back edges, and without those counts the loop never gets JIT
+                // compiled while it runs.
+                final Map<Integer, Integer> gotoLabels = new HashMap<Integer, Integer>();
+                final int[] asciiLabels = new int[ASCII];
+                for (int c = 0; c < ASCII; ++c) {
+                    final int target = dfa.transition(state, alphabet.classOf((char) c));
+                    Integer label = gotoLabels.get(target);
+                    if (target == dfa.getDead()) {
+                        label = reject;
+                    } else if (target == dfa.getUniversal()) {
+                        label = accept;
+                    } else if (label == null) {
+                        label = code.newLabel();
+                        gotoLabels.put(target, label);
+                    }
+                    asciiLabels[c] = label;
+                }
+                final int nonAscii = code.newLabel();
+                code.op(0x15).u1(CHAR);                   // iload c
+                code.tableSwitch(nonAscii, asciiLabels);
+                for (final Map.Entry<Integer, Integer> entry : gotoLabels.entrySet()) {
+                    code.bind(entry.getValue());
+                    code.jump(0xa7, stateLabels[entry.getKey()]); // goto target
+                }
+                code.bind(nonAscii);
+                minChar = ASCII;
+            }
+            for (final int[] run : runs) {
+                if (run[2] == fallback || run[1] < minChar) {
+                    continue;
+                }
+                final int next = code.newLabel();
+                if (run[0] > minChar) {
+                    code.op(0x15).u1(CHAR);               // iload c
+                    code.pushInt(run[0], pool);
+                    code.jump(0xa1, next);                // if_icmplt next
+                }
+                if (run[1] < Character.MAX_VALUE) {
+                    code.op(0x15).u1(CHAR);               // iload c
+                    code.pushInt(run[1], pool);
+                    code.jump(0xa3, next);                // if_icmpgt next
+                }
+                code.jump(0xa7, stateLabels[run[2]]);     // goto target
+                code.bind(next);
+            }
+            code.jump(0xa7, stateLabels[fallback]);       // goto fallback
+
+            if (code.size() > MAX_CODE_SIZE) {
+                return null;
+            }
+        }
+
+        code.bind(reject);
+        code.op(0x03);                                    // iconst_0
+        code.op(0xac);                                    // ireturn
+        code.bind(accept);
+        code.op(0x04);                                    // iconst_1
+        code.op(0xac);                                    // ireturn
+
+        return code.size() > MAX_CODE_SIZE ? null : code.resolve();
+    }
+
+    private static void writeMethod(final DataOutputStream out,
+                                    final int name,
+                                    final int type,
+                                    final int codeAttribute,
+                                    final Code code,
+                                    final int maxStack,
+                                    final int maxLocals) throws IOException {
+        final byte[] bytes = code.bytes();
+        out.writeShort(0x0001); // public
+        out.writeShort(name);
+        out.writeShort(type);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + bytes.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    /**
+     * The bytes of a method, with labels for jumps that are patched in once everything is laid out.
+     */
+    private static final class Code {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final List<Integer> labelPositions = new ArrayList<Integer>();
+        // Each is {where the offset goes, where the instruction starts, label, 2 or 4 bytes}.
+        private final List<int[]> fixups = new ArrayList<int[]>();
+        private byte[] resolved;
+
+        Code op(final int opcode) {
+            bytes.write(opcode);
+            return this;
+        }
+
+        Code u1(final int value) {
+            bytes.write(value);
+            return this;
+        }
+
+        Code u2(final int value) {
+            bytes.write(value >>> 8);
+            bytes.write(value);
+            return this;
+        }
+
+        Code u4(final int value) {
+            u2(value >>> 16);
+            return u2(value & 0xffff);
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        int newLabel() {
+            labelPositions.add(-1);
+            return labelPositions.size() - 1;
+        }
+
+        void bind(final int label) {
+            labelPositions.set(label, bytes.size());
+        }
+
+        void jump(final int opcode, final int label) {
+            final int at = bytes.size();
+            op(opcode);
+            fixups.add(new int[]{bytes.size(), at, label, 2});
+            u2(0);
+        }
+
+        void pushInt(final int value, final ConstantPool pool) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value);                         // iconst_<value>
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(0x10).u1(value);                       // bipush
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(0x11).u2(value);                       // sipush
+            } else {
+                op(0x13).u2(pool.integer(value));         // ldc_w
+            }
+        }
+
+        /**
+         * Jumps to targets[value], or to defaultLabel if value is out of range.
+         */
+        void tableSwitch(final int defaultLabel, final int[] targets) {
+            final int at = bytes.size();
+            op(0xaa);
+            while (bytes.size() % 4 != 0) {
+                u1(0);
+            }
+            fixups.add(new int[]{bytes.size(), at, defaultLabel, 4});
+            u4(0);
+            u4(0);
+            u4(targets.length - 1);
+            for (final int target : targets) {
+                fixups.add(new int[]{bytes.size(), at, target, 4});
+                u4(0);
+            }
+        }
+
+        Code resolve() {
+            final byte[] code = bytes.toByteArray();
+            for (final int[] fixup : fixups) {
+                final int offset = labelPositions.get(fixup[2]) - fixup[1];
+                if (fixup[3] == 4) {
+                    code[fixup[0]] = (byte) (offset >>> 24);
+                    code[fixup[0] + 1] = (byte) (offset >>> 16);
+                }
+                code[fixup[0] + fixup[3] - 2] = (byte) (offset >>> 8);
+                code[fixup[0] + fixup[3] - 1] = (byte) offset;
+            }
+            resolved = code;
+            return this;
+        }
+
+        byte[] bytes() {
+            return resolved != null ? resolved : bytes.toByteArray();
+        }
+    }
+
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<String, Integer>();
+        private int count = 1;
+
+        int utf8(final String value) {
+            return entry("utf8 " + value, 1, value, 0, 0);
+        }
+
+        int classRef(final String name) {
+            return entry("class " + name, 7, null, utf8(name), 0);
+        }
+
+        int integer(final int value) {
+            return entry("int " + value, 3, null, value, 0);
+        }
+
+        int methodRef(final String owner, final String name, final String type, final boolean isInterface) {
+            final int ownerIndex = classRef(owner);
+            final int nameAndType = entry("nat " + name + type, 12, null, utf8(name), utf8(type));
+            return entry("method " + owner + "." + name + type, isInterface ? 11 : 10, null, ownerIndex, nameAndType);
+        }
+
+        void writeTo(final DataOutputStream classFile) throws IOException {
+            classFile.writeShort(count);
+            classFile.write(bytes.toByteArray());
+        }
+
+        private int entry(final String key, final int tag, final String utf8, final int first, final int second) {
+            final Integer existing = entries.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            try {
+                out.writeByte(tag);
+                if (tag == 1) {
+                    out.writeUTF(utf8);
+                } else if (tag == 7) {
+                    out.writeShort(first);
+                } else if (tag == 3) {
+                    out.writeInt(first);
+                } else {
+                    out.writeShort(first);
+                    out.writeShort(second);
+                }
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+            entries.put(key, count);
+            return count++;
+        }
+    }
+
+    private static final class Loader extends ClassLoader {
+        Loader(final ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(final String name, final byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+    }
+}
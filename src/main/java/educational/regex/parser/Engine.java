@@ -0,0 +1,42 @@
+package educational.regex.parser;
+
+/**
+ * The execution strategy a compiled {@link Matcher} uses to walk the NFA.
+ */
+public enum Engine {
+    /**
+     * Simulates the NFA directly, walking on all the possible next states for every input character.
+     * A counted repetition of a single char or class, like [0-9]{1,1000}, is one state with a counter here,
+     * where the other engines unroll it into a state per repetition.
+     */
+    NFA,
+
+    /**
+     * Builds DFA states out of sets of NFA states on demand and caches the transitions between them,
+     * so an input character seen before from the same set of states costs a single array lookup.
+     * Falls back to NFA simulation when the cache keeps filling up.
+     */
+    LAZY_DFA,
+
+    /**
+     * Keeps the set of states we are on as the bits of a single long, stepping over an input character with
+     * a few bitwise operations. Only works for patterns with at most 64 character positions (roughly, 64
+     * characters or character classes); larger patterns transparently run on {@link #NFA} instead.
+     */
+    BIT_PARALLEL,
+
+    /**
+     * Builds the whole DFA at compile time and minimizes it, so matching is a table lookup per input
+     * character. Patterns whose DFA needs more than {@link CompileOptions#getDfaStateLimit()} states run on
+     * {@link #NFA} instead; {@link Matcher#getDfaStateCount()} tells which way it went.
+     */
+    DFA,
+
+    /**
+     * Builds the minimal DFA like {@link #DFA} does, and then generates a JVM class that walks it, with the
+     * states as the cases of a switch and the character classes as comparisons in the code, so it JITs to
+     * plain native code. Meant for small, hot patterns: a DFA whose code doesn't fit in a method runs on
+     * the {@link #DFA} tables instead, and one over the state limit on {@link #NFA}.
+     */
+    DFA_BYTECODE,
+}
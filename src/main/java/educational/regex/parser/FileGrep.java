@@ -0,0 +1,226 @@
+package educational.regex.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the lines of a file that match a pattern as a whole, the way calling Matcher.matches() on every
+ * line would, without reading the lines into Strings.
+ *
+ * The file is memory mapped a window at a time. Each window is cut into chunks that end at line breaks,
+ * and the chunks are matched in parallel on a fork-join pool, each worker with its own working memory.
+ * The matching lines of a window are then handed to the listener in file order, before the next window
+ * is looked at.
+ *
+ * Lines end at '\n', and a '\r' right before it is not part of the line. The file is read as UTF-8 (and
+ * so ASCII), and every line is matched straight off the mapped bytes: a line of only ASCII bytes by the
+ * matcher itself, and any other line the way Matcher.matches(ByteBuffer) would, so a line that isn't
+ * well-formed UTF-8 never matches. Offsets reported to the listener are in bytes.
+ *
+ * A FileGrep is immutable and can be shared across threads, as long as the listener can take it.
+ */
+public final class FileGrep {
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    /**
+     * Gets told about the matching lines, in the order they appear in the file.
+     */
+    public interface LineListener {
+        /**
+         * @param start byte offset of the first byte of the line.
+         * @param end byte offset right after the line, not counting the line break.
+         */
+        void onMatch(long start, long end);
+    }
+
+    private final Matcher matcher;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final int windowSize;
+
+    public FileGrep(final Matcher matcher) {
+        this(matcher, ForkJoinPool.commonPool());
+    }
+
+    public FileGrep(final Matcher matcher, final ForkJoinPool pool) {
+        this(matcher, pool, DEFAULT_CHUNK_SIZE, DEFAULT_WINDOW_SIZE);
+    }
+
+    /* package */ FileGrep(final Matcher matcher, final ForkJoinPool pool, final int chunkSize, final int windowSize) {
+        this.matcher = matcher;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @return how many lines matched.
+     * @throws IOException if the file can't be read, or has a line longer than a window.
+     */
+    public long grep(final Path file, final LineListener listener) throws IOException {
+        long matchCount = 0;
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long windowStart = 0;
+            while (windowStart < size) {
+                final int mappedLength = (int) Math.min(windowSize, size - windowStart);
+                final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, mappedLength);
+                int length = mappedLength;
+                if (windowStart + mappedLength < size) {
+                    length = lastLineBreak(window, mappedLength) + 1;
+                    if (length == 0) {
+                        throw new IOException("Line at " + windowStart + " is longer than " + windowSize + " bytes");
+                    }
+                }
+
+                final int[] chunkStarts = chunk(window, length);
+                final long[][] matches = new long[chunkStarts.length - 1][];
+                pool.invoke(new ChunkTask(window, chunkStarts, matches, 0, matches.length));
+                for (final long[] chunkMatches : matches) {
+                    for (int k = 1; k < chunkMatches[0]; k += 2) {
+                        listener.onMatch(windowStart + chunkMatches[k], windowStart + chunkMatches[k + 1]);
+                    }
+                    matchCount += chunkMatches[0] / 2;
+                }
+                windowStart += length;
+            }
+        }
+        return matchCount;
+    }
+
+    /**
+     * Offsets where chunks of about chunkSize bytes start, each one right after a line break, followed by
+     * the length.
+     */
+    private int[] chunk(final ByteBuffer window, final int length) {
+        int[] starts = new int[Math.max(2, length / chunkSize + 2)];
+        int count = 0;
+        int position = 0;
+        while (position < length) {
+            if (count == starts.length - 1) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+            }
+            starts[count++] = position;
+            position = (int) Math.min((long) position + chunkSize, length);
+            while (position < length && window.get(position - 1) != '\n') {
+                ++position;
+            }
+        }
+        starts[count++] = length;
+        return Arrays.copyOf(starts, count);
+    }
+
+    private static int lastLineBreak(final ByteBuffer window, final int length) {
+        for (int i = length - 1; i >= 0; --i) {
+            if (window.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Matches chunks [from, to), splitting them between workers.
+     */
+    private class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer window;
+        private final int[] chunkStarts;
+        private final long[][] matches;
+        private final int from;
+        private final int to;
+
+        ChunkTask(final ByteBuffer window, final int[] chunkStarts, final long[][] matches, final int from, final int to) {
+            this.window = window;
+            this.chunkStarts = chunkStarts;
+            this.matches = matches;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(window, chunkStarts, matches, from, middle),
+                        new ChunkTask(window, chunkStarts, matches, middle, to));
+                return;
+            }
+            final LineScanner scanner = new LineScanner(window);
+            for (int chunk = from; chunk < to; ++chunk) {
+                matches[chunk] = scanner.scan(chunkStarts[chunk], chunkStarts[chunk + 1]);
+            }
+        }
+    }
+
+    /**
+     * One worker's working memory.
+     */
+    private class LineScanner {
+        private final ByteBuffer window;
+        private final ByteSequence line;
+        private final PikeVm.Scratch scratch = matcher.newScratch();
+        // For the matcher over UTF-8 bytes, made when the first line that isn't ASCII comes along.
+        private PikeVm.Scratch utf8Scratch;
+
+        LineScanner(final ByteBuffer window) {
+            this.window = window;
+            this.line = new ByteSequence(window);
+        }
+
+        /**
+         * @return the offsets of the matching lines in window[from..to) as start, end pairs, after the
+         * number of entries used in slot 0.
+         */
+        long[] scan(final int from, final int to) {
+            long[] found = new long[9];
+            int used = 1;
+            int lineStart = from;
+            while (lineStart < to) {
+                int lineEnd = lineStart;
+                int bits = 0;
+                byte b;
+                while (lineEnd < to && (b = window.get(lineEnd)) != '\n') {
+                    bits |= b;
+                    ++lineEnd;
+                }
+                final int next = lineEnd + 1;
+                if (lineEnd > lineStart && window.get(lineEnd - 1) == '\r') {
+                    --lineEnd;
+                }
+
+                if (matches(lineStart, lineEnd, bits < 0)) {
+                    if (used + 2 > found.length) {
+                        found = Arrays.copyOf(found, found.length * 2);
+                    }
+                    found[used++] = lineStart;
+                    found[used++] = lineEnd;
+                }
+                lineStart = next;
+            }
+            found[0] = used;
+            return found;
+        }
+
+        private boolean matches(final int start, final int end, final boolean nonAscii) {
+            line.reset(start, end);
+            if (!nonAscii) {
+                return matcher.matches(line, scratch);
+            }
+            final Matcher utf8Matcher = matcher.utf8Matcher();
+            if (utf8Scratch == null) {
+                utf8Scratch = utf8Matcher.newScratch();
+            }
+            return utf8Matcher.matches(line, utf8Scratch);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package educational.regex.parser;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parenthesized sub-expression. Groups capture what they match, and are numbered from 1 in the order
+ * of their ( in the pattern, unless they are written (?:...).
+ */
+final class GroupNode extends Node {
+    static final int NON_CAPTURING = -1;
+
+    final Node child;
+    final int index;
+
+    /**
+     * @param index the number of the capture group, or NON_CAPTURING.
+     */
+    GroupNode(final Node child, final int index, final int start, final int end) {
+        super(start, end);
+        this.child = child;
+        this.index = index;
+    }
+
+    @Override
+    List<Node> getChildren() {
+        return Collections.singletonList(child);
+    }
+
+    @Override
+    String label() {
+        return index == NON_CAPTURING ? "?:" : "group";
+    }
+}
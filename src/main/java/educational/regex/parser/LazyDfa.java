@@ -0,0 +1,259 @@
+package educational.regex.parser;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A DFA that is built out of the NFA one state at a time, as the input demands it (subset construction
+ * done lazily). Each DFA state stands for the set of NFA states we could be on, and remembers which DFA
+ * state an input character takes it to, so walking over characters seen before is a single array lookup
+ * instead of a walk over all the NFA states.
+ *
+ * The number of DFA states kept around is capped. When the cache is full it is flushed and rebuilt from
+ * scratch. If that keeps happening while matching a single input (the cache thrashes), we give up on the
+ * DFA and finish the input on the PikeVm.
+ *
+ * Transitions are cached only for ASCII characters. Other characters still reuse the cached DFA states,
+ * but recompute the NFA step every time.
+ *
+ * This is safe to share across threads. Cached transitions are read without locking; building new states
+ * and flushing the cache happen under the lock on this object.
+ */
+class LazyDfa {
+    private static final int CACHED_ALPHABET_SIZE = 128;
+
+    /**
+     * A second flush within fewer than this many input characters per cached state means the cache is thrashing.
+     */
+    private static final int MIN_CHARS_PER_STATE = 10;
+
+    private final NfaProgram program;
+    private final PikeVm pikeVm;
+    private final int[] startStateSet;
+    private final int maxStates;
+    private final MatcherMetrics metrics;
+
+    // guarded by this
+    private Map<StateSet, DfaState> cache = new HashMap<StateSet, DfaState>();
+    private final SparseSet nextStates;
+
+    private volatile DfaState startState;
+    private volatile int flushes;
+
+    LazyDfa(final NfaProgram program, final PikeVm pikeVm, final int maxStates) {
+        this(program, pikeVm, maxStates, null);
+    }
+
+    /**
+     * @param metrics if not null, gets told about cache hits, misses and flushes, and about falling back to
+     *                the PikeVm.
+     */
+    LazyDfa(final NfaProgram program, final PikeVm pikeVm, final int maxStates, final MatcherMetrics metrics) {
+        this.program = program;
+        this.pikeVm = pikeVm;
+        this.maxStates = maxStates;
+        this.metrics = metrics;
+        this.nextStates = new SparseSet(program.size());
+        this.startStateSet = sorted(program.startClosure());
+        synchronized (this) {
+            this.startState = intern(startStateSet);
+        }
+    }
+
+    public boolean matches(final CharSequence input) {
+        return matches(input, null);
+    }
+
+    /**
+     * @param matchingPatterns if not null, gets the ids of all the patterns that match the whole input.
+     */
+    public boolean matches(final CharSequence input, final BitSet matchingPatterns) {
+        return matches(input, matchingPatterns, null);
+    }
+
+    /**
+     * @param budget if not null, the limits of the call, see MatchBudget.
+     */
+    public boolean matches(final CharSequence input, final BitSet matchingPatterns, final MatchBudget budget) {
+        DfaState current = startState;
+        int lastFlushPosition = -1;
+        // Only the misses are counted as we go, the hits are the rest of the chars read.
+        int misses = 0;
+        final int length = input.length();
+        for (int i = 0; i < length; ++i) {
+            if (current.isDead()) {
+                record(i, misses);
+                return false;
+            }
+            if (current.acceptsForever && matchingPatterns == null) {
+                record(i, misses);
+                return true;
+            }
+            if (budget != null) {
+                budget.step(1);
+            }
+            final char c = input.charAt(i);
+            DfaState next = c < CACHED_ALPHABET_SIZE ? current.transitions[c] : null;
+            if (next == null) {
+                ++misses;
+                final int flushesBefore = flushes;
+                next = step(current, c);
+                if (flushes != flushesBefore) {
+                    if (lastFlushPosition >= 0 && i - lastFlushPosition < MIN_CHARS_PER_STATE * maxStates) {
+                        record(i + 1, misses);
+                        if (metrics != null) {
+                            metrics.dfaFellBack();
+                        }
+                        final PikeVm.Scratch scratch = pikeVm.newScratch();
+                        scratch.budget = budget;
+                        return pikeVm.matchesFrom(next.nfaStates, input, i + 1, scratch, matchingPatterns);
+                    }
+                    lastFlushPosition = i;
+                }
+            }
+            current = next;
+        }
+        record(length, misses);
+        if (matchingPatterns != null) {
+            for (final int matchId : current.matchIds) {
+                matchingPatterns.set(matchId);
+            }
+        }
+        return current.isAccepting();
+    }
+
+    private void record(final int charsRead, final int misses) {
+        if (metrics != null) {
+            metrics.dfaCacheUsed(charsRead - misses, misses);
+        }
+    }
+
+    private synchronized DfaState step(final DfaState from, final char c) {
+        nextStates.clear();
+        for (final int pc : from.nfaStates) {
+            if (program.matches(pc, c)) {
+                for (final int nextPc : program.closureAfter(pc)) {
+                    nextStates.add(nextPc);
+                }
+            }
+        }
+
+        final int[] nextStateSet = toStateSet(nextStates);
+        final DfaState cached = cache.get(new StateSet(nextStateSet));
+        if (cached != null) {
+            if (c < CACHED_ALPHABET_SIZE) {
+                from.transitions[c] = cached;
+            }
+            return cached;
+        }
+
+        if (cache.size() >= maxStates) {
+            flush();
+            // from belongs to the old generation of states, no point remembering the transition on it.
+            return intern(nextStateSet);
+        }
+
+        final DfaState next = intern(nextStateSet);
+        if (c < CACHED_ALPHABET_SIZE) {
+            from.transitions[c] = next;
+        }
+        return next;
+    }
+
+    private void flush() {
+        cache = new HashMap<StateSet, DfaState>();
+        startState = intern(startStateSet);
+        ++flushes;
+        if (metrics != null) {
+            metrics.dfaCacheFlushed();
+        }
+    }
+
+    private DfaState intern(final int[] stateSet) {
+        final StateSet key = new StateSet(stateSet);
+        DfaState state = cache.get(key);
+        if (state == null) {
+            state = new DfaState(stateSet, program.matchIdsOf(stateSet), acceptsForever(stateSet));
+            cache.put(key, state);
+        }
+        return state;
+    }
+
+    /**
+     * Whether the state set accepts whatever input is left, which is when it has a match and a state of a
+     * trailing .* or the like (see ProgramAnalysis.acceptsForever).
+     */
+    private boolean acceptsForever(final int[] stateSet) {
+        final boolean[] forever = program.analysis.acceptsForever;
+        if (forever == null || program.matchIdsOf(stateSet).length == 0) {
+            return false;
+        }
+        for (final int pc : stateSet) {
+            if (forever[pc]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int[] toStateSet(final SparseSet states) {
+        final int[] stateSet = new int[states.size()];
+        for (int k = 0; k < stateSet.length; ++k) {
+            stateSet[k] = states.get(k);
+        }
+        Arrays.sort(stateSet);
+        return stateSet;
+    }
+
+    private static int[] sorted(final int[] pcs) {
+        final int[] stateSet = pcs.clone();
+        Arrays.sort(stateSet);
+        return stateSet;
+    }
+
+    private static final class DfaState {
+        final int[] nfaStates;
+        final int[] matchIds;
+        final boolean acceptsForever;
+        final DfaState[] transitions = new DfaState[CACHED_ALPHABET_SIZE];
+
+        DfaState(final int[] nfaStates, final int[] matchIds, final boolean acceptsForever) {
+            this.nfaStates = nfaStates;
+            this.matchIds = matchIds;
+            this.acceptsForever = acceptsForever;
+        }
+
+        boolean isAccepting() {
+            return matchIds.length > 0;
+        }
+
+        boolean isDead() {
+            return nfaStates.length == 0;
+        }
+    }
+
+    /**
+     * A sorted set of pcs, as a hash key.
+     */
+    static final class StateSet {
+        private final int[] pcs;
+        private final int hash;
+
+        StateSet(final int[] pcs) {
+            this.pcs = pcs;
+            this.hash = Arrays.hashCode(pcs);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof StateSet && Arrays.equals(pcs, ((StateSet) o).pcs);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package educational.regex.parser;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single char, which is either itself in the pattern or escaped, as in \*.
+ */
+final class LiteralNode extends Node {
+    final char c;
+
+    LiteralNode(final char c, final int start, final int end) {
+        super(start, end);
+        this.c = c;
+    }
+
+    @Override
+    List<Node> getChildren() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    String label() {
+        return String.valueOf(c);
+    }
+}
@@ -0,0 +1,213 @@
+package educational.regex.parser;
+
+import educational.regex.characterclasses.CharacterClass;
+import educational.regex.characterclasses.CharacterClasses;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * What we know about the literal text every match of a (sub)pattern has to contain, worked out bottom up
+ * alongside the NFA fragments in RegexNfa:
+ *
+ * exact    - when the (sub)pattern can only match a handful of short strings, all of them. null otherwise.
+ * prefix   - every match starts with this.
+ * suffix   - every match ends with this.
+ * required - every match contains this somewhere.
+ *
+ * For ERROR [0-9]+ timeout the prefix is "ERROR " and the required literal is " timeout" (or the prefix,
+ * whichever is longer). All of these are conservative: "" is always a correct answer.
+ */
+final class Literals {
+    static final Literals NONE = new Literals(null, "", "", "");
+
+    private static final int MAX_EXACT_STRINGS = 16;
+    private static final int MAX_LENGTH = 256;
+    private static final int MAX_CLASS_SIZE = 4;
+
+    private final Set<String> exact;
+    private final String prefix;
+    private final String suffix;
+    private final String required;
+
+    private Literals(final Set<String> exact, final String prefix, final String suffix, final String required) {
+        this.exact = exact;
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.required = required;
+    }
+
+    /**
+     * Literals worked out earlier, say by a compiler that saved them along with the program.
+     */
+    static Literals of(final String prefix, final String suffix, final String required) {
+        return new Literals(null, prefix, suffix, required);
+    }
+
+    private static Literals exactly(final Set<String> strings) {
+        return new Literals(Collections.unmodifiableSet(strings), "", "", "");
+    }
+
+    /**
+     * A class of a few chars, like [aA], is as good as an alternation of them.
+     */
+    static Literals ofClass(final CharacterClass characterClass) {
+        final int[] ranges = CharacterClasses.ranges(characterClass);
+        int size = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            size += ranges[i + 1] - ranges[i] + 1;
+        }
+        if (size == 0 || size > MAX_CLASS_SIZE) {
+            return NONE;
+        }
+        final Set<String> strings = new LinkedHashSet<String>();
+        for (int i = 0; i < ranges.length; i += 2) {
+            for (int c = ranges[i]; c <= ranges[i + 1]; ++c) {
+                strings.add(String.valueOf((char) c));
+            }
+        }
+        return exactly(strings);
+    }
+
+    public String getPrefix() {
+        return exact != null ? commonPrefix(exact) : prefix;
+    }
+
+    public String getSuffix() {
+        return exact != null ? commonSuffix(exact) : suffix;
+    }
+
+    public String getRequired() {
+        if (exact == null) {
+            return required;
+        }
+        if (exact.size() == 1) {
+            return exact.iterator().next();
+        }
+        final String commonPrefix = commonPrefix(exact);
+        final String commonSuffix = commonSuffix(exact);
+        return commonPrefix.length() >= commonSuffix.length() ? commonPrefix : commonSuffix;
+    }
+
+    public Literals concatenate(final Literals right) {
+        if (exact != null && right.exact != null && exact.size() * right.exact.size() <= MAX_EXACT_STRINGS) {
+            final Set<String> strings = new LinkedHashSet<String>();
+            boolean tooLong = false;
+            for (final String left : exact) {
+                for (final String string : right.exact) {
+                    tooLong |= left.length() + string.length() > MAX_LENGTH;
+                    strings.add(left + string);
+                }
+            }
+            if (!tooLong) {
+                return exactly(strings);
+            }
+        }
+
+        final String prefix = isSingleString() ? truncate(getPrefix() + right.getPrefix()) : getPrefix();
+        final String suffix = right.isSingleString() ? truncateFront(getSuffix() + right.getSuffix()) : right.getSuffix();
+        // Whatever this ends with runs straight into whatever the right side starts with.
+        final String joined = truncate(getSuffix() + right.getPrefix());
+        return new Literals(null, prefix, suffix, longest(longest(getRequired(), right.getRequired()), joined));
+    }
+
+    public Literals alternate(final Literals right) {
+        if (exact != null && right.exact != null && exact.size() + right.exact.size() <= MAX_EXACT_STRINGS) {
+            final Set<String> strings = new LinkedHashSet<String>(exact);
+            strings.addAll(right.exact);
+            return exactly(strings);
+        }
+        final String prefix = commonPrefix(getPrefix(), right.getPrefix());
+        final String suffix = commonSuffix(getSuffix(), right.getSuffix());
+        final String required = getRequired().equals(right.getRequired()) ? getRequired() : longest(prefix, suffix);
+        return new Literals(null, prefix, suffix, required);
+    }
+
+    public Literals zeroOrOne() {
+        if (exact != null && exact.size() < MAX_EXACT_STRINGS) {
+            final Set<String> strings = new LinkedHashSet<String>(exact);
+            strings.add("");
+            return exactly(strings);
+        }
+        return NONE;
+    }
+
+    public Literals zeroOrMore() {
+        return NONE;
+    }
+
+    public Literals oneOrMore() {
+        return new Literals(null, getPrefix(), getSuffix(), getRequired());
+    }
+
+    /**
+     * Between min and max of these one after the other, or at least min if max is negative.
+     */
+    public Literals repeat(final int min, final int max) {
+        if (min == 0) {
+            return max == 1 ? zeroOrOne() : zeroOrMore();
+        }
+        Literals repeated = this;
+        for (int i = 1; i < min; ++i) {
+            repeated = repeated.concatenate(this);
+        }
+        // Whatever else comes after is not known to be anything in particular.
+        return max == min ? repeated : repeated.concatenate(NONE);
+    }
+
+    private boolean isSingleString() {
+        return exact != null && exact.size() == 1;
+    }
+
+    private static String longest(final String one, final String two) {
+        return one.length() >= two.length() ? one : two;
+    }
+
+    private static String truncate(final String literal) {
+        return literal.length() > MAX_LENGTH ? literal.substring(0, MAX_LENGTH) : literal;
+    }
+
+    private static String truncateFront(final String literal) {
+        return literal.length() > MAX_LENGTH ? literal.substring(literal.length() - MAX_LENGTH) : literal;
+    }
+
+    private static String commonPrefix(final String one, final String two) {
+        int length = 0;
+        while (length < one.length() && length < two.length() && one.charAt(length) == two.charAt(length)) {
+            ++length;
+        }
+        return one.substring(0, length);
+    }
+
+    private static String commonPrefix(final Set<String> strings) {
+        String prefix = null;
+        for (final String string : strings) {
+            prefix = prefix == null ? string : commonPrefix(prefix, string);
+        }
+        return prefix == null ? "" : prefix;
+    }
+
+    private static String commonSuffix(final String one, final String two) {
+        int length = 0;
+        while (length < one.length() && length < two.length() &&
+                one.charAt(one.length() - 1 - length) == two.charAt(two.length() - 1 - length)) {
+            ++length;
+        }
+        return one.substring(one.length() - length);
+    }
+
+    private static String commonSuffix(final Set<String> strings) {
+        String suffix = null;
+        for (final String string : strings) {
+            suffix = suffix == null ? string : commonSuffix(suffix, string);
+        }
+        return suffix == null ? "" : suffix;
+    }
+
+    @Override
+    public String toString() {
+        return "exact: " + exact + ", prefix: " + getPrefix() + ", suffix: " + getSuffix() +
+                ", required: " + getRequired();
+    }
+}
@@ -0,0 +1,78 @@
+package educational.regex.parser;
+
+/**
+ * Where a match was found in the input: input[start(), end()). The matched text is only cut out of the
+ * input when group() is asked for it.
+ *
+ * Matches from {@link Matcher#findGroups} also tell where each capture group matched. The ones from
+ * {@link Matcher#find} only have group 0, the whole match, since tracking groups costs more.
+ */
+public final class Match {
+    private final CharSequence input;
+    private final int[] slots;
+
+    /* package */ Match(final CharSequence input, final int start, final int end) {
+        this(input, new int[]{start, end});
+    }
+
+    /**
+     * @param slots group i is at [slots[2i], slots[2i + 1]), both -1 if it didn't take part in the match.
+     */
+    /* package */ Match(final CharSequence input, final int[] slots) {
+        this.input = input;
+        this.slots = slots;
+    }
+
+    public int start() {
+        return slots[0];
+    }
+
+    public int end() {
+        return slots[1];
+    }
+
+    public CharSequence group() {
+        return input.subSequence(start(), end());
+    }
+
+    /**
+     * The number of capture groups, not counting group 0.
+     */
+    public int groupCount() {
+        return slots.length / 2 - 1;
+    }
+
+    /**
+     * Where group i started, or -1 if it didn't take part in the match.
+     */
+    public int start(final int group) {
+        return slots[2 * checkGroup(group)];
+    }
+
+    /**
+     * Where group i ended, or -1 if it didn't take part in the match.
+     */
+    public int end(final int group) {
+        return slots[2 * checkGroup(group) + 1];
+    }
+
+    /**
+     * The text group i matched, or null if it didn't take part in the match.
+     */
+    public CharSequence group(final int group) {
+        final int start = start(group);
+        return start < 0 ? null : input.subSequence(start, end(group));
+    }
+
+    private int checkGroup(final int group) {
+        if (group < 0 || group > groupCount()) {
+            throw new IndexOutOfBoundsException("No group " + group + ", group count: " + groupCount());
+        }
+        return group;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + start() + ", " + end() + ")";
+    }
+}
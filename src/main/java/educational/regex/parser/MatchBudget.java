@@ -0,0 +1,65 @@
+package educational.regex.parser;
+
+import educational.regex.MatchAbortedException;
+
+/**
+ * What is left of the MatchLimits of one call, as the engines use it up. The engines tell it about every
+ * char they read with step(), which only adds to a count, and the limits are checked once every
+ * CHECK_INTERVAL steps, so the clock and the cancellation token are looked at rarely. Every char read or
+ * skipped is at least a step, so whichever engine or phase of a search is running, and wherever in the
+ * input it is, it can't read more than CHECK_INTERVAL chars without a check.
+ *
+ * A budget belongs to a single call, and so to a single thread.
+ */
+final class MatchBudget {
+    static final int CHECK_INTERVAL = 1024;
+
+    private final long stepBudget;
+    private final long deadline;
+    private final boolean hasDeadline;
+    private final CancellationToken cancellation;
+    private long steps;
+    private long nextCheck;
+
+    private MatchBudget(final MatchLimits limits) {
+        this.stepBudget = limits.getStepBudget();
+        this.hasDeadline = limits.getTimeoutNanos() != Long.MAX_VALUE;
+        this.deadline = hasDeadline ? System.nanoTime() + limits.getTimeoutNanos() : 0;
+        this.cancellation = limits.getCancellation();
+    }
+
+    /**
+     * Starts the clock on the limits of a call.
+     *
+     * @return null if there are no limits, which is how the engines tell that they needn't count.
+     */
+    static MatchBudget start(final MatchLimits limits) {
+        return limits.isUnlimited() ? null : new MatchBudget(limits);
+    }
+
+    /**
+     * Counts the steps taken to read a char, or to skip to one. The limits are checked once CHECK_INTERVAL
+     * steps have been taken since the last check.
+     *
+     * @throws MatchAbortedException if the match has gone over a limit.
+     */
+    void step(final int steps) {
+        this.steps += steps;
+        if (this.steps >= nextCheck) {
+            nextCheck = this.steps + CHECK_INTERVAL;
+            check();
+        }
+    }
+
+    private void check() {
+        if (steps > stepBudget) {
+            throw new MatchAbortedException(MatchAbortedException.Reason.STEP_BUDGET, steps);
+        }
+        if (cancellation != null && cancellation.isCancelled()) {
+            throw new MatchAbortedException(MatchAbortedException.Reason.CANCELLED, steps);
+        }
+        if (hasDeadline && System.nanoTime() - deadline > 0) {
+            throw new MatchAbortedException(MatchAbortedException.Reason.DEADLINE, steps);
+        }
+    }
+}
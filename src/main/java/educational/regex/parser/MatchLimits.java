@@ -0,0 +1,79 @@
+package educational.regex.parser;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds on how much work a single call to Matcher.matches() or find() may do, for patterns and inputs
+ * that can't be trusted. A call that goes over one of them throws a
+ * {@link educational.regex.MatchAbortedException} instead of returning. Instances are immutable, every
+ * with* method returns a modified copy.
+ *
+ * A step is one NFA state stepped over one input char, so with the NFA engines a char read while on 100
+ * states is 100 steps. The DFA engines are on a single state, and take a step per char. Chars that the
+ * prefilter skips over take a step each too.
+ *
+ * The limits are checked every 1024 steps or so, not on every step, and so at least every 1024 chars, so a
+ * match can go over them by up to that much work, and the steps of one more char, before it notices.
+ */
+public final class MatchLimits {
+    public static final MatchLimits NONE = new MatchLimits(Long.MAX_VALUE, Long.MAX_VALUE, null);
+
+    private final long stepBudget;
+    private final long timeoutNanos;
+    private final CancellationToken cancellation;
+
+    private MatchLimits(final long stepBudget, final long timeoutNanos, final CancellationToken cancellation) {
+        this.stepBudget = stepBudget;
+        this.timeoutNanos = timeoutNanos;
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * The most steps a call may take, Long.MAX_VALUE for no limit.
+     */
+    public long getStepBudget() {
+        return stepBudget;
+    }
+
+    /**
+     * How long a call may run for, counted from when it starts. Long.MAX_VALUE for no limit.
+     */
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    /**
+     * The token that stops calls with these limits when cancelled, or null if there is none.
+     */
+    public CancellationToken getCancellation() {
+        return cancellation;
+    }
+
+    /* package */ boolean isUnlimited() {
+        return stepBudget == Long.MAX_VALUE && timeoutNanos == Long.MAX_VALUE && cancellation == null;
+    }
+
+    public MatchLimits withStepBudget(final long stepBudget) {
+        if (stepBudget < 0) {
+            throw new IllegalArgumentException("The step budget can't be negative, got: " + stepBudget);
+        }
+        return new MatchLimits(stepBudget, timeoutNanos, cancellation);
+    }
+
+    public MatchLimits withTimeout(final long timeout, final TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("The timeout can't be negative, got: " + timeout);
+        }
+        return new MatchLimits(stepBudget, unit.toNanos(timeout), cancellation);
+    }
+
+    public MatchLimits withCancellation(final CancellationToken cancellation) {
+        return new MatchLimits(stepBudget, timeoutNanos, cancellation);
+    }
+
+    @Override
+    public String toString() {
+        return "stepBudget: " + stepBudget + ", timeoutNanos: " + timeoutNanos + ", cancellation: " +
+                (cancellation != null);
+    }
+}
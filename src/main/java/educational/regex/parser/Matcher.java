@@ -1,62 +1,476 @@
 package educational.regex.parser;
 
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
 
 /**
  * Created by prasanna.venkatasubramanian on 9/2/15.
+ *
+ * A compiled pattern. Matchers are immutable and can be shared freely across threads: all the working
+ * memory of a match is allocated per call (or per findAll() iterator), and the only state shared between
+ * calls, the LAZY_DFA engine's cache of DFA states, does its own locking.
  */
 public class Matcher {
     private static final Logger log = Logger.getLogger(Matcher.class.getName());
+    private static final int DEFAULT_BATCH_THRESHOLD = 4096;
 
-    private final State start;
+    private final NfaProgram program;
+    private final PikeVm pikeVm;
+    private final boolean searchesWithDfa;
+    private final LazyDfa lazyDfa;
+    private final BitParallelNfa bitParallelNfa;
+    private final Dfa dfa;
+    private final Predicate<CharSequence> generatedDfa;
+    private final Prefilter prefilter;
+    private final Literals literals;
+    private final CompileOptions options;
+    private final MatcherMetrics metrics;
+    private volatile Matcher utf8Matcher;
+    private volatile Searcher searcher;
 
-    /* package */ Matcher(final State start) {
-        this.start = start;
+    /* package */ Matcher(final NfaProgram program, final Literals literals, final CompileOptions options) {
+        this(program, literals, options, null);
     }
 
-    public boolean matches(final String input) {
-        final char[] stream = input.toCharArray();
+    /**
+     * @param metrics to count into instead of new ones, or null to have them only if the options say so.
+     */
+    private Matcher(final NfaProgram program,
+                    final Literals literals,
+                    final CompileOptions options,
+                    final MatcherMetrics metrics) {
+        this.program = program;
+        this.literals = literals;
+        this.options = options;
+        // Only the Pike VM runs COUNT states, which the parser only makes for Engine.NFA anyway.
+        final Engine engine = program.hasCounters() ? Engine.NFA : options.getEngine();
+        final boolean buildsDfa = engine == Engine.DFA || engine == Engine.DFA_BYTECODE;
+        this.dfa = buildsDfa ? Dfa.compile(program, options.getDfaStateLimit()) : null;
+        if (metrics != null || !options.hasMetrics()) {
+            this.metrics = metrics;
+        } else {
+            this.metrics = new MatcherMetrics(program.size(), dfa != null ? dfa.getStateCount() : -1);
+        }
+        this.prefilter = Prefilter.of(literals, program);
+        this.pikeVm = new PikeVm(program, prefilter, this.metrics);
+        // The engines that trade memory for speed also search with DFAs, see SearchDfa.
+        this.searchesWithDfa = engine == Engine.LAZY_DFA || buildsDfa;
+        this.lazyDfa = engine == Engine.LAZY_DFA ?
+                new LazyDfa(program, pikeVm, options.getDfaCacheSize(), this.metrics) : null;
+        this.bitParallelNfa = engine == Engine.BIT_PARALLEL ? BitParallelNfa.compile(program) : null;
+        this.generatedDfa = engine == Engine.DFA_BYTECODE && dfa != null ? DfaBytecode.generate(dfa) : null;
+        if (buildsDfa) {
+            log.fine(dfa != null ? "Compiled to a DFA of " + dfa.getStateCount() + " states" :
+                    "DFA has more than " + options.getDfaStateLimit() + " states, falling back to the NFA");
+        }
+    }
+
+    /**
+     * Whether the whole of the input matches the pattern. To match against a slice of a char[] without
+     * copying it, wrap it in a {@link java.nio.CharBuffer}.
+     */
+    public boolean matches(final CharSequence input) {
+        return matches(input, (PikeVm.Scratch) null);
+    }
+
+    /**
+     * Like matches(input), giving up with a {@link educational.regex.MatchAbortedException} if the match
+     * goes over the limits. With {@link Engine#DFA_BYTECODE}, a call with limits runs on the DFA tables, since
+     * the generated class can't be stopped.
+     */
+    public boolean matches(final CharSequence input, final MatchLimits limits) {
+        return matches(input, null, MatchBudget.start(limits));
+    }
+
+    /**
+     * Whether the whole of input[offset, offset + length), read as UTF-8, matches the pattern. The bytes are
+     * matched as they are, without decoding them into chars, and for well-formed UTF-8 the answer is the
+     * same as matches() gives for the decoded text. Bytes that aren't well-formed UTF-8 are matched by
+     * nothing, not even ., so such an input never matches.
+     *
+     * The first call compiles the pattern over bytes, see {@link Utf8Program}, and that is then run on the
+     * same engine as matches() on chars. COUNT states are spelled out there, so with the default engine a
+     * large counted repetition costs more on bytes than on chars.
+     */
+    public boolean matches(final byte[] input, final int offset, final int length) {
+        return matches(ByteBuffer.wrap(input, offset, length));
+    }
+
+    public boolean matches(final byte[] input) {
+        return matches(input, 0, input.length);
+    }
+
+    /**
+     * Like matches(byte[], int, int), for the bytes between the position and the limit of the buffer, which
+     * can be direct. The position of the buffer doesn't move.
+     */
+    public boolean matches(final ByteBuffer input) {
+        return utf8Matcher().matches(new ByteSequence(input, input.position(), input.limit()), (PikeVm.Scratch) null);
+    }
 
-        final List<State> currentStates = new LinkedList<State>();
-        final Set<State> nextStates = new HashSet<State>();
-        currentStates.add(start);
-        if (start.hasUnlabeledEdges()) {
-            currentStates.addAll(start.getNextStates());
+    /**
+     * Built on first use, so that patterns only ever matched against chars don't pay for it. Two threads
+     * may both build it, and either one will do.
+     */
+    /* package */ Matcher utf8Matcher() {
+        Matcher matcher = utf8Matcher;
+        if (matcher == null) {
+            matcher = new Matcher(Utf8Program.compile(program), Literals.NONE, options, metrics);
+            utf8Matcher = matcher;
         }
+        return matcher;
+    }
 
-        int i;
-        for (i = 0; i < stream.length; ++i) {
-            final char c = stream[i];
-            //log.info("Matching " + c + " at position: " + i + ", with current states: " + currentStates);
-            for (final State current : currentStates) {
-                if (current.matches(c)) {
-                    nextStates.addAll(current.getNextStates());
-                }
+    /**
+     * Built on the first search, like utf8Matcher(), since spelling out the COUNT states can make the
+     * search program and its DFAs much bigger than the program matches() runs on. Two threads may both
+     * build it, and either one will do.
+     */
+    private Searcher searcher() {
+        Searcher built = searcher;
+        if (built == null) {
+            built = new Searcher();
+            searcher = built;
+        }
+        return built;
+    }
+
+    /**
+     * Like matches(input), for callers matching many inputs in a row that want to reuse the working memory.
+     *
+     * @param scratch from newScratch(), or null to allocate one if needed.
+     */
+    /* package */ boolean matches(final CharSequence input, final PikeVm.Scratch scratch) {
+        return matches(input, scratch, null);
+    }
+
+    /**
+     * @param budget the limits of the call, or null if it has none.
+     */
+    private boolean matches(final CharSequence input, final PikeVm.Scratch scratch, final MatchBudget budget) {
+        if (metrics == null) {
+            return run(input, scratch, budget);
+        }
+        final long started = System.nanoTime();
+        final boolean matched = run(input, scratch, budget);
+        metrics.matched(System.nanoTime() - started);
+        return matched;
+    }
+
+    private boolean run(final CharSequence input, final PikeVm.Scratch scratch, final MatchBudget budget) {
+        if (!program.analysis.mayMatchLength(input.length())) {
+            return false;
+        }
+        if (generatedDfa != null && budget == null) {
+            return generatedDfa.test(input);
+        }
+        if (dfa != null) {
+            return dfa.matches(input, budget);
+        }
+        if (lazyDfa != null) {
+            return lazyDfa.matches(input, null, budget);
+        }
+        if (bitParallelNfa != null) {
+            return bitParallelNfa.matches(input, budget);
+        }
+        final PikeVm.Scratch working = scratch != null ? scratch : pikeVm.newScratch();
+        working.budget = budget;
+        return pikeVm.matches(input, working);
+    }
+
+    /**
+     * With {@link Engine#DFA} or {@link Engine#DFA_BYTECODE}, the number of states of the minimal DFA the pattern compiled to, so what a
+     * pattern costs can be audited. -1 when there is no DFA, because the pattern hit the state limit or was
+     * compiled for another engine.
+     */
+    public int getDfaStateCount() {
+        return dfa != null ? dfa.getStateCount() : -1;
+    }
+
+    /**
+     * Matches every one of the inputs, in parallel on the common fork-join pool if there are enough of them.
+     *
+     * @return the indexes of the inputs that match, the same as calling matches() on each.
+     */
+    public BitSet matchAll(final List<? extends CharSequence> inputs) {
+        return matchAll(inputs, ForkJoinPool.commonPool(), DEFAULT_BATCH_THRESHOLD);
+    }
+
+    public BitSet matchAll(final CharSequence[] inputs) {
+        return matchAll(Arrays.asList(inputs));
+    }
+
+    /**
+     * @param threshold batches of up to this many inputs are matched sequentially on the calling thread, and
+     *                  larger ones are split into pieces of about this size for the pool. Rounded up to 64.
+     */
+    public BitSet matchAll(final List<? extends CharSequence> inputs, final ForkJoinPool pool, final int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("threshold must be positive, was " + threshold);
+        }
+        final long[] words = new long[(inputs.size() + 63) >>> 6];
+        final BatchMatch batch = new BatchMatch(this, inputs, words, Math.max(64, threshold), 0, inputs.size());
+        if (inputs.size() <= threshold) {
+            batch.compute();
+        } else {
+            pool.invoke(batch);
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /* package */ PikeVm.Scratch newScratch() {
+        return pikeVm.newScratch();
+    }
+
+    public Match find(final CharSequence input) {
+        return find(input, 0);
+    }
+
+    /**
+     * Looks for the pattern in input[from..]. Among the matches that start leftmost, the one returned is the
+     * one a backtracking matcher would find first: alternatives are tried left to right, and *, + and ? take
+     * as much as they can.
+     *
+     * @return null if there is no match.
+     */
+    public Match find(final CharSequence input, final int from) {
+        return find(input, from, searcher().vm.newScratch(), false, null);
+    }
+
+    /**
+     * Like find(input, from), giving up with a {@link educational.regex.MatchAbortedException} if the search
+     * goes over the limits.
+     */
+    public Match find(final CharSequence input, final int from, final MatchLimits limits) {
+        return find(input, from, searcher().vm.newScratch(), false, MatchBudget.start(limits));
+    }
+
+    /**
+     * All the non-overlapping matches in the input, left to right, found one at a time as the iterator is
+     * walked. After an empty match the search resumes one character later, so every position is tried.
+     */
+    public Iterable<Match> findAll(final CharSequence input) {
+        return findAll(input, false);
+    }
+
+    /**
+     * The number of capture groups in the pattern, not counting group 0.
+     */
+    public int groupCount() {
+        return program.slotCount / 2 - 1;
+    }
+
+    public Match findGroups(final CharSequence input) {
+        return findGroups(input, 0);
+    }
+
+    /**
+     * Like find(), and the match also tells where each capture group matched. When a group is repeated,
+     * it's where it last matched, like in java.util.regex. This is still linear in the length of the input,
+     * but each step copies the groups of the threads it moves, so it's slower than find().
+     */
+    public Match findGroups(final CharSequence input, final int from) {
+        return find(input, from, searcher().vm.newScratch(), true, null);
+    }
+
+    /**
+     * Like findGroups(input, from), giving up with a {@link educational.regex.MatchAbortedException} if the
+     * search goes over the limits.
+     */
+    public Match findGroups(final CharSequence input, final int from, final MatchLimits limits) {
+        return find(input, from, searcher().vm.newScratch(), true, MatchBudget.start(limits));
+    }
+
+    /**
+     * Like findAll(), with the capture groups of each match. The working memory for the groups is
+     * allocated once, for all the matches.
+     */
+    public Iterable<Match> findAllGroups(final CharSequence input) {
+        return findAll(input, true);
+    }
+
+    private Iterable<Match> findAll(final CharSequence input, final boolean groups) {
+        return new Iterable<Match>() {
+            @Override
+            public Iterator<Match> iterator() {
+                return new MatchIterator(input, groups);
             }
-            //log.info("Next states: " + nextStates);
-            currentStates.clear();
-            currentStates.addAll(nextStates);
-            nextStates.clear();
+        };
+    }
+
+    /**
+     * A matcher for input that comes in chunks, telling whether the whole of it matches the pattern.
+     */
+    public StreamMatcher newStream() {
+        return new StreamMatcher(program, null);
+    }
+
+    /**
+     * A matcher for input that comes in chunks, reporting matches to the listener as they end.
+     * See {@link StreamMatcher} for how that differs from findAll().
+     */
+    public StreamMatcher newSearchStream(final StreamMatcher.MatchListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener can't be null");
         }
+        return new StreamMatcher(searcher().program, listener);
+    }
 
-        return isAnyInTerminalState(currentStates);
+    private Match find(final CharSequence input,
+                       final int from,
+                       final PikeVm.Scratch scratch,
+                       final boolean groups,
+                       final MatchBudget budget) {
+        if (from < 0 || from > input.length()) {
+            throw new IndexOutOfBoundsException("from: " + from + ", input length: " + input.length());
+        }
+        if (metrics == null) {
+            return search(input, from, scratch, groups, budget);
+        }
+        final long started = System.nanoTime();
+        final Match match = search(input, from, scratch, groups, budget);
+        metrics.searched(System.nanoTime() - started);
+        return match;
     }
 
-    private boolean isAnyInTerminalState(final List<State> states) {
-        for (final State state : states) {
-            if (state.isTerminal) {
-                return true;
+    private Match search(final CharSequence input,
+                         final int from,
+                         final PikeVm.Scratch scratch,
+                         final boolean groups,
+                         final MatchBudget budget) {
+        if (input.length() - from < program.analysis.minLength) {
+            return null;
+        }
+        if (prefilter != null && !prefilter.mayMatch(input, from, input.length())) {
+            if (metrics != null) {
+                metrics.prefilterRejected();
             }
+            return null;
         }
-        return false;
+        if (bitParallelNfa != null && bitParallelNfa.searchFirstEnd(input, from, budget) < 0) {
+            return null;
+        }
+        scratch.budget = budget;
+        final Searcher searcher = searcher();
+        final PikeVm searchVm = searcher.vm;
+        if (searcher.dfa != null) {
+            final int end = searcher.dfa.find(input, from, input.length(), budget);
+            if (end < 0 && end != SearchDfa.GAVE_UP) {
+                return null;
+            }
+            final int start = end >= 0 ? searcher.reverseDfa.find(input, from, end, budget) : SearchDfa.GAVE_UP;
+            if (start >= 0) {
+                if (!groups) {
+                    return new Match(input, start, end);
+                }
+                // The match is known, so the Pike VM only has to go over it to place the groups.
+                return searchVm.findGroups(input, start, end, scratch) ? new Match(input, scratch.slots.clone()) : null;
+            }
+        }
+        if (groups) {
+            return searchVm.findGroups(input, from, input.length(), scratch) ?
+                    new Match(input, scratch.slots.clone()) : null;
+        }
+        if (!searchVm.find(input, from, input.length(), scratch)) {
+            return null;
+        }
+        return new Match(input, scratch.matchStart, scratch.matchEnd);
+    }
+
+    /**
+     * What the engines have been doing, or null unless the pattern was compiled with
+     * {@link CompileOptions#withMetrics(boolean)}. Matching bytes counts into the same metrics.
+     */
+    public MatcherMetrics getMetrics() {
+        return metrics;
+    }
+
+    /* package */ NfaProgram getProgram() {
+        return program;
+    }
+
+    /* package */ Literals getLiterals() {
+        return literals;
+    }
+
+    /**
+     * Whether matches() runs on a class generated for the pattern's DFA.
+     */
+    /* package */ boolean hasGeneratedDfa() {
+        return generatedDfa != null;
+    }
+
+    /* package */ CompileOptions getOptions() {
+        return options;
     }
 
     @Override
     public String toString() {
-        return StateSerializer.serialize(start);
+        return program.toString();
+    }
+
+    /**
+     * What searches run on.
+     */
+    private final class Searcher {
+        // Searches tell apart threads that COUNT states lump together, see NfaProgram.withoutCounters().
+        final NfaProgram program = Matcher.this.program.withoutCounters();
+        final PikeVm vm = program != Matcher.this.program ? new PikeVm(program, prefilter, metrics) : pikeVm;
+        final SearchDfa dfa = searchesWithDfa ?
+                new SearchDfa(program, prefilter, false, options.getDfaCacheSize(), metrics) : null;
+        final SearchDfa reverseDfa = searchesWithDfa ?
+                new SearchDfa(program.reverse(), null, true, options.getDfaCacheSize(), metrics) : null;
+    }
+
+    private class MatchIterator implements Iterator<Match> {
+        private final CharSequence input;
+        private final boolean groups;
+        private final PikeVm.Scratch scratch = searcher().vm.newScratch();
+        private int from = 0;
+        private Match next;
+
+        MatchIterator(final CharSequence input, final boolean groups) {
+            this.input = input;
+            this.groups = groups;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Match next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            final Match current = next;
+            advance();
+            return current;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void advance() {
+            if (from > input.length()) {
+                next = null;
+                return;
+            }
+            next = find(input, from, scratch, groups, null);
+            if (next != null) {
+                from = next.end() == next.start() ? next.end() + 1 : next.end();
+            }
+        }
     }
 }
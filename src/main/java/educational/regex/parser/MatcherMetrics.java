@@ -0,0 +1,398 @@
+package educational.regex.parser;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what the engines of a Matcher compiled with {@link CompileOptions#withMetrics(boolean)} do, so that
+ * it can be told why a pattern is slow: how long it took to compile and how large its automata are, how
+ * much time matches and searches take, how well the LAZY_DFA cache and the prefilter do, and how many NFA
+ * states the Pike VM is on for each input char.
+ *
+ * The counters are LongAdders, so the threads sharing a Matcher add to them without contending. Reading a
+ * counter sums it up, which is why snapshot() is not atomic across the counters while matches are running.
+ * A Matcher without metrics has none of this, and its engines skip it on a null check. Work that happens
+ * for every input char is counted in the Scratch of the match and only added here when the match is done.
+ *
+ * The counters can be pulled with snapshot(), or read over JMX once registerMBean() has been called.
+ */
+public final class MatcherMetrics implements MatcherMetricsMBean {
+    /**
+     * Bucket 0 of the active state histogram counts chars read with no state to be on, and bucket k the
+     * ones read with 2^(k - 1) to 2^k - 1 of them.
+     */
+    static final int HISTOGRAM_BUCKETS = 32;
+
+    private final int nfaStateCount;
+    private final int dfaStateCount;
+    private volatile String pattern;
+    private volatile long compileNanos;
+
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder matchNanos = new LongAdder();
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder searchNanos = new LongAdder();
+    private final LongAdder dfaCacheHits = new LongAdder();
+    private final LongAdder dfaCacheMisses = new LongAdder();
+    private final LongAdder dfaCacheFlushes = new LongAdder();
+    private final LongAdder dfaFallbacks = new LongAdder();
+    private final LongAdder prefilterRejects = new LongAdder();
+    private final LongAdder prefilterCandidates = new LongAdder();
+    private final LongAdder prefilterSkippedChars = new LongAdder();
+    private final LongAdder[] activeStates = new LongAdder[HISTOGRAM_BUCKETS];
+
+    MatcherMetrics(final int nfaStateCount, final int dfaStateCount) {
+        this.nfaStateCount = nfaStateCount;
+        this.dfaStateCount = dfaStateCount;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; ++i) {
+            activeStates[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Registers this with the platform MBean server as educational.regex:type=Matcher,name=(the name).
+     *
+     * @return the name it was registered under, for unregistering it.
+     */
+    public ObjectName registerMBean(final String name) throws JMException {
+        final ObjectName objectName = new ObjectName("educational.regex:type=Matcher,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * The pattern the Matcher was compiled from, or null if it wasn't compiled by the Parser.
+     */
+    @Override
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * How long the Parser took to compile the pattern, from parsing to having the engines ready.
+     */
+    @Override
+    public long getCompileNanos() {
+        return compileNanos;
+    }
+
+    /**
+     * The number of states of the program the NFA was lowered into.
+     */
+    @Override
+    public int getNfaStateCount() {
+        return nfaStateCount;
+    }
+
+    /**
+     * The number of states of the minimal DFA, or -1 if there is none, see Matcher.getDfaStateCount().
+     */
+    @Override
+    public int getDfaStateCount() {
+        return dfaStateCount;
+    }
+
+    /**
+     * The number of times the whole of an input was matched, by matches() or matchAll().
+     */
+    @Override
+    public long getMatchCount() {
+        return matches.sum();
+    }
+
+    @Override
+    public long getMatchNanos() {
+        return matchNanos.sum();
+    }
+
+    /**
+     * The number of searches, one for each match find() and the like return and one more for the last
+     * one that found nothing.
+     */
+    @Override
+    public long getSearchCount() {
+        return searches.sum();
+    }
+
+    @Override
+    public long getSearchNanos() {
+        return searchNanos.sum();
+    }
+
+    /**
+     * Input chars that LAZY_DFA found a cached transition for.
+     */
+    @Override
+    public long getDfaCacheHits() {
+        return dfaCacheHits.sum();
+    }
+
+    /**
+     * Input chars that LAZY_DFA had to work out the next DFA state for.
+     */
+    @Override
+    public long getDfaCacheMisses() {
+        return dfaCacheMisses.sum();
+    }
+
+    @Override
+    public long getDfaCacheFlushes() {
+        return dfaCacheFlushes.sum();
+    }
+
+    /**
+     * Matches that LAZY_DFA finished on the NFA because its cache kept filling up.
+     */
+    @Override
+    public long getDfaFallbacks() {
+        return dfaFallbacks.sum();
+    }
+
+    /**
+     * Searches the prefilter ended before they started, because the input lacks a literal every match has.
+     */
+    @Override
+    public long getPrefilterRejects() {
+        return prefilterRejects.sum();
+    }
+
+    /**
+     * Positions the prefilter found where a match could start.
+     */
+    @Override
+    public long getPrefilterCandidates() {
+        return prefilterCandidates.sum();
+    }
+
+    /**
+     * Input chars the prefilter skipped over on the way to a candidate.
+     */
+    @Override
+    public long getPrefilterSkippedChars() {
+        return prefilterSkippedChars.sum();
+    }
+
+    /**
+     * How many input chars the Pike VM read while on how many states, see HISTOGRAM_BUCKETS for the
+     * buckets.
+     */
+    @Override
+    public long[] getActiveStateHistogram() {
+        final long[] histogram = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; ++i) {
+            histogram[i] = activeStates[i].sum();
+        }
+        return histogram;
+    }
+
+    @Override
+    public void reset() {
+        matches.reset();
+        matchNanos.reset();
+        searches.reset();
+        searchNanos.reset();
+        dfaCacheHits.reset();
+        dfaCacheMisses.reset();
+        dfaCacheFlushes.reset();
+        dfaFallbacks.reset();
+        prefilterRejects.reset();
+        prefilterCandidates.reset();
+        prefilterSkippedChars.reset();
+        for (final LongAdder bucket : activeStates) {
+            bucket.reset();
+        }
+    }
+
+    static int bucketOf(final int activeStates) {
+        return 32 - Integer.numberOfLeadingZeros(activeStates);
+    }
+
+    void compiled(final String pattern, final long nanos) {
+        this.pattern = pattern;
+        this.compileNanos = nanos;
+    }
+
+    void matched(final long nanos) {
+        matches.increment();
+        matchNanos.add(nanos);
+    }
+
+    void searched(final long nanos) {
+        searches.increment();
+        searchNanos.add(nanos);
+    }
+
+    void dfaCacheUsed(final long hits, final long misses) {
+        dfaCacheHits.add(hits);
+        dfaCacheMisses.add(misses);
+    }
+
+    void dfaCacheFlushed() {
+        dfaCacheFlushes.increment();
+    }
+
+    void dfaFellBack() {
+        dfaFallbacks.increment();
+    }
+
+    void prefilterRejected() {
+        prefilterRejects.increment();
+    }
+
+    void prefilterFound(final long candidates, final long skippedChars) {
+        prefilterCandidates.add(candidates);
+        prefilterSkippedChars.add(skippedChars);
+    }
+
+    /**
+     * Adds a histogram counted by one match, and clears it for the next.
+     */
+    void addActiveStates(final long[] histogram) {
+        for (int i = 0; i < HISTOGRAM_BUCKETS; ++i) {
+            if (histogram[i] != 0) {
+                activeStates[i].add(histogram[i]);
+                histogram[i] = 0;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+    /**
+     * The counters of a MatcherMetrics as they were when snapshot() was called.
+     */
+    public static final class Snapshot {
+        private final String pattern;
+        private final long compileNanos;
+        private final int nfaStateCount;
+        private final int dfaStateCount;
+        private final long matchCount;
+        private final long matchNanos;
+        private final long searchCount;
+        private final long searchNanos;
+        private final long dfaCacheHits;
+        private final long dfaCacheMisses;
+        private final long dfaCacheFlushes;
+        private final long dfaFallbacks;
+        private final long prefilterRejects;
+        private final long prefilterCandidates;
+        private final long prefilterSkippedChars;
+        private final long[] activeStateHistogram;
+
+        private Snapshot(final MatcherMetrics metrics) {
+            this.pattern = metrics.getPattern();
+            this.compileNanos = metrics.getCompileNanos();
+            this.nfaStateCount = metrics.getNfaStateCount();
+            this.dfaStateCount = metrics.getDfaStateCount();
+            this.matchCount = metrics.getMatchCount();
+            this.matchNanos = metrics.getMatchNanos();
+            this.searchCount = metrics.getSearchCount();
+            this.searchNanos = metrics.getSearchNanos();
+            this.dfaCacheHits = metrics.getDfaCacheHits();
+            this.dfaCacheMisses = metrics.getDfaCacheMisses();
+            this.dfaCacheFlushes = metrics.getDfaCacheFlushes();
+            this.dfaFallbacks = metrics.getDfaFallbacks();
+            this.prefilterRejects = metrics.getPrefilterRejects();
+            this.prefilterCandidates = metrics.getPrefilterCandidates();
+            this.prefilterSkippedChars = metrics.getPrefilterSkippedChars();
+            this.activeStateHistogram = metrics.getActiveStateHistogram();
+        }
+
+        public String getPattern() {
+            return pattern;
+        }
+
+        public long getCompileNanos() {
+            return compileNanos;
+        }
+
+        public int getNfaStateCount() {
+            return nfaStateCount;
+        }
+
+        public int getDfaStateCount() {
+            return dfaStateCount;
+        }
+
+        public long getMatchCount() {
+            return matchCount;
+        }
+
+        public long getMatchNanos() {
+            return matchNanos;
+        }
+
+        public long getSearchCount() {
+            return searchCount;
+        }
+
+        public long getSearchNanos() {
+            return searchNanos;
+        }
+
+        public long getDfaCacheHits() {
+            return dfaCacheHits;
+        }
+
+        public long getDfaCacheMisses() {
+            return dfaCacheMisses;
+        }
+
+        public long getDfaCacheFlushes() {
+            return dfaCacheFlushes;
+        }
+
+        public long getDfaFallbacks() {
+            return dfaFallbacks;
+        }
+
+        public long getPrefilterRejects() {
+            return prefilterRejects;
+        }
+
+        public long getPrefilterCandidates() {
+            return prefilterCandidates;
+        }
+
+        public long getPrefilterSkippedChars() {
+            return prefilterSkippedChars;
+        }
+
+        public long[] getActiveStateHistogram() {
+            return activeStateHistogram.clone();
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("pattern: ").append(pattern)
+                    .append(", compileNanos: ").append(compileNanos)
+                    .append(", nfaStates: ").append(nfaStateCount)
+                    .append(", dfaStates: ").append(dfaStateCount)
+                    .append(", matches: ").append(matchCount).append(" in ").append(matchNanos).append("ns")
+                    .append(", searches: ").append(searchCount).append(" in ").append(searchNanos).append("ns")
+                    .append(", dfaCache: ").append(dfaCacheHits).append(" hits, ").append(dfaCacheMisses)
+                    .append(" misses, ").append(dfaCacheFlushes).append(" flushes, ").append(dfaFallbacks)
+                    .append(" fallbacks")
+                    .append(", prefilter: ").append(prefilterRejects).append(" rejects, ")
+                    .append(prefilterCandidates).append(" candidates, ").append(prefilterSkippedChars)
+                    .append(" skipped")
+                    .append(", activeStates:");
+            for (int i = 0; i < HISTOGRAM_BUCKETS; ++i) {
+                if (activeStateHistogram[i] != 0) {
+                    sb.append(' ').append(i == 0 ? 0 : 1 << (i - 1)).append("+=").append(activeStateHistogram[i]);
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package educational.regex.parser;
+
+/**
+ * What {@link MatcherMetrics} shows over JMX. See there for what each of these counts.
+ */
+public interface MatcherMetricsMBean {
+    String getPattern();
+
+    long getCompileNanos();
+
+    int getNfaStateCount();
+
+    int getDfaStateCount();
+
+    long getMatchCount();
+
+    long getMatchNanos();
+
+    long getSearchCount();
+
+    long getSearchNanos();
+
+    long getDfaCacheHits();
+
+    long getDfaCacheMisses();
+
+    long getDfaCacheFlushes();
+
+    long getDfaFallbacks();
+
+    long getPrefilterRejects();
+
+    long getPrefilterCandidates();
+
+    long getPrefilterSkippedChars();
+
+    long[] getActiveStateHistogram();
+
+    /**
+     * Sets all the counters back to 0. The pattern, compile time and state counts stay.
+     */
+    void reset();
+}
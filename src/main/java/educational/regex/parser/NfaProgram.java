@@ -0,0 +1,463 @@
+package educational.regex.parser;
+
+import educational.regex.characterclasses.CharacterClass;
+import educational.regex.characterclasses.CharacterClasses;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The NFA flattened into parallel int arrays, one entry per state, addressed by a program counter (pc).
+ * This is what the matching engines walk on; the State graph is only used while building it.
+ *
+ * CHAR   - consume one character accepted by classes[classIndex[pc]] and move to next[pc]
+ * SPLIT  - move to both alternative[pc] and next[pc] without consuming anything
+ * MATCH  - pattern number matchIds[pc] matched (always 0, unless several patterns were combined)
+ * COUNT  - consume between counterMin[pc] and counterMax[pc] characters accepted by classes[classIndex[pc]],
+ *          then move to next[pc]. This is x{m,n} for a single char or class x, without a state per
+ *          repetition; the threads on it are kept by {@link Counters}. Only the matches() of PikeVm and
+ *          StreamMatcher run programs with COUNT states; everything else gets withoutCounters().
+ * SAVE   - record the current position in capture slot slots[pc] and move to next[pc]. Group i is
+ *          [slot 2i, slot 2i + 1), and group 0 is the whole match. Only PikeVm.findGroups() looks at them;
+ *          for everything else they are the same as a SPLIT with a single way out.
+ */
+final class NfaProgram {
+    static final int CHAR = 0;
+    static final int SPLIT = 1;
+    static final int MATCH = 2;
+    static final int COUNT = 3;
+    static final int SAVE = 4;
+
+    final int[] opcodes;
+    final int[] next;
+    final int[] alternative;
+    final int[] classIndex;
+    final int[] matchIds;
+    final int[] counterMin;
+    final int[] counterMax;
+    final int[] slots;
+    final CharacterClass[] classes;
+    final int start;
+
+    /**
+     * One more than the highest slot of a SAVE state, so 2 * (number of groups + 1) for a pattern.
+     */
+    final int slotCount;
+
+    /**
+     * live[pc] is whether a MATCH state can be reached from pc. A CHAR state with a class that accepts
+     * nothing leads nowhere, and neither does anything that only leads to it.
+     */
+    final boolean[] live;
+
+    /**
+     * closures[pc] lists the live CHAR, COUNT and MATCH states reachable from pc by following SPLITs and SAVEs,
+     * in the order of preference (a SPLIT's alternative before its next). These are worked out once when the
+     * program is built, and only for the start state and the targets of CHAR and COUNT states, since those are
+     * the only places a match resumes from; it is null for every other pc. Leaving out the states that can't
+     * get to a match changes no answer, and lets the engines see sooner that there's no thread left.
+     */
+    final int[][] closures;
+
+    /**
+     * What is known about the matches of the program without running it, see ProgramAnalysis.
+     */
+    final ProgramAnalysis analysis;
+
+    NfaProgram(final int[] opcodes,
+               final int[] next,
+               final int[] alternative,
+               final int[] classIndex,
+               final int[] matchIds,
+               final int[] counterMin,
+               final int[] counterMax,
+               final int[] slots,
+               final CharacterClass[] classes,
+               final int start) {
+        this.opcodes = opcodes;
+        this.next = next;
+        this.alternative = alternative;
+        this.classIndex = classIndex;
+        this.matchIds = matchIds;
+        this.counterMin = counterMin;
+        this.counterMax = counterMax;
+        this.slots = slots;
+        this.classes = classes;
+        this.start = start;
+        int slotCount = 0;
+        for (int pc = 0; pc < opcodes.length; ++pc) {
+            if (opcodes[pc] == SAVE) {
+                slotCount = Math.max(slotCount, slots[pc] + 1);
+            }
+        }
+        this.slotCount = slotCount;
+        this.live = computeLive();
+        this.closures = computeClosures();
+        this.analysis = new ProgramAnalysis(this);
+    }
+
+    public int size() {
+        return opcodes.length;
+    }
+
+    public boolean matches(final int pc, final char c) {
+        return opcodes[pc] == CHAR && classes[classIndex[pc]].isAccepted(c);
+    }
+
+    public boolean isMatch(final int pc) {
+        return opcodes[pc] == MATCH;
+    }
+
+    /**
+     * Whether the CHAR or COUNT state at pc accepts c.
+     */
+    public boolean accepts(final int pc, final char c) {
+        return classes[classIndex[pc]].isAccepted(c);
+    }
+
+    /**
+     * Whether there are any COUNT states, which only some of the engines can run.
+     */
+    public boolean hasCounters() {
+        for (final int opcode : opcodes) {
+            if (opcode == COUNT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The same program with every COUNT state spelled out as CHAR and SPLIT states: x{m,n} becomes m CHARs
+     * and then n - m optional ones, nested like (x(x)?)?. The first CHAR takes the place of the COUNT state
+     * and the others are added at the end, so the pcs of the other states stay the same.
+     *
+     * Searches need this, because the threads on a COUNT state share a single place in the order of
+     * preference, and a search has to tell apart which of them it prefers.
+     */
+    public NfaProgram withoutCounters() {
+        if (!hasCounters()) {
+            return this;
+        }
+        int size = opcodes.length;
+        for (int pc = 0; pc < opcodes.length; ++pc) {
+            if (opcodes[pc] == COUNT) {
+                size += 2 * counterMax[pc] - counterMin[pc] - 1;
+            }
+        }
+        final int[] opcodes = Arrays.copyOf(this.opcodes, size);
+        final int[] next = Arrays.copyOf(this.next, size);
+        final int[] alternative = Arrays.copyOf(this.alternative, size);
+        final int[] classIndex = Arrays.copyOf(this.classIndex, size);
+        final int[] matchIds = Arrays.copyOf(this.matchIds, size);
+        final int[] slots = Arrays.copyOf(this.slots, size);
+        int added = this.opcodes.length;
+        for (int pc = 0; pc < this.opcodes.length; ++pc) {
+            if (opcodes[pc] != COUNT) {
+                continue;
+            }
+            final int exit = next[pc];
+            int last = pc;
+            opcodes[pc] = CHAR;
+            for (int k = 1; k < counterMin[pc]; ++k) {
+                next[last] = added;
+                last = added++;
+                opcodes[last] = CHAR;
+                classIndex[last] = classIndex[pc];
+            }
+            for (int k = counterMin[pc]; k < counterMax[pc]; ++k) {
+                final int split = added++;
+                next[last] = split;
+                opcodes[split] = SPLIT;
+                next[split] = exit;
+                alternative[split] = added;
+                last = added++;
+                opcodes[last] = CHAR;
+                classIndex[last] = classIndex[pc];
+            }
+            next[last] = exit;
+        }
+        return new NfaProgram(opcodes, next, alternative, classIndex, matchIds, new int[size], new int[size], slots,
+                classes, start);
+    }
+
+    /**
+     * The program with every edge turned around, which matches the reverses of the strings this one
+     * matches, so that input can be read backwards from where a match ends to where it starts. An edge from
+     * u to v becomes one from v to u: a SPLIT or SAVE edge a way out of a SPLIT, and a CHAR edge a CHAR
+     * state of the same class leading to u. The new start leads to the old MATCH states, and the old start
+     * to the only MATCH state. Each old pc is where its ways out start, as a chain of SPLITs if there are
+     * several and a SPLIT back to itself if there are none, and the CHAR states are added at the end.
+     *
+     * The order of preference isn't kept, so this is only good for finding where the longest match ends.
+     * The program must not have COUNT states (see withoutCounters()).
+     */
+    public NfaProgram reverse() {
+        final int size = opcodes.length;
+        // The ways out of each pc in the reversed program, as the pcs they lead to.
+        final int[][] out = new int[size][];
+        final int[] outCount = new int[size];
+        for (int pc = 0; pc < size; ++pc) {
+            if (opcodes[pc] == SPLIT) {
+                ++outCount[next[pc]];
+                ++outCount[alternative[pc]];
+            } else if (opcodes[pc] == SAVE || opcodes[pc] == CHAR) {
+                ++outCount[next[pc]];
+            }
+        }
+        ++outCount[start];
+        int added = size;
+        for (int pc = 0; pc < size; ++pc) {
+            out[pc] = new int[outCount[pc]];
+            outCount[pc] = 0;
+            // A chain of k SPLITs takes k - 1 new pcs on top of this one.
+            added += Math.max(0, out[pc].length - 2);
+        }
+        int matchCount = 0;
+        for (int pc = 0; pc < size; ++pc) {
+            if (opcodes[pc] == MATCH) {
+                ++matchCount;
+            } else if (opcodes[pc] == CHAR) {
+                ++added;
+            }
+        }
+        final int match = added++;
+        final int newStart = added;
+        added += Math.max(1, matchCount - 1);
+
+        final int[] opcodes = new int[added];
+        final int[] next = new int[added];
+        final int[] alternative = new int[added];
+        final int[] classIndex = new int[added];
+        int free = size;
+        for (int pc = 0; pc < size; ++pc) {
+            if (this.opcodes[pc] == SPLIT) {
+                out[this.next[pc]][outCount[this.next[pc]]++] = pc;
+                out[this.alternative[pc]][outCount[this.alternative[pc]]++] = pc;
+            } else if (this.opcodes[pc] == SAVE) {
+                out[this.next[pc]][outCount[this.next[pc]]++] = pc;
+            } else if (this.opcodes[pc] == CHAR) {
+                final int charPc = free++;
+                opcodes[charPc] = CHAR;
+                classIndex[charPc] = this.classIndex[pc];
+                next[charPc] = pc;
+                out[this.next[pc]][outCount[this.next[pc]]++] = charPc;
+            }
+        }
+        out[start][outCount[start]++] = match;
+        opcodes[match] = MATCH;
+
+        for (int pc = 0; pc < size; ++pc) {
+            free = chainSplits(pc, out[pc], opcodes, next, alternative, free);
+        }
+        final int[] matches = new int[matchCount];
+        matchCount = 0;
+        for (int pc = 0; pc < size; ++pc) {
+            if (this.opcodes[pc] == MATCH) {
+                matches[matchCount++] = pc;
+            }
+        }
+        chainSplits(newStart, matches, opcodes, next, alternative, newStart + 1);
+        return new NfaProgram(opcodes, next, alternative, classIndex, new int[added], new int[added],
+                new int[added], new int[added], classes, newStart);
+    }
+
+    /**
+     * Makes pc a SPLIT, or a chain of them taking new pcs from free on, that leads to each of the targets.
+     *
+     * @return the next free pc.
+     */
+    private static int chainSplits(final int pc,
+                                   final int[] targets,
+                                   final int[] opcodes,
+                                   final int[] next,
+                                   final int[] alternative,
+                                   final int free) {
+        int split = pc;
+        int nextFree = free;
+        opcodes[split] = SPLIT;
+        if (targets.length == 0) {
+            next[split] = split;
+            alternative[split] = split;
+            return nextFree;
+        }
+        for (int k = 0; k < targets.length - 1; ++k) {
+            alternative[split] = targets[k];
+            if (k == targets.length - 2) {
+                next[split] = targets[k + 1];
+                return nextFree;
+            }
+            next[split] = nextFree;
+            split = nextFree++;
+            opcodes[split] = SPLIT;
+        }
+        next[split] = targets[0];
+        alternative[split] = targets[0];
+        return nextFree;
+    }
+
+    /**
+     * The CHAR, COUNT and MATCH states a match starts out on.
+     */
+    public int[] startClosure() {
+        return closures[start];
+    }
+
+    /**
+     * The CHAR, COUNT and MATCH states we are on after the CHAR state at pc consumes a character, or the
+     * COUNT state at pc is done repeating.
+     */
+    public int[] closureAfter(final int pc) {
+        return closures[next[pc]];
+    }
+
+    /**
+     * The distinct matchIds of the MATCH states among the given pcs, in increasing order.
+     */
+    public int[] matchIdsOf(final int[] pcs) {
+        final BitSet ids = new BitSet();
+        for (final int pc : pcs) {
+            if (isMatch(pc)) {
+                ids.set(matchIds[pc]);
+            }
+        }
+        final int[] sorted = new int[ids.cardinality()];
+        int count = 0;
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            sorted[count++] = id;
+        }
+        return sorted;
+    }
+
+    /**
+     * Walks the edges backwards from the MATCH states, with an explicit stack. The edges into each pc are
+     * gathered first, as ranges of one array.
+     */
+    private boolean[] computeLive() {
+        final int size = opcodes.length;
+        final boolean[] emptyClasses = new boolean[classes.length];
+        for (int k = 0; k < classes.length; ++k) {
+            emptyClasses[k] = CharacterClasses.ranges(classes[k]).length == 0;
+        }
+        final int[] firstEdge = new int[size + 1];
+        for (int pc = 0; pc < size; ++pc) {
+            if (opcodes[pc] == SPLIT) {
+                ++firstEdge[alternative[pc] + 1];
+            }
+            if (opcodes[pc] != MATCH) {
+                ++firstEdge[next[pc] + 1];
+            }
+        }
+        for (int pc = 0; pc < size; ++pc) {
+            firstEdge[pc + 1] += firstEdge[pc];
+        }
+        final int[] edgeCount = new int[size];
+        final int[] from = new int[firstEdge[size]];
+        for (int pc = 0; pc < size; ++pc) {
+            if (opcodes[pc] == SPLIT) {
+                from[firstEdge[alternative[pc]] + edgeCount[alternative[pc]]++] = pc;
+            }
+            // A CHAR with an empty class can't be crossed, and neither can a COUNT that has to take a char.
+            final boolean blocked = (opcodes[pc] == CHAR || opcodes[pc] == COUNT && counterMin[pc] > 0) &&
+                    emptyClasses[classIndex[pc]];
+            if (opcodes[pc] != MATCH && !blocked) {
+                from[firstEdge[next[pc]] + edgeCount[next[pc]]++] = pc;
+            }
+        }
+
+        final boolean[] live = new boolean[size];
+        final int[] stack = new int[size];
+        int top = 0;
+        for (int pc = 0; pc < size; ++pc) {
+            if (opcodes[pc] == MATCH) {
+                live[pc] = true;
+                stack[top++] = pc;
+            }
+        }
+        while (top > 0) {
+            final int pc = stack[--top];
+            for (int k = firstEdge[pc]; k < firstEdge[pc] + edgeCount[pc]; ++k) {
+                if (!live[from[k]]) {
+                    live[from[k]] = true;
+                    stack[top++] = from[k];
+                }
+            }
+        }
+        return live;
+    }
+
+    private int[][] computeClosures() {
+        final int[][] closures = new int[opcodes.length][];
+        final SparseSet visited = new SparseSet(opcodes.length);
+        final int[] stack = new int[2 * opcodes.length + 1];
+        final int[] closure = new int[opcodes.length];
+        closures[start] = computeClosure(start, visited, stack, closure);
+        for (int pc = 0; pc < opcodes.length; ++pc) {
+            if ((opcodes[pc] == CHAR || opcodes[pc] == COUNT) && closures[next[pc]] == null) {
+                closures[next[pc]] = computeClosure(next[pc], visited, stack, closure);
+            }
+        }
+        return closures;
+    }
+
+    /**
+     * A depth first walk over the SPLITs and SAVEs with an explicit stack, so that however deeply nested the
+     * pattern is, we can't run out of stack, and with a visited set, so that cycles of SPLITs (which
+     * (a?)* and the like produce) are walked once. Each pc is pushed at most once for every SPLIT or SAVE
+     * that points at it, which bounds the stack by 2 * size() + 1. The closure is collected in a buffer of size()
+     * that is shared between calls, so that only the result is allocated.
+     */
+    private int[] computeClosure(final int pc, final SparseSet visited, final int[] stack, final int[] closure) {
+        visited.clear();
+        int count = 0;
+        int top = 0;
+        stack[top++] = pc;
+        while (top > 0) {
+            final int current = stack[--top];
+            if (!visited.add(current)) {
+                continue;
+            }
+            if (opcodes[current] == SPLIT) {
+                stack[top++] = next[current];
+                stack[top++] = alternative[current];
+            } else if (opcodes[current] == SAVE) {
+                stack[top++] = next[current];
+            } else if (live[current]) {
+                closure[count++] = current;
+            }
+        }
+        return Arrays.copyOf(closure, count);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (int pc = 0; pc < opcodes.length; ++pc) {
+            sb.append(pc == start ? '>' : ' ').append(pc).append(": ");
+            switch (opcodes[pc]) {
+                case CHAR:
+                    sb.append("char ").append(classes[classIndex[pc]]).append(" -> ").append(next[pc]);
+                    break;
+                case SPLIT:
+                    sb.append("split ").append(alternative[pc]).append(", ").append(next[pc]);
+                    break;
+                case COUNT:
+                    sb.append("count ").append(classes[classIndex[pc]])
+                            .append(" {").append(counterMin[pc]).append(',').append(counterMax[pc]).append('}')
+                            .append(" -> ").append(next[pc]);
+                    break;
+                case SAVE:
+                    sb.append("save ").append(slots[pc]).append(" -> ").append(next[pc]);
+                    break;
+                case MATCH:
+                    sb.append("match");
+                    if (matchIds[pc] != 0) {
+                        sb.append(' ').append(matchIds[pc]);
+                    }
+                    break;
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,59 @@
+package educational.regex.parser;
+
+import java.util.List;
+import java.util.Stack;
+
+/**
+ * A node of the syntax tree RegexParser builds. Each node knows the part of the pattern it was parsed
+ * from, as [start, end) indices into it.
+ */
+abstract class Node {
+    final int start;
+    final int end;
+
+    Node(final int start, final int end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * The sub-expressions, in the order they appear in the pattern.
+     */
+    abstract List<Node> getChildren();
+
+    /**
+     * What toString() shows for this node, other than its children.
+     */
+    abstract String label();
+
+    /**
+     * A leaf shows as its label, and anything else as (label child child ...). Trees can be thousands of
+     * nodes deep, so this is done with an explicit stack rather than by recursing into the children.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        final Stack<Object> pending = new Stack<Object>();
+        pending.push(this);
+        while (!pending.empty()) {
+            final Object top = pending.pop();
+            if (!(top instanceof Node)) {
+                sb.append(top);
+                continue;
+            }
+            final Node node = (Node) top;
+            final List<Node> children = node.getChildren();
+            if (children.isEmpty()) {
+                sb.append(node.label());
+                continue;
+            }
+            sb.append('(').append(node.label());
+            pending.push(")");
+            for (int i = children.size() - 1; i >= 0; --i) {
+                pending.push(children.get(i));
+                pending.push(" ");
+            }
+        }
+        return sb.toString();
+    }
+}
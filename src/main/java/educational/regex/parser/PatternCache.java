@@ -0,0 +1,164 @@
+package educational.regex.parser;
+
+import educational.regex.ParseException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers compiled Matchers by pattern text and CompileOptions, so that compiling the same pattern again
+ * is a map lookup. Safe to use from many threads:
+ *
+ * - the cache holds at most maximumSize patterns, and when it is full the least recently used one goes;
+ * - when several threads ask for a pattern that isn't cached yet, the first one compiles it and the others
+ *   wait for that result instead of compiling it again;
+ * - patterns that fail to compile are not remembered, so the next call will try (and fail) again.
+ *
+ * The bookkeeping is a LinkedHashMap in access order behind a lock that is only held to look up or insert
+ * an entry, never while compiling.
+ */
+public final class PatternCache {
+    private final int maximumSize;
+
+    // guarded by this
+    private final LinkedHashMap<Key, FutureTask<Matcher>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public PatternCache(final int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize needs to be positive, got: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.entries = new LinkedHashMap<Key, FutureTask<Matcher>>(16, 0.75f, true);
+    }
+
+    public Matcher get(final String regex, final CompileOptions options) throws ParseException {
+        final Key key = new Key(regex, options);
+        final FutureTask<Matcher> task;
+        boolean compileHere = false;
+        synchronized (this) {
+            final FutureTask<Matcher> cached = entries.get(key);
+            if (cached != null) {
+                task = cached;
+            } else {
+                task = new FutureTask<Matcher>(new Callable<Matcher>() {
+                    @Override
+                    public Matcher call() throws Exception {
+                        return Parser.compileUncached(regex, options);
+                    }
+                });
+                entries.put(key, task);
+                compileHere = true;
+                evictIfFull();
+            }
+        }
+
+        if (compileHere) {
+            misses.incrementAndGet();
+            task.run();
+        } else {
+            hits.incrementAndGet();
+        }
+        return await(key, task);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private void evictIfFull() {
+        final Iterator<FutureTask<Matcher>> leastRecentlyUsed = entries.values().iterator();
+        while (entries.size() > maximumSize) {
+            leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private Matcher await(final Key key, final FutureTask<Matcher> task) throws ParseException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (final InterruptedException e) {
+                    // The compile is running on another thread and can't be abandoned halfway, so finish waiting.
+                    interrupted = true;
+                } catch (final ExecutionException e) {
+                    synchronized (this) {
+                        if (entries.get(key) == task) {
+                            entries.remove(key);
+                        }
+                    }
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof ParseException) {
+                        throw (ParseException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "size: " + size() + ", hits: " + hits + ", misses: " + misses + ", evictions: " + evictions;
+    }
+
+    private static final class Key {
+        private final String regex;
+        private final CompileOptions options;
+
+        Key(final String regex, final CompileOptions options) {
+            this.regex = regex;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) o;
+            return regex.equals(that.regex) && options.equals(that.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * regex.hashCode() + options.hashCode();
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package educational.regex.parser;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Simulates an NfaProgram on all the possible states at once, one input character at a time, in the
+ * style of Pike's VM (https://swtch.com/~rsc/regexp/regexp2.html). The lists of states are sparse
+ * sets sized up front from the program, so matching does not allocate per input character; all the
+ * working memory lives in a Scratch that callers can hold on to and reuse.
+ *
+ * A PikeVm is immutable and can be shared across threads; a Scratch can't.
+ */
+final class PikeVm {
+    private final NfaProgram program;
+    private final Prefilter prefilter;
+    private final MatcherMetrics metrics;
+
+    PikeVm(final NfaProgram program) {
+        this(program, null);
+    }
+
+    /**
+     * @param prefilter if not null, find() uses it to skip ahead whenever no thread is alive.
+     */
+    PikeVm(final NfaProgram program, final Prefilter prefilter) {
+        this(program, prefilter, null);
+    }
+
+    /**
+     * @param metrics if not null, gets told how many states each input char was read on, and what the
+     *                prefilter found.
+     */
+    PikeVm(final NfaProgram program, final Prefilter prefilter, final MatcherMetrics metrics) {
+        this.program = program;
+        this.prefilter = prefilter;
+        this.metrics = metrics;
+    }
+
+    public Scratch newScratch() {
+        return new Scratch(program, metrics != null);
+    }
+
+    public boolean matches(final CharSequence input, final Scratch scratch) {
+        return matches(input, scratch, null);
+    }
+
+    /**
+     * @param matchingPatterns if not null, gets the matchIds of all the MATCH states we end up on.
+     */
+    public boolean matches(final CharSequence input, final Scratch scratch, final BitSet matchingPatterns) {
+        scratch.current.clear();
+        scratch.counters.clear();
+        addAll(scratch.current, program.startClosure(), scratch.counters, 0);
+        final boolean matched = run(input, 0, scratch, matchingPatterns);
+        record(scratch);
+        return matched;
+    }
+
+    /**
+     * Picks up a match at input[from] with the given CHAR and MATCH pcs being the current states.
+     */
+    public boolean matchesFrom(final int[] pcs,
+                               final CharSequence input,
+                               final int from,
+                               final Scratch scratch,
+                               final BitSet matchingPatterns) {
+        scratch.current.clear();
+        scratch.counters.clear();
+        addAll(scratch.current, pcs, scratch.counters, from);
+        final boolean matched = run(input, from, scratch, matchingPatterns);
+        record(scratch);
+        return matched;
+    }
+
+    private boolean run(final CharSequence input,
+                        final int from,
+                        final Scratch scratch,
+                        final BitSet matchingPatterns) {
+        SparseSet current = scratch.current;
+        SparseSet next = scratch.next;
+        final Counters counters = scratch.counters;
+        final long[] activeStates = scratch.activeStates;
+        final MatchBudget budget = scratch.budget;
+        // Only when the caller doesn't need to know which patterns match, which later chars could change.
+        final boolean[] acceptsForever = matchingPatterns == null ? program.analysis.acceptsForever : null;
+        final int length = input.length();
+        for (int i = from; i < length; ++i) {
+            if (current.isEmpty()) {
+                return false;
+            }
+            if (budget != null) {
+                budget.step(current.size());
+            }
+            if (activeStates != null) {
+                ++activeStates[MatcherMetrics.bucketOf(current.size())];
+            }
+            final char c = input.charAt(i);
+            next.clear();
+            for (int k = 0; k < current.size(); ++k) {
+                final int pc = current.get(k);
+                if (program.opcodes[pc] == NfaProgram.COUNT) {
+                    final boolean accepted = program.accepts(pc, c);
+                    final boolean leaving = accepted && counters.canLeave(pc, i + 1);
+                    counters.step(pc, accepted, i + 1);
+                    if (!counters.isEmpty(pc)) {
+                        next.add(pc);
+                    }
+                    if (leaving) {
+                        addAll(next, program.closureAfter(pc), counters, i + 1);
+                    }
+                } else if (program.matches(pc, c)) {
+                    if (acceptsForever != null && acceptsForever[pc]) {
+                        return true;
+                    }
+                    addAll(next, program.closureAfter(pc), counters, i + 1);
+                }
+            }
+            final SparseSet swap = current;
+            current = next;
+            next = swap;
+        }
+
+        boolean matched = false;
+        for (int k = 0; k < current.size(); ++k) {
+            final int pc = current.get(k);
+            if (program.isMatch(pc)) {
+                matched = true;
+                if (matchingPatterns == null) {
+                    break;
+                }
+                matchingPatterns.set(program.matchIds[pc]);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Looks for the leftmost match in input[from..to), and among the matches that start there, the one a
+     * backtracking matcher would have found first: the alternative of a SPLIT is preferred over its next,
+     * so |'s are tried left to right and *, + and ? are greedy.
+     *
+     * The states are kept in order of preference. A thread that starts at a later position is always less
+     * preferred than one that started earlier, so it goes at the end. Once a thread reaches MATCH, the ones
+     * after it can't win anymore and are dropped, and no new threads are started; the ones before it keep
+     * going, since a longer match of theirs is preferred.
+     *
+     * Whenever no thread is alive, the prefilter (if there is one) moves us straight to the next position
+     * where a match could start.
+     *
+     * The program must not have COUNT states (see NfaProgram.withoutCounters()).
+     *
+     * @return false if there's no match. Otherwise the match is left in scratch.matchStart and scratch.matchEnd.
+     */
+    public boolean find(final CharSequence input, final int from, final int to, final Scratch scratch) {
+        final boolean found = runFind(input, from, to, scratch);
+        record(scratch);
+        return found;
+    }
+
+    private boolean runFind(final CharSequence input, final int from, final int to, final Scratch scratch) {
+        final long[] activeStates = scratch.activeStates;
+        final MatchBudget budget = scratch.budget;
+        SparseSet current = scratch.current;
+        SparseSet next = scratch.next;
+        int[] currentStarts = scratch.currentStarts;
+        int[] nextStarts = scratch.nextStarts;
+        boolean matched = false;
+
+        current.clear();
+        for (int i = from; ; ++i) {
+            if (current.isEmpty() && !matched && prefilter != null) {
+                final int candidate = prefilter.nextCandidate(input, i, to);
+                if (candidate < 0) {
+                    return false;
+                }
+                if (budget != null) {
+                    budget.step(candidate - i);
+                }
+                if (activeStates != null) {
+                    ++scratch.prefilterCandidates;
+                    scratch.prefilterSkippedChars += candidate - i;
+                }
+                i = candidate;
+            }
+            if (!matched) {
+                for (final int pc : program.startClosure()) {
+                    if (current.add(pc)) {
+                        currentStarts[pc] = i;
+                    }
+                }
+            }
+
+            for (int k = 0; k < current.size(); ++k) {
+                final int pc = current.get(k);
+                if (program.isMatch(pc)) {
+                    matched = true;
+                    scratch.matchStart = currentStarts[pc];
+                    scratch.matchEnd = i;
+                    current.truncate(k);
+                    break;
+                }
+            }
+
+            if (current.isEmpty() || i == to) {
+                return matched;
+            }
+
+            if (budget != null) {
+                budget.step(current.size());
+            }
+            if (activeStates != null) {
+                ++activeStates[MatcherMetrics.bucketOf(current.size())];
+            }
+            final char c = input.charAt(i);
+            next.clear();
+            for (int k = 0; k < current.size(); ++k) {
+                final int pc = current.get(k);
+                if (program.matches(pc, c)) {
+                    for (final int nextPc : program.closureAfter(pc)) {
+                        if (next.add(nextPc)) {
+                            nextStarts[nextPc] = currentStarts[pc];
+                        }
+                    }
+                }
+            }
+
+            final SparseSet swap = current;
+            current = next;
+            next = swap;
+            final int[] swapStarts = currentStarts;
+            currentStarts = nextStarts;
+            nextStarts = swapStarts;
+        }
+    }
+
+    /**
+     * Like find(), and also tells where each capture group matched: group i is at [slots[2i], slots[2i + 1])
+     * in scratch.slots, both -1 if it didn't take part in the match.
+     *
+     * Every thread carries its own slots, which are kept per state in tables that the Scratch allocates the
+     * first time it's used for this and reuses after that. A thread writes the position into a slot as it
+     * passes a SAVE state. Threads are in the same order of preference as in find(), and a state keeps the
+     * first thread to get to it, so the slots that win are the ones of the match find() reports.
+     *
+     * The program must not have COUNT states (see NfaProgram.withoutCounters()).
+     */
+    public boolean findGroups(final CharSequence input, final int from, final int to, final Scratch scratch) {
+        final boolean found = runFindGroups(input, from, to, scratch);
+        record(scratch);
+        return found;
+    }
+
+    private boolean runFindGroups(final CharSequence input, final int from, final int to, final Scratch scratch) {
+        final long[] activeStates = scratch.activeStates;
+        final MatchBudget budget = scratch.budget;
+        scratch.allocateSlots(program);
+        final int slotCount = program.slotCount;
+        SparseSet current = scratch.current;
+        SparseSet next = scratch.next;
+        int[] currentSlots = scratch.currentSlots;
+        int[] nextSlots = scratch.nextSlots;
+        final int[] thread = scratch.threadSlots;
+        boolean matched = false;
+
+        current.clear();
+        scratch.visited.clear();
+        for (int i = from; ; ++i) {
+            if (current.isEmpty() && !matched && prefilter != null) {
+                final int candidate = prefilter.nextCandidate(input, i, to);
+                if (candidate < 0) {
+                    return false;
+                }
+                if (budget != null) {
+                    budget.step(candidate - i);
+                }
+                if (activeStates != null) {
+                    ++scratch.prefilterCandidates;
+                    scratch.prefilterSkippedChars += candidate - i;
+                }
+                i = candidate;
+                scratch.visited.clear();
+            }
+            if (!matched) {
+                Arrays.fill(thread, -1);
+                addThread(current, currentSlots, program.start, thread, i, scratch);
+            }
+
+            for (int k = 0; k < current.size(); ++k) {
+                final int pc = current.get(k);
+                if (program.isMatch(pc)) {
+                    matched = true;
+                    System.arraycopy(currentSlots, pc * slotCount, scratch.slots, 0, slotCount);
+                    scratch.matchStart = scratch.slots[0];
+                    scratch.matchEnd = scratch.slots[1];
+                    current.truncate(k);
+                    break;
+                }
+            }
+
+            if (current.isEmpty() || i == to) {
+                return matched;
+            }
+
+            if (budget != null) {
+                budget.step(current.size());
+            }
+            if (activeStates != null) {
+                ++activeStates[MatcherMetrics.bucketOf(current.size())];
+            }
+            final char c = input.charAt(i);
+            next.clear();
+            scratch.visited.clear();
+            for (int k = 0; k < current.size(); ++k) {
+                final int pc = current.get(k);
+                if (program.matches(pc, c)) {
+                    System.arraycopy(currentSlots, pc * slotCount, thread, 0, slotCount);
+                    addThread(next, nextSlots, program.next[pc], thread, i + 1, scratch);
+                }
+            }
+
+            final SparseSet swap = current;
+            current = next;
+            next = swap;
+            final int[] swapSlots = currentSlots;
+            currentSlots = nextSlots;
+            nextSlots = swapSlots;
+        }
+    }
+
+    /**
+     * Follows the SPLITs and SAVEs from pc in order of preference, adding the thread to the list on every
+     * CHAR and MATCH state it gets to, with its slots as they are there. The states already visited since
+     * the list was cleared, by this thread or a preferred one, are not followed again.
+     *
+     * The walk is depth first with an explicit stack, and when it goes past a SAVE it pushes the slot's old
+     * value below the state after it, so the slot is put back before the walk moves on to another branch.
+     */
+    private void addThread(final SparseSet list,
+                           final int[] listSlots,
+                           final int pc,
+                           final int[] thread,
+                           final int position,
+                           final Scratch scratch) {
+        final int slotCount = program.slotCount;
+        // A pc, or the complement of a slot whose old value is at the same index of restored.
+        final int[] stack = scratch.stack;
+        final int[] restored = scratch.restored;
+        final SparseSet visited = scratch.visited;
+        int top = 0;
+        stack[top++] = pc;
+        while (top > 0) {
+            final int current = stack[--top];
+            if (current < 0) {
+                thread[~current] = restored[top];
+                continue;
+            }
+            if (!visited.add(current)) {
+                continue;
+            }
+            switch (program.opcodes[current]) {
+                case NfaProgram.SPLIT:
+                    stack[top++] = program.next[current];
+                    stack[top++] = program.alternative[current];
+                    break;
+                case NfaProgram.SAVE:
+                    final int slot = program.slots[current];
+                    restored[top] = thread[slot];
+                    stack[top++] = ~slot;
+                    thread[slot] = position;
+                    stack[top++] = program.next[current];
+                    break;
+                default:
+                    list.add(current);
+                    System.arraycopy(thread, 0, listSlots, current * slotCount, slotCount);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Hands what the Scratch counted during a match over to the metrics.
+     */
+    private void record(final Scratch scratch) {
+        if (metrics == null) {
+            return;
+        }
+        metrics.addActiveStates(scratch.activeStates);
+        if (scratch.prefilterCandidates > 0) {
+            metrics.prefilterFound(scratch.prefilterCandidates, scratch.prefilterSkippedChars);
+            scratch.prefilterCandidates = 0;
+            scratch.prefilterSkippedChars = 0;
+        }
+    }
+
+    /**
+     * Adds the pcs to the set, getting new threads on the COUNT states among them at position.
+     */
+    private void addAll(final SparseSet set, final int[] pcs, final Counters counters, final int position) {
+        for (final int pc : pcs) {
+            set.add(pc);
+            if (program.opcodes[pc] == NfaProgram.COUNT) {
+                counters.enter(pc, position);
+            }
+        }
+    }
+
+    /**
+     * Working memory for one match at a time.
+     */
+    static final class Scratch {
+        final SparseSet current;
+        final SparseSet next;
+        final int[] currentStarts;
+        final int[] nextStarts;
+        final Counters counters;
+        int matchStart;
+        int matchEnd;
+
+        // For findGroups(), allocated on first use.
+        int[] currentSlots;
+        int[] nextSlots;
+        int[] threadSlots;
+        int[] slots;
+        int[] stack;
+        int[] restored;
+        SparseSet visited;
+
+        // Counted for MatcherMetrics, and null or 0 without them.
+        final long[] activeStates;
+        long prefilterCandidates;
+        long prefilterSkippedChars;
+
+        // The limits of the current call, null if it has none.
+        MatchBudget budget;
+
+        Scratch(final NfaProgram program, final boolean metrics) {
+            this.current = new SparseSet(program.size());
+            this.next = new SparseSet(program.size());
+            this.currentStarts = new int[program.size()];
+            this.nextStarts = new int[program.size()];
+            this.counters = new Counters(program);
+            this.activeStates = metrics ? new long[MatcherMetrics.HISTOGRAM_BUCKETS] : null;
+        }
+
+        void allocateSlots(final NfaProgram program) {
+            if (slots != null) {
+                return;
+            }
+            currentSlots = new int[program.size() * program.slotCount];
+            nextSlots = new int[program.size() * program.slotCount];
+            threadSlots = new int[program.slotCount];
+            slots = new int[program.slotCount];
+            // A pc is only followed once, and then pushes at most two entries.
+            stack = new int[2 * program.size() + 1];
+            restored = new int[stack.length];
+            visited = new SparseSet(program.size());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package educational.regex.parser;
+
+import educational.regex.characterclasses.CharacterClass;
+import educational.regex.characterclasses.CharacterClasses;
+
+/**
+ * Skips over the parts of the input where no match can start, so that a search only runs the automaton
+ * near candidates. Built from the Literals of the whole pattern and the start states of its program:
+ *
+ * - if every match starts with a literal, candidates are where that literal occurs, found with
+ *   Boyer-Moore-Horspool;
+ * - otherwise, if the pattern can't match the empty string, candidates are the chars that some start
+ *   state accepts;
+ * - on top of that, if every match contains a literal, an input that doesn't contain it is rejected
+ *   without running the automaton at all.
+ */
+final class Prefilter {
+    private static final int SKIP_TABLE_SIZE = 256;
+
+    private final String prefix;
+    private final int[] prefixSkips;
+    private final CharacterClass firstChars;
+    private final String required;
+    private final int[] requiredSkips;
+
+    private Prefilter(final String prefix, final CharacterClass firstChars, final String required) {
+        this.prefix = prefix;
+        this.prefixSkips = skipTable(prefix);
+        this.firstChars = firstChars;
+        this.required = required;
+        this.requiredSkips = skipTable(required);
+    }
+
+    /**
+     * @return null if the literals and the program give us nothing to skip with.
+     */
+    public static Prefilter of(final Literals literals, final NfaProgram program) {
+        // With no start state at all, nothing can match, and no char can start a match.
+        CharacterClass firstChars = CharacterClasses.fromRanges(new int[0]);
+        for (final int pc : program.startClosure()) {
+            if (program.isMatch(pc)) {
+                // The empty string matches, so a match can start anywhere.
+                return null;
+            }
+            final CharacterClass characterClass = program.classes[program.classIndex[pc]];
+            firstChars = CharacterClasses.union(firstChars, characterClass);
+        }
+        firstChars = CharacterClasses.compile(firstChars);
+        final int[] firstCharRanges = CharacterClasses.ranges(firstChars);
+        if (firstCharRanges.length == 2 &&
+                firstCharRanges[0] == Character.MIN_VALUE && firstCharRanges[1] == Character.MAX_VALUE) {
+            // Any char can start a match.
+            firstChars = null;
+        }
+
+        final String prefix = literals.getPrefix();
+        final String required = literals.getRequired().length() > prefix.length() ? literals.getRequired() : "";
+        if (prefix.isEmpty() && firstChars == null && required.isEmpty()) {
+            return null;
+        }
+        return new Prefilter(prefix, firstChars, required);
+    }
+
+    /**
+     * @return false if input[from..to) definitely has no match.
+     */
+    public boolean mayMatch(final CharSequence input, final int from, final int to) {
+        return required.isEmpty() || indexOf(input, required, requiredSkips, from, to) >= 0;
+    }
+
+    /**
+     * @return the first position in input[from..to) where a match could start, or -1 if there is none.
+     */
+    public int nextCandidate(final CharSequence input, final int from, final int to) {
+        if (!prefix.isEmpty()) {
+            return indexOf(input, prefix, prefixSkips, from, to);
+        }
+        if (firstChars != null) {
+            for (int i = from; i < to; ++i) {
+                if (firstChars.isAccepted(input.charAt(i))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        return from;
+    }
+
+    private static int indexOf(final CharSequence input,
+                               final String literal,
+                               final int[] skips,
+                               final int from,
+                               final int to) {
+        final int length = literal.length();
+        final int last = length - 1;
+        if (skips == null) {
+            final char first = literal.charAt(0);
+            for (int i = from; i + last < to; ++i) {
+                if (input.charAt(i) == first && regionMatches(input, i, literal)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        for (int i = from; i + last < to; ) {
+            final char c = input.charAt(i + last);
+            if (c == literal.charAt(last) && regionMatches(input, i, literal)) {
+                return i;
+            }
+            i += skips[c & (SKIP_TABLE_SIZE - 1)];
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(final CharSequence input, final int at, final String literal) {
+        for (int j = 0; j < literal.length(); ++j) {
+            if (input.charAt(at + j) != literal.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * How far the window can move when the char under its last position is c. Chars are bucketed by their
+     * low byte, and a bucket gets the smallest shift of the chars in it, so the shifts are never too far.
+     * Literals of a single char are simply scanned for, so they get no table.
+     */
+    private static int[] skipTable(final String literal) {
+        if (literal.length() < 2) {
+            return null;
+        }
+        final int[] skips = new int[SKIP_TABLE_SIZE];
+        final int last = literal.length() - 1;
+        for (int i = 0; i < SKIP_TABLE_SIZE; ++i) {
+            skips[i] = literal.length();
+        }
+        for (int i = 0; i < last; ++i) {
+            skips[literal.charAt(i) & (SKIP_TABLE_SIZE - 1)] = last - i;
+        }
+        return skips;
+    }
+
+    @Override
+    public String toString() {
+        return "prefix: " + prefix + ", first chars: " + firstChars + ", required: " + required;
+    }
+}
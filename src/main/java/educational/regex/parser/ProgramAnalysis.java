@@ -0,0 +1,205 @@
+package educational.regex.parser;
+
+import educational.regex.characterclasses.CharacterClasses;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * What can be told about the matches of an NfaProgram without running it, worked out once when the program
+ * is built, so that the engines can give their answer without reading all of the input:
+ *
+ * - the shortest and the longest input that can match, so an input of any other length is rejected
+ *   without looking at it;
+ * - the states after which anything at all is accepted, like the loop of a trailing .*, so a match that
+ *   gets to one is accepted without reading the rest.
+ *
+ * The states that can't get to a match at all are NfaProgram.live, and closures already leave them out.
+ */
+final class ProgramAnalysis {
+    /**
+     * The length of the shortest match, Integer.MAX_VALUE if nothing matches. 0 if the empty string matches.
+     */
+    final int minLength;
+
+    /**
+     * The length of the longest match, Integer.MAX_VALUE if there is no limit, and -1 if nothing matches.
+     */
+    final int maxLength;
+
+    /**
+     * acceptsForever[pc] is whether the CHAR state at pc accepts any char, and whatever follows it, so that a
+     * thread on it, with at least one char left, means the whole input matches. null if there is no such state.
+     */
+    final boolean[] acceptsForever;
+
+    ProgramAnalysis(final NfaProgram program) {
+        if (!program.live[program.start]) {
+            this.minLength = Integer.MAX_VALUE;
+            this.maxLength = -1;
+        } else {
+            this.minLength = minLength(program);
+            this.maxLength = maxLength(program);
+        }
+        this.acceptsForever = acceptsForever(program);
+    }
+
+    /**
+     * Whether an input of the given length could match.
+     */
+    boolean mayMatchLength(final int length) {
+        return length >= minLength && length <= maxLength;
+    }
+
+    /**
+     * How many chars the state at pc takes, at least or at most. SPLIT, SAVE and MATCH states take none.
+     */
+    private static int weight(final NfaProgram program, final int pc, final boolean max) {
+        switch (program.opcodes[pc]) {
+            case NfaProgram.CHAR:
+                return 1;
+            case NfaProgram.COUNT:
+                return max ? program.counterMax[pc] : program.counterMin[pc];
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * The number of live states pc can move to, and the k-th one of them in out. MATCH states move nowhere.
+     */
+    private static int successors(final NfaProgram program, final int pc, final int[] out) {
+        int count = 0;
+        if (program.opcodes[pc] == NfaProgram.SPLIT && program.live[program.alternative[pc]]) {
+            out[count++] = program.alternative[pc];
+        }
+        if (program.opcodes[pc] != NfaProgram.MATCH && program.live[program.next[pc]]) {
+            out[count++] = program.next[pc];
+        }
+        return count;
+    }
+
+    /**
+     * Dijkstra's shortest path from the start to a MATCH state over the live states, with what each state
+     * takes as the length of the edges out of it. The queue holds the distance and the pc in one long.
+     */
+    private static int minLength(final NfaProgram program) {
+        final long[] distances = new long[program.size()];
+        Arrays.fill(distances, Long.MAX_VALUE);
+        final PriorityQueue<Long> queue = new PriorityQueue<Long>();
+        final int[] successors = new int[2];
+        distances[program.start] = 0;
+        queue.add((long) program.start);
+        while (!queue.isEmpty()) {
+            final long entry = queue.poll();
+            final int pc = (int) entry;
+            final long distance = entry >>> 32;
+            if (distance > distances[pc]) {
+                continue;
+            }
+            if (program.isMatch(pc)) {
+                return (int) distance;
+            }
+            final long next = distance + weight(program, pc, false);
+            for (int k = successors(program, pc, successors) - 1; k >= 0; --k) {
+                if (next < distances[successors[k]]) {
+                    distances[successors[k]] = next;
+                    queue.add(next << 32 | successors[k]);
+                }
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * The longest path from the start to a MATCH state over the live states, worked out on the way back of
+     * a depth first walk with an explicit stack. A cycle means some part can repeat without a limit. Cycles
+     * that take no chars, which (a?)* has, are taken for unlimited too, which at worst leaves out a check.
+     */
+    private static int maxLength(final NfaProgram program) {
+        final int size = program.size();
+        // 0 not seen yet, 1 on the stack, 2 done.
+        final byte[] colors = new byte[size];
+        final long[] longest = new long[size];
+        final int[] stack = new int[size];
+        final int[] nextSuccessor = new int[size];
+        final int[] successors = new int[2];
+        int top = 0;
+        stack[top++] = program.start;
+        colors[program.start] = 1;
+        while (top > 0) {
+            final int pc = stack[top - 1];
+            final int count = successors(program, pc, successors);
+            if (nextSuccessor[pc] < count) {
+                final int successor = successors[nextSuccessor[pc]++];
+                if (colors[successor] == 1) {
+                    return Integer.MAX_VALUE;
+                }
+                if (colors[successor] == 0) {
+                    colors[successor] = 1;
+                    stack[top++] = successor;
+                }
+                continue;
+            }
+            long after = 0;
+            for (int k = 0; k < count; ++k) {
+                after = Math.max(after, longest[successors[k]]);
+            }
+            longest[pc] = Math.min(Integer.MAX_VALUE, after + weight(program, pc, true));
+            colors[pc] = 2;
+            --top;
+        }
+        return (int) longest[program.start];
+    }
+
+    /**
+     * The states of a .* that a match can end right after: CHAR states that accept every char and have a
+     * MATCH state in their closure. Of those, only the ones whose closure also has one of them are kept,
+     * until none is dropped, so that the loop keeps going whatever the char.
+     */
+    private static boolean[] acceptsForever(final NfaProgram program) {
+        final boolean[] forever = new boolean[program.size()];
+        final boolean[] fullClasses = new boolean[program.classes.length];
+        for (int k = 0; k < fullClasses.length; ++k) {
+            final int[] ranges = CharacterClasses.ranges(program.classes[k]);
+            fullClasses[k] = ranges.length == 2 && ranges[0] == Character.MIN_VALUE && ranges[1] == Character.MAX_VALUE;
+        }
+        boolean any = false;
+        for (int pc = 0; pc < forever.length; ++pc) {
+            if (program.opcodes[pc] == NfaProgram.CHAR && fullClasses[program.classIndex[pc]]) {
+                for (final int nextPc : program.closureAfter(pc)) {
+                    if (program.isMatch(nextPc)) {
+                        forever[pc] = true;
+                        any = true;
+                        break;
+                    }
+                }
+            }
+        }
+        boolean dropped = any;
+        while (dropped) {
+            dropped = false;
+            for (int pc = 0; pc < forever.length; ++pc) {
+                if (forever[pc] && !anyOf(forever, program.closureAfter(pc))) {
+                    forever[pc] = false;
+                    dropped = true;
+                }
+            }
+        }
+        for (final boolean isForever : forever) {
+            if (isForever) {
+                return forever;
+            }
+        }
+        return null;
+    }
+
+    private static boolean anyOf(final boolean[] set, final int[] pcs) {
+        for (final int pc : pcs) {
+            if (set[pc]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
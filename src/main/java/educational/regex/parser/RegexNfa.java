@@ -1,94 +1,335 @@
 package educational.regex.parser;
 
 import educational.regex.ParseException;
-import educational.regex.UnexpectedEscapeChar;
-import educational.regex.UnmatchedClosingBrace;
 import educational.regex.characterclasses.CharacterClass;
 import educational.regex.characterclasses.CharacterClasses;
-import educational.regex.characterclasses.InvalidCharacterClassSpecification;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Stack;
 
 /**
  * Created by prasanna.venkatasubramanian on 9/3/15.
  */
 class RegexNfa {
+    /**
+     * Counted repetitions of anything other than a single char or class are unrolled, which can multiply
+     * the size of a pattern, so there's a limit. This is the default of CompileOptions.getMaxStates().
+     */
+    static final int MAX_STATES = 1 << 20;
+
     private final Stack<Fragment> fragmentStack = new Stack<Fragment>();
 
+    private final int patternIndex;
     private int stateId = 0;
+    // The states the CountStates so far take up once searches spell them out, beyond the one they are.
+    private int countedStates = 0;
+
+    private State start;
+    private Literals literals;
+
+    /**
+     * Builds the NFA for a syntax tree from RegexParser. The tree is walked in post-order with an explicit
+     * stack, so that deeply nested patterns can't run us out of stack, and the fragments of the children of a
+     * node are waiting on the fragment stack by the time the node is lowered.
+     *
+     * A capture group is wrapped in a SaveState at either end, and so is the whole pattern, as group 0.
+     *
+     * A counted repetition of a single char or class becomes a single CountState, if counters is set. Any
+     * other one is unrolled on the way down, so x{2,4} is lowered as if it were xx(x(x)?)?, and the unrolled
+     * tree shares the subtree of x, which is lowered afresh every time it is walked.
+     *
+     * @param patternIndex tags the TerminalState, so that it can tell which of several combined patterns matched.
+     * @param counters whether the engine the NFA is for can run CountStates.
+     * @throws ParseException if the NFA would have more than MAX_STATES states.
+     */
+    /* package */ static RegexNfa fromAst(final Node root, final int patternIndex, final boolean counters)
+            throws ParseException {
+        return fromAst(root, patternIndex, counters, CompileOptions.DEFAULT);
+    }
+
+    /**
+     * Like fromAst(root, patternIndex, counters), with the limits of the options on the number of states and
+     * the size of classes instead of the default ones.
+     *
+     * @throws ParseException if the NFA would have more states than options.getMaxStates(), counting the
+     *                        CountStates spelled out, or a class has more than options.getMaxClassRanges() ranges.
+     */
+    /* package */ static RegexNfa fromAst(final Node root,
+                                         final int patternIndex,
+                                         final boolean counters,
+                                         final CompileOptions options) throws ParseException {
+        final int maxStates = options.getMaxStates();
+        final RegexNfa nfa = new RegexNfa(patternIndex);
+        final Stack<Visit> visits = new Stack<Visit>();
+        visits.push(new Visit(unrolled(root, counters)));
+        while (!visits.empty()) {
+            final Visit visit = visits.peek();
+            final List<Node> children = visit.node.getChildren();
+            if (visit.child < children.size()) {
+                visits.push(new Visit(unrolled(children.get(visit.child++), counters)));
+            } else {
+                visits.pop();
+                if (visit.node instanceof ClassNode) {
+                    checkClass((ClassNode) visit.node, options.getMaxClassRanges());
+                }
+                nfa.lower(visit.node);
+                if ((long) nfa.stateId + nfa.countedStates > maxStates) {
+                    throw new ParseException("Pattern needs more than " + maxStates + " states", visit.node.start);
+                }
+            }
+        }
+
+        // The whole match is group 0.
+        final Fragment fragment = nfa.handleGroup(0);
+        fragment.setAllLeavesNext(new TerminalState(++nfa.stateId, patternIndex));
+        nfa.start = fragment.getStart();
+        nfa.literals = fragment.literals;
+        return nfa;
+    }
+
+    private RegexNfa(final int patternIndex) {
+        this.patternIndex = patternIndex;
+    }
 
-    /* package */ static State postfixToNfa(final char[] postfix) throws ParseException {
-        return new RegexNfa().createNfa(postfix).getStart();
+    public State getStart() {
+        return start;
     }
 
-    private Fragment createNfa(final char[] postfix) throws ParseException {
-        int numCharacterClassOpens = 0;
-        for (int i = 0; i < postfix.length; ++i) {
-            Fragment newFragment = null;
-            final char c = postfix[i];
-            switch (c) {
-                case '?':
-                    newFragment = handleZeroOrOne();
-                    break;
-                case '*':
-                    newFragment = handleZeroOrMore();
-                    break;
-                case '+':
-                    newFragment = handleOneOrMore();
-                    break;
-                case '|':
-                    newFragment = handleAlternation();
-                    break;
-                case '#':
-                    newFragment = numCharacterClassOpens > 0 ? handleUnion() : handleConcatenation();
-                    break;
-                case '\\':
-                    if (i + 1 == postfix.length) {
-                        throw new UnexpectedEscapeChar();
-                    }
-                    newFragment = handleCharacterClass(CharacterClasses.exactMatchOf(postfix[++i]));
-                    break;
-                case '[':
-                    ++numCharacterClassOpens;
-                    break;
-                case ']':
-                    --numCharacterClassOpens;
-                    if (numCharacterClassOpens < 0) {
-                        throw new UnmatchedClosingBrace();
-                    }
-                    break;
-                case '^':
-                    newFragment = numCharacterClassOpens > 0 ? handleNegation() :
-                            handleCharacterClass(CharacterClasses.exactMatchOf(c));
-                    break;
-                case '-':
-                    newFragment = numCharacterClassOpens > 0 ? handleRange() :
-                            handleCharacterClass(CharacterClasses.exactMatchOf(c));
-                    break;
-                case '.':
-                    newFragment = handleCharacterClass(CharacterClasses.anyCharMatcher());
-                    break;
-                default:
-                    newFragment = handleCharacterClass(CharacterClasses.exactMatchOf(c));
-                    break;
+    /**
+     * The literal text every match has to contain, see {@link Literals}.
+     */
+    public Literals getLiterals() {
+        return literals;
+    }
+
+    /**
+     * Flattens the State graph into an NfaProgram. States are numbered in the order they are reached
+     * from the start, so the start state is always at pc 0. Character classes are compiled into lookup
+     * tables, and the states that accept the same set of chars share a class.
+     */
+    /* package */ static NfaProgram toProgram(final State start) {
+        final List<State> states = new ArrayList<State>();
+        final Map<State, Integer> pcs = new HashMap<State, Integer>();
+        states.add(start);
+        pcs.put(start, 0);
+        for (int i = 0; i < states.size(); ++i) {
+            final State state = states.get(i);
+            if (state instanceof ChoiceState) {
+                enqueue(((ChoiceState) state).alternative, states, pcs);
             }
+            enqueue(state.next, states, pcs);
+        }
 
-            if (newFragment != null) {
-                fragmentStack.push(newFragment);
+        final int size = states.size();
+        final int[] opcodes = new int[size];
+        final int[] next = new int[size];
+        final int[] alternative = new int[size];
+        final int[] classIndex = new int[size];
+        final int[] matchIds = new int[size];
+        final int[] counterMin = new int[size];
+        final int[] counterMax = new int[size];
+        final int[] slots = new int[size];
+        final List<CharacterClass> classes = new ArrayList<CharacterClass>();
+        final Map<List<Integer>, Integer> classIndices = new HashMap<List<Integer>, Integer>();
+        for (int pc = 0; pc < size; ++pc) {
+            final State state = states.get(pc);
+            next[pc] = state.next != null ? pcs.get(state.next) : -1;
+            alternative[pc] = -1;
+            classIndex[pc] = -1;
+            matchIds[pc] = -1;
+            if (state.isTerminal) {
+                opcodes[pc] = NfaProgram.MATCH;
+                matchIds[pc] = ((TerminalState) state).patternIndex;
+            } else if (state instanceof ChoiceState) {
+                opcodes[pc] = NfaProgram.SPLIT;
+                alternative[pc] = pcs.get(((ChoiceState) state).alternative);
+            } else if (state instanceof SaveState) {
+                opcodes[pc] = NfaProgram.SAVE;
+                slots[pc] = ((SaveState) state).slot;
+            } else if (state instanceof CharState) {
+                opcodes[pc] = NfaProgram.CHAR;
+                if (state instanceof CountState) {
+                    opcodes[pc] = NfaProgram.COUNT;
+                    counterMin[pc] = ((CountState) state).min;
+                    counterMax[pc] = ((CountState) state).max;
+                }
+                // Compiling a class builds its lookup tables, so only do it once per distinct set of chars.
+                final CharacterClass acceptableSet = ((CharState) state).getAcceptableSet();
+                final List<Integer> ranges = toList(CharacterClasses.ranges(acceptableSet));
+                Integer index = classIndices.get(ranges);
+                if (index == null) {
+                    index = classes.size();
+                    classIndices.put(ranges, index);
+                    classes.add(CharacterClasses.compile(acceptableSet));
+                }
+                classIndex[pc] = index;
+            } else {
+                throw new IllegalStateException("Don't know how to flatten state: " + state);
+            }
+        }
+
+        return new NfaProgram(opcodes, next, alternative, classIndex, matchIds, counterMin, counterMax, slots,
+                classes.toArray(new CharacterClass[classes.size()]), 0);
+    }
+
+    private static List<Integer> toList(final int[] ranges) {
+        final List<Integer> list = new ArrayList<Integer>(ranges.length);
+        for (final int bound : ranges) {
+            list.add(bound);
+        }
+        return list;
+    }
+
+    private static void enqueue(final State state, final List<State> states, final Map<State, Integer> pcs) {
+        if (state != null && !pcs.containsKey(state)) {
+            pcs.put(state, states.size());
+            states.add(state);
+        }
+    }
+
+    private static void checkClass(final ClassNode node, final int maxRanges) throws ParseException {
+        if (maxRanges < Integer.MAX_VALUE && CharacterClasses.ranges(node.characterClass).length / 2 > maxRanges) {
+            throw new ParseException("Character class has more than " + maxRanges + " ranges", node.start);
+        }
+    }
+
+    /**
+     * Replaces the fragments of the node's children on top of the stack with the node's own.
+     */
+    private void lower(final Node node) {
+        if (node instanceof LiteralNode) {
+            fragmentStack.push(handleCharacterClass(CharacterClasses.exactMatchOf(((LiteralNode) node).c)));
+        } else if (node instanceof ClassNode) {
+            fragmentStack.push(handleCharacterClass(((ClassNode) node).characterClass));
+        } else if (node instanceof ConcatNode) {
+            fragmentStack.push(handleConcatenation(((ConcatNode) node).items.size()));
+        } else if (node instanceof AlternationNode) {
+            fragmentStack.push(handleAlternation(((AlternationNode) node).branches.size()));
+        } else if (node instanceof RepeatNode) {
+            final RepeatNode repeat = (RepeatNode) node;
+            if (repeat.min == 0 && repeat.max == 1) {
+                fragmentStack.push(handleZeroOrOne());
+            } else if (repeat.min == 0 && repeat.max == RepeatNode.UNBOUNDED) {
+                fragmentStack.push(handleZeroOrMore());
+            } else if (repeat.min == 1 && repeat.max == RepeatNode.UNBOUNDED) {
+                fragmentStack.push(handleOneOrMore());
+            } else if (repeat.min != 1 || repeat.max != 1) {
+                fragmentStack.push(handleCount(classOf(repeat.child), repeat.min, repeat.max));
+            }
+            // x{1} is just x, whose fragment is already on the stack.
+        } else if (node instanceof GroupNode) {
+            // A non-capturing group is just its child, whose fragment is already on the stack.
+            if (((GroupNode) node).index != GroupNode.NON_CAPTURING) {
+                fragmentStack.push(handleGroup(((GroupNode) node).index));
+            }
+        } else {
+            throw new IllegalStateException("Don't know how to lower: " + node);
+        }
+    }
+
+    /**
+     * The repetition itself if it can be lowered as is, and otherwise what it unrolls to: x{m,n} is m x's
+     * followed by n - m nested optional ones, and x{m,} is m - 1 x's followed by x+.
+     */
+    private static Node unrolled(final Node node, final boolean counters) {
+        if (!(node instanceof RepeatNode)) {
+            return node;
+        }
+        final RepeatNode repeat = (RepeatNode) node;
+        final int min = repeat.min;
+        final int max = repeat.max;
+        if ((min == 0 || min == 1) && (max == 1 || max == RepeatNode.UNBOUNDED) ||
+                counters && classOf(repeat.child) != null) {
+            return node;
+        }
+
+        final List<Node> items = new ArrayList<Node>();
+        for (int i = 0; i < (max == RepeatNode.UNBOUNDED ? min - 1 : min); ++i) {
+            items.add(repeat.child);
+        }
+        if (max == RepeatNode.UNBOUNDED) {
+            items.add(new RepeatNode(repeat.child, 1, RepeatNode.UNBOUNDED, repeat.start, repeat.end));
+        } else if (max > min) {
+            Node optional = new RepeatNode(repeat.child, 0, 1, repeat.start, repeat.end);
+            for (int i = min + 1; i < max; ++i) {
+                final List<Node> pair = new ArrayList<Node>(2);
+                pair.add(repeat.child);
+                pair.add(optional);
+                optional = new RepeatNode(new ConcatNode(pair, repeat.start, repeat.end), 0, 1, repeat.start, repeat.end);
             }
+            items.add(optional);
         }
+        return items.size() == 1 ? items.get(0) : new ConcatNode(items, repeat.start, repeat.end);
+    }
+
+    /**
+     * The class of a node that matches a single char, seeing through non-capturing groups, or null for any
+     * other node. Capture groups record where they are, which a CountState can't do for each repetition.
+     */
+    private static CharacterClass classOf(final Node node) {
+        Node inner = node;
+        while (inner instanceof GroupNode && ((GroupNode) inner).index == GroupNode.NON_CAPTURING) {
+            inner = ((GroupNode) inner).child;
+        }
+        if (inner instanceof LiteralNode) {
+            return CharacterClasses.exactMatchOf(((LiteralNode) inner).c);
+        }
+        return inner instanceof ClassNode ? ((ClassNode) inner).characterClass : null;
+    }
 
-        if (fragmentStack.empty()) {
-            throw new ParseException();
+    /**
+     * Pop fragment [RE] from stack, which is a single CharState accepting characterClass.
+     *
+     * Create new CountState S for characterClass with the given bounds, in place of [RE].
+     * x{0,n} is (x{1,n})? and x{m,} is x{m}x*, since S only has the one way out.
+     */
+    private Fragment handleCount(final CharacterClass characterClass, final int min, final int max) {
+        fragmentStack.pop();
+        if (min == 0) {
+            fragmentStack.push(countFragment(characterClass, 1, max));
+            return handleZeroOrOne();
+        }
+        if (max == RepeatNode.UNBOUNDED) {
+            fragmentStack.push(countFragment(characterClass, min, min));
+            fragmentStack.push(handleCharacterClass(characterClass));
+            fragmentStack.push(handleZeroOrMore());
+            return handleConcatenation(2);
         }
+        return countFragment(characterClass, min, max);
+    }
+
+    private Fragment countFragment(final CharacterClass characterClass, final int min, final int max) {
+        final State s = new CountState(++stateId, characterClass, min, max);
+        // See NfaProgram.withoutCounters() for how many states searches spell it out to.
+        countedStates += 2 * max - min - 1;
+        final Fragment newFragment = new Fragment(s, Literals.ofClass(characterClass).repeat(min, max));
+        newFragment.addLeaf(s);
 
-        final Fragment fragment = fragmentStack.pop();
-        final State terminal = new TerminalState(++stateId);
-        fragment.setAllLeavesNext(terminal);
+        return newFragment;
+    }
+
+    /**
+     * Pop fragment [RE] from stack.
+     *
+     * Create new SaveStates S1 and S2 for the slots of group index.
+     * Set transition from S1 to [RE]'s start, and all dangling transitions of [RE] to S2.
+     *
+     * Create new fragment with start state as S1, and S2 as its only leaf.
+     */
+    private Fragment handleGroup(final int index) {
+        final Fragment top = fragmentStack.pop();
+        final State open = new SaveState(++stateId, 2 * index);
+        final State close = new SaveState(++stateId, 2 * index + 1);
+        open.next = top.getStart();
+        top.setAllLeavesNext(close);
 
-        return fragment;
+        final Fragment newFragment = new Fragment(open, top.literals);
+        newFragment.addLeaf(close);
+
+        return newFragment;
     }
 
     /**
@@ -98,7 +339,7 @@ class RegexNfa {
     private Fragment handleCharacterClass(final CharacterClass characterClass) {
         final State s = new CharState(++stateId, characterClass);
 
-        final Fragment newFragment = new Fragment(s);
+        final Fragment newFragment = new Fragment(s, Literals.ofClass(characterClass));
         newFragment.addLeaf(s);
 
         return newFragment;
@@ -118,7 +359,7 @@ class RegexNfa {
         final Fragment top = fragmentStack.pop();
         final State s = new ChoiceState(++stateId, top.start);
 
-        final Fragment newFragment = new Fragment(s);
+        final Fragment newFragment = new Fragment(s, top.literals.zeroOrOne());
         newFragment.addLeaf(s);
         newFragment.addLeaves(top.leaves);
 
@@ -141,7 +382,7 @@ class RegexNfa {
         final State s = new ChoiceState(++stateId, top.start);
         top.setAllLeavesNext(s);
 
-        final Fragment newFragment = new Fragment(s);
+        final Fragment newFragment = new Fragment(s, top.literals.zeroOrMore());
         newFragment.addLeaf(s);
 
         return newFragment;
@@ -163,109 +404,85 @@ class RegexNfa {
         final State s = new ChoiceState(++stateId, top.start);
         top.setAllLeavesNext(s);
 
-        final Fragment newFragment = new Fragment(top.start);
+        final Fragment newFragment = new Fragment(top.start, top.literals.oneOrMore());
         newFragment.addLeaf(s);
 
         return newFragment;
     }
 
     /**
-     * Pop two [RE]'s from stack.
+     * Pop n [RE]'s from stack.
      *
-     * Create a new State S.
-     * Set transition on lambda1 from S to [RE1]'s start.
-     * Set transition on lambda2 from S to [RE2]'s start.
+     * Chain n - 1 new States S1 ... Sn-1, with lambda1 from Si to [REi]'s start and lambda2 from Si to Si+1,
+     * or to [REn]'s start from the last one, so that the [RE]'s are preferred in order.
      *
-     * Create a new fragment with this new state S.
-     * Mark all unassigned transitions as leaves of the new fragment.
+     * Create a new fragment with S1.
+     * Mark all unassigned transitions as leaves of the new fragment, collected into a single list so that
+     * this is linear in n.
      */
-    private Fragment handleAlternation() {
-        final Fragment right = fragmentStack.pop();
-        final Fragment left = fragmentStack.pop();
-        final State s = new ChoiceState(++stateId, left.getStart());
-        s.next = right.getStart();
+    private Fragment handleAlternation(final int n) {
+        final Fragment[] branches = new Fragment[n];
+        for (int i = n - 1; i >= 0; --i) {
+            branches[i] = fragmentStack.pop();
+        }
 
-        final Fragment newFragment = new Fragment(s);
-        newFragment.addLeaves(left.leaves);
-        newFragment.addLeaves(right.leaves);
+        State s = branches[n - 1].getStart();
+        for (int i = n - 2; i >= 0; --i) {
+            final State choice = new ChoiceState(++stateId, branches[i].getStart());
+            choice.next = s;
+            s = choice;
+        }
 
-        return newFragment;
+        Literals literals = branches[0].literals;
+        final List<State> leaves = new ArrayList<State>();
+        for (int i = 0; i < n; ++i) {
+            if (i > 0) {
+                literals = literals.alternate(branches[i].literals);
+            }
+            leaves.addAll(branches[i].leaves);
+        }
+        return new Fragment(s, leaves, literals);
     }
 
     /**
-     * Pop two [RE]'s from stack.
-     *
-     * Set transition of all leaves of [RE1] to [RE2]'s start state.
-     *
-     * Create a new fragment with [RE1]'s start state.
-     * Mark all unassigned transitions as leaves of the new fragment.
+     * Pop n [RE]'s from stack and concatenate them left to right, the way n - 1 concatenations of two would.
      */
-    private Fragment handleConcatenation() {
-        final Fragment right = fragmentStack.pop();
-        final Fragment left = fragmentStack.pop();
-        left.setAllLeavesNext(right.start);
-
-        final Fragment newFragment = new Fragment(left.start);
-        newFragment.addLeaves(right.leaves);
-
-        return newFragment;
-    }
-
-    private Fragment handleUnion() throws ParseException {
-        final Fragment right = fragmentStack.pop();
-        final Fragment left = fragmentStack.pop();
-
-        if (!(left.getStart() instanceof CharState && right.getStart() instanceof CharState)) {
-            throw new InvalidCharacterClassSpecification();
+    private Fragment handleConcatenation(final int n) {
+        final Fragment[] items = new Fragment[n];
+        for (int i = n - 1; i >= 0; --i) {
+            items[i] = fragmentStack.pop();
         }
-        final CharacterClass leftCharClass = ((CharState) left.getStart()).getAcceptableSet();
-        final CharacterClass rightCharClass = ((CharState) right.getStart()).getAcceptableSet();
 
-        final State s = new CharState(++stateId, CharacterClasses.union(leftCharClass, rightCharClass));
-        final Fragment newFragment = new Fragment(s);
-        newFragment.addLeaf(s);
-
-        return newFragment;
-    }
-
-    private Fragment handleNegation() throws ParseException {
-        final Fragment top = fragmentStack.pop();
-        if (!(top.getStart() instanceof CharState)) {
-            throw new InvalidCharacterClassSpecification();
+        Literals literals = items[0].literals;
+        for (int i = 1; i < n; ++i) {
+            items[i - 1].setAllLeavesNext(items[i].start);
+            literals = literals.concatenate(items[i].literals);
         }
-
-        final CharacterClass characterClass = ((CharState) top.getStart()).getAcceptableSet();
-
-        final State s = new CharState(++stateId, CharacterClasses.negationOf(characterClass));
-        final Fragment newFragment = new Fragment(s);
-        newFragment.addLeaf(s);
-
-        return newFragment;
+        return new Fragment(items[0].start, items[n - 1].leaves, literals);
     }
 
-    private Fragment handleRange() throws ParseException {
-        final Fragment right = fragmentStack.pop();
-        final Fragment left = fragmentStack.pop();
+    private static final class Visit {
+        private final Node node;
+        private int child = 0;
 
-        if (!(left.getStart() instanceof CharState && right.getStart() instanceof CharState)) {
-            throw new InvalidCharacterClassSpecification();
+        Visit(final Node node) {
+            this.node = node;
         }
-        final CharacterClass leftCharClass = ((CharState) left.getStart()).getAcceptableSet();
-        final CharacterClass rightCharClass = ((CharState) right.getStart()).getAcceptableSet();
-
-        final State s = new CharState(++stateId, CharacterClasses.anyInRange(leftCharClass, rightCharClass));
-        final Fragment newFragment = new Fragment(s);
-        newFragment.addLeaf(s);
-
-        return newFragment;
     }
 
     private static class Fragment {
         private State start;
-        private Set<State> leaves = new HashSet<State>();
+        private final List<State> leaves;
+        private final Literals literals;
+
+        public Fragment(final State start, final Literals literals) {
+            this(start, new ArrayList<State>(2), literals);
+        }
 
-        public Fragment(final State start) {
+        public Fragment(final State start, final List<State> leaves, final Literals literals) {
             this.start = start;
+            this.leaves = leaves;
+            this.literals = literals;
         }
 
         public State getStart() {
@@ -276,7 +493,7 @@ class RegexNfa {
             leaves.add(state);
         }
 
-        public void addLeaves(final Set<State> leaves) {
+        public void addLeaves(final List<State> leaves) {
             this.leaves.addAll(leaves);
         }
 
@@ -0,0 +1,266 @@
+package educational.regex.parser;
+
+import educational.regex.ParseException;
+import educational.regex.UnexpectedEscapeChar;
+import educational.regex.UnmatchedClosingBrace;
+import educational.regex.UnmatchedOpeningBrace;
+import educational.regex.characterclasses.CharacterClass;
+import educational.regex.characterclasses.CharacterClasses;
+import educational.regex.characterclasses.InvalidCharacterClassSpecification;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses a pattern into a syntax tree of Nodes in a single pass over it, following the grammar
+ *
+ * <pre>
+ * alternation := concat ('|' concat)*
+ * concat      := repeat+
+ * repeat      := atom ('*' | '+' | '?' | '{' count (',' count?)? '}')*
+ * atom        := char | '\' char | '.' | class | '(' ('?:')? alternation ')'
+ * class       := '[' '^'? (class | '.' | item ('-' item)?)+ ']'
+ * </pre>
+ *
+ * Outside a class, everything but the meta-characters ( ) [ ] | * + ? . \ stands for itself, and so does
+ * a { that doesn't start a count like {2}, {2,} or {2,8}, which go up to MAX_COUNT. Inside a class, a ^
+ * right after the [ negates the whole class, a - between two items makes a range, and a - at either end
+ * stands for itself. A \ escapes any char other than a letter or a digit. Groups capture, and are numbered
+ * from 1 in the order their ( appear, unless they start with ?:.
+ *
+ * Groups are where the grammar nests, and patterns can nest them thousands deep, so instead of recursing
+ * for each one, the parser keeps the alternation and concat it is in the middle of on an explicit stack.
+ */
+final class RegexParser {
+    static final int MAX_COUNT = 1000;
+
+    private final String pattern;
+    private int position = 0;
+    private int groupCount = 0;
+
+    private RegexParser(final String pattern) {
+        this.pattern = pattern;
+    }
+
+    public static Node parse(final String pattern) throws ParseException {
+        return new RegexParser(pattern).parse();
+    }
+
+    private Node parse() throws ParseException {
+        final List<Group> open = new ArrayList<Group>();
+        Group group = new Group(0, 0, GroupNode.NON_CAPTURING);
+        while (position < pattern.length()) {
+            final int at = position;
+            final char c = pattern.charAt(position++);
+            switch (c) {
+                case '(':
+                    open.add(group);
+                    if (pattern.startsWith("?:", position)) {
+                        position += 2;
+                        group = new Group(at, position, GroupNode.NON_CAPTURING);
+                    } else {
+                        group = new Group(at, position, ++groupCount);
+                    }
+                    break;
+                case ')':
+                    if (open.isEmpty()) {
+                        throw new UnmatchedClosingBrace(at);
+                    }
+                    final Node body = group.finish(at);
+                    final GroupNode groupNode = new GroupNode(body, group.index, group.start, position);
+                    group = open.remove(open.size() - 1);
+                    group.items.add(groupNode);
+                    break;
+                case '|':
+                    group.endBranch(at);
+                    break;
+                case '*':
+                    group.repeatLast(0, RepeatNode.UNBOUNDED, at, position);
+                    break;
+                case '+':
+                    group.repeatLast(1, RepeatNode.UNBOUNDED, at, position);
+                    break;
+                case '?':
+                    group.repeatLast(0, 1, at, position);
+                    break;
+                case '{':
+                    if (!parseCounts(group, at)) {
+                        group.items.add(new LiteralNode(c, at, position));
+                    }
+                    break;
+                case '[':
+                    group.items.add(parseClass(at));
+                    break;
+                case ']':
+                    throw new UnmatchedClosingBrace(at);
+                case '.':
+                    group.items.add(new ClassNode(CharacterClasses.anyCharMatcher(), at, position));
+                    break;
+                case '\\':
+                    group.items.add(new LiteralNode(escaped(at), at, position));
+                    break;
+                default:
+                    group.items.add(new LiteralNode(c, at, position));
+                    break;
+            }
+        }
+        if (!open.isEmpty()) {
+            throw new UnmatchedOpeningBrace(group.start);
+        }
+        return group.finish(position);
+    }
+
+    /**
+     * Parses the rest of a counted repetition whose { is at pattern[at], if that's what it is.
+     *
+     * @return false, without having moved, if it isn't.
+     */
+    private boolean parseCounts(final Group group, final int at) throws ParseException {
+        int end = position;
+        while (end < pattern.length() && isDigit(pattern.charAt(end))) {
+            ++end;
+        }
+        if (end == position || end == pattern.length()) {
+            return false;
+        }
+        final int min = count(position, end, at);
+        int max = min;
+        if (pattern.charAt(end) == ',') {
+            final int maxStart = ++end;
+            while (end < pattern.length() && isDigit(pattern.charAt(end))) {
+                ++end;
+            }
+            max = end > maxStart ? count(maxStart, end, at) : RepeatNode.UNBOUNDED;
+        }
+        if (end == pattern.length() || pattern.charAt(end) != '}') {
+            return false;
+        }
+
+        if (max != RepeatNode.UNBOUNDED && max < min) {
+            throw new ParseException("Repetition of at most " + max + " and at least " + min + " times", at);
+        }
+        if (max == 0) {
+            throw new ParseException("Repetition of zero times", at);
+        }
+        position = end + 1;
+        group.repeatLast(min, max, at, position);
+        return true;
+    }
+
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private int count(final int from, final int to, final int at) throws ParseException {
+        if (to - from > 4 || Integer.parseInt(pattern.substring(from, to)) > MAX_COUNT) {
+            throw new ParseException("Repetition of more than " + MAX_COUNT + " times", at);
+        }
+        return Integer.parseInt(pattern.substring(from, to));
+    }
+
+    /**
+     * Parses the rest of a class whose [ is at pattern[at].
+     */
+    private ClassNode parseClass(final int at) throws ParseException {
+        boolean negated = false;
+        if (position < pattern.length() && pattern.charAt(position) == '^') {
+            negated = true;
+            ++position;
+        }
+
+        CharacterClass union = null;
+        while (true) {
+            if (position == pattern.length()) {
+                throw new UnmatchedOpeningBrace(at);
+            }
+            final int itemStart = position;
+            final char c = pattern.charAt(position++);
+            if (c == ']') {
+                break;
+            }
+
+            final CharacterClass item;
+            if (c == '[') {
+                item = parseClass(itemStart).characterClass;
+            } else if (c == '.') {
+                item = CharacterClasses.anyCharMatcher();
+            } else {
+                final char from = c == '\\' ? escaped(itemStart) : c;
+                if (position + 1 < pattern.length() && pattern.charAt(position) == '-' &&
+                        pattern.charAt(position + 1) != ']') {
+                    final int toStart = ++position;
+                    final char next = pattern.charAt(position++);
+                    final char to = next == '\\' ? escaped(toStart) : next;
+                    if (to < from) {
+                        throw new InvalidCharacterClassSpecification("Range out of order", itemStart);
+                    }
+                    item = CharacterClasses.anyInRange(
+                            CharacterClasses.exactMatchOf(from), CharacterClasses.exactMatchOf(to));
+                } else {
+                    item = CharacterClasses.exactMatchOf(from);
+                }
+            }
+            union = union == null ? item : CharacterClasses.union(union, item);
+        }
+
+        if (union == null) {
+            throw new InvalidCharacterClassSpecification("Empty character class", at);
+        }
+        return new ClassNode(negated ? CharacterClasses.negationOf(union) : union, at, position);
+    }
+
+    /**
+     * The char after the \ at pattern[at].
+     */
+    private char escaped(final int at) throws UnexpectedEscapeChar {
+        if (position == pattern.length() || Character.isLetterOrDigit(pattern.charAt(position))) {
+            throw new UnexpectedEscapeChar(at);
+        }
+        return pattern.charAt(position++);
+    }
+
+    /**
+     * The pattern as a whole, or a group we are in the middle of: the branches seen so far, and the items
+     * of the branch being parsed.
+     */
+    private static final class Group {
+        private final int start;
+        private final int contentStart;
+        private final int index;
+        private final List<Node> branches = new ArrayList<Node>(1);
+        private List<Node> items = new ArrayList<Node>();
+        private int branchStart;
+
+        Group(final int start, final int contentStart, final int index) {
+            this.start = start;
+            this.contentStart = contentStart;
+            this.index = index;
+            this.branchStart = contentStart;
+        }
+
+        void repeatLast(final int min, final int max, final int at, final int end) throws ParseException {
+            if (items.isEmpty()) {
+                throw new ParseException("Nothing to repeat", at);
+            }
+            final Node last = items.remove(items.size() - 1);
+            items.add(new RepeatNode(last, min, max, last.start, end));
+        }
+
+        /**
+         * Ends the branch being parsed at pattern[end].
+         */
+        void endBranch(final int end) throws ParseException {
+            if (items.isEmpty()) {
+                throw new ParseException("Nothing to match", end);
+            }
+            branches.add(items.size() == 1 ? items.get(0) : new ConcatNode(items, branchStart, end));
+            items = new ArrayList<Node>();
+            branchStart = end + 1;
+        }
+
+        Node finish(final int end) throws ParseException {
+            endBranch(end);
+            return branches.size() == 1 ? branches.get(0) : new AlternationNode(branches, contentStart, end);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package educational.regex.parser;
+
+import educational.regex.EmptyRegexException;
+import educational.regex.ParseException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Matches an input against many patterns at once. The patterns are compiled into a single NFA whose
+ * start state branches out to the start of each of them, and where each TerminalState is tagged with the
+ * index of its pattern, so a single pass over the input tells which of the patterns match the whole of it.
+ *
+ * By default this runs on the LAZY_DFA engine, where the DFA states remember which patterns they accept
+ * for, so the cost per input character doesn't grow with the number of patterns as long as the DFA stays
+ * small enough to be cached. With Engine.DFA (or DFA_BYTECODE, which is the same here) the whole DFA is
+ * built up front, if it fits in the state limit, and otherwise the LAZY_DFA engine is used. With
+ * Engine.NFA it runs on the Pike VM instead.
+ *
+ * Like Matcher, a RegexSet is immutable and can be shared across threads.
+ */
+public final class RegexSet {
+    private final List<String> patterns;
+    private final PikeVm pikeVm;
+    private final LazyDfa lazyDfa;
+    private final Dfa dfa;
+
+    private RegexSet(final List<String> patterns, final NfaProgram program, final CompileOptions options) {
+        this.patterns = patterns;
+        this.pikeVm = new PikeVm(program);
+        this.dfa = options.getEngine() == Engine.DFA || options.getEngine() == Engine.DFA_BYTECODE ?
+                Dfa.compile(program, options.getDfaStateLimit()) : null;
+        this.lazyDfa = options.getEngine() != Engine.NFA && dfa == null ?
+                new LazyDfa(program, pikeVm, options.getDfaCacheSize()) : null;
+    }
+
+    public static RegexSet compile(final String... patterns) throws ParseException {
+        return compile(Arrays.asList(patterns), CompileOptions.DEFAULT.withEngine(Engine.LAZY_DFA));
+    }
+
+    public static RegexSet compile(final List<String> patterns, final CompileOptions options) throws ParseException {
+        if (patterns.isEmpty()) {
+            throw new EmptyRegexException();
+        }
+
+        final List<State> starts = new ArrayList<State>(patterns.size());
+        for (int i = 0; i < patterns.size(); ++i) {
+            final String pattern = patterns.get(i);
+            if (pattern == null || pattern.trim().isEmpty()) {
+                throw new EmptyRegexException();
+            }
+            starts.add(RegexNfa.fromAst(AstOptimizer.optimize(RegexParser.parse(pattern)), i, options.getEngine() == Engine.NFA,
+                    options).getStart());
+        }
+
+        // start -> (pattern 0 | (pattern 1 | (... | pattern n-1)))
+        State start = starts.get(starts.size() - 1);
+        for (int i = starts.size() - 2; i >= 0; --i) {
+            final State choice = new ChoiceState(-i - 1, starts.get(i));
+            choice.next = start;
+            start = choice;
+        }
+
+        return new RegexSet(Collections.unmodifiableList(new ArrayList<String>(patterns)),
+                RegexNfa.toProgram(start), options);
+    }
+
+    public int size() {
+        return patterns.size();
+    }
+
+    public String getPattern(final int index) {
+        return patterns.get(index);
+    }
+
+    /**
+     * @return the indices of the patterns that match the whole of the input.
+     */
+    public BitSet matches(final CharSequence input) {
+        final BitSet matchingPatterns = new BitSet(patterns.size());
+        if (dfa != null) {
+            dfa.matches(input, matchingPatterns);
+        } else if (lazyDfa != null) {
+            lazyDfa.matches(input, matchingPatterns);
+        } else {
+            pikeVm.matches(input, pikeVm.newScratch(), matchingPatterns);
+        }
+        return matchingPatterns;
+    }
+
+    /**
+     * Whether any of the patterns matches the whole of the input.
+     */
+    public boolean matchesAny(final CharSequence input) {
+        if (dfa != null) {
+            return dfa.matches(input);
+        }
+        if (lazyDfa != null) {
+            return lazyDfa.matches(input);
+        }
+        return pikeVm.matches(input, pikeVm.newScratch());
+    }
+}
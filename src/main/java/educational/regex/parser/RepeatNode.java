@@ -0,0 +1,35 @@
+package educational.regex.parser;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A node repeated at least min and at most max times, greedily. ? is {0,1}, * is {0,} and + is {1,}.
+ */
+final class RepeatNode extends Node {
+    static final int UNBOUNDED = -1;
+
+    final Node child;
+    final int min;
+    final int max;
+
+    /**
+     * @param max the most repetitions allowed, or UNBOUNDED.
+     */
+    RepeatNode(final Node child, final int min, final int max, final int start, final int end) {
+        super(start, end);
+        this.child = child;
+        this.min = min;
+        this.max = max;
+    }
+
+    @Override
+    List<Node> getChildren() {
+        return Collections.singletonList(child);
+    }
+
+    @Override
+    String label() {
+        return "repeat{" + min + "," + (max == UNBOUNDED ? "" : String.valueOf(max)) + "}";
+    }
+}
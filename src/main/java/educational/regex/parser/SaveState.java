@@ -0,0 +1,23 @@
+package educational.regex.parser;
+
+/**
+ * An unlabeled edge that records the position it's passed at in a capture slot, see NfaProgram.SAVE.
+ */
+class SaveState extends State {
+    final int slot;
+
+    SaveState(final int id, final int slot) {
+        super(id);
+        this.slot = slot;
+    }
+
+    @Override
+    public boolean hasUnlabeledEdges() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return id + ":save" + slot;
+    }
+}
@@ -0,0 +1,236 @@
+package educational.regex.parser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A lazily built DFA that searches, the first two of the three phases of a search that doesn't need the
+ * capture groups:
+ *
+ * 1. A forward DFA, over the search program, reads the input from where the search starts and finds where
+ *    the match find() reports ends.
+ * 2. A reverse DFA, over NfaProgram.reverse(), reads the input backwards from there and finds where that
+ *    match starts, which is as far back as the reversed pattern still matches.
+ * 3. Only findGroups() then runs the Pike VM, and only over the match.
+ *
+ * For the forward DFA to find the same match as PikeVm.find(), its states are the Pike VM's lists of
+ * threads, in their order of preference, rather than sets: the threads that start at a later position come
+ * after the ones already running, and once a thread gets to a MATCH state the ones after it are dropped and
+ * no more are started. A state also remembers whether a match has been seen, and whether it was seen at this
+ * position. The search goes on until no thread is left, and the match ends where it was last seen. The
+ * reverse DFA only needs to know whether the reversed pattern matches, so its states are sorted sets and
+ * threads are never dropped.
+ *
+ * Like LazyDfa, transitions are cached for ASCII characters, the number of states is capped, and a cache
+ * that thrashes on a single search makes it give up, so that the caller can search with the Pike VM
+ * instead. It is safe to share across threads in the same way.
+ */
+final class SearchDfa {
+    /**
+     * What find() returns when it gave up on the DFA.
+     */
+    static final int GAVE_UP = -2;
+
+    private static final int CACHED_ALPHABET_SIZE = 128;
+    private static final int MIN_CHARS_PER_STATE = 10;
+    private static final int MATCHED = 1;
+    private static final int MATCH_HERE = 2;
+
+    private final NfaProgram program;
+    private final Prefilter prefilter;
+    private final boolean reverse;
+    private final int maxStates;
+    private final MatcherMetrics metrics;
+
+    // guarded by this
+    private Map<LazyDfa.StateSet, DfaState> cache = new HashMap<LazyDfa.StateSet, DfaState>();
+    private final SparseSet nextStates;
+
+    private volatile DfaState startState;
+    private volatile int flushes;
+
+    /**
+     * @param program   the search program, without COUNT states, or its reverse() if reverse.
+     * @param prefilter to skip to where a match may start with, or null. Only for the forward DFA.
+     * @param reverse   whether this is the reverse DFA, which reads the input backwards.
+     * @param metrics   if not null, gets told about cache hits, misses and flushes, and about giving up.
+     */
+    SearchDfa(final NfaProgram program,
+              final Prefilter prefilter,
+              final boolean reverse,
+              final int maxStates,
+              final MatcherMetrics metrics) {
+        this.program = program;
+        this.prefilter = prefilter;
+        this.reverse = reverse;
+        this.maxStates = maxStates;
+        this.metrics = metrics;
+        this.nextStates = new SparseSet(program.size());
+        synchronized (this) {
+            this.startState = newStartState();
+        }
+    }
+
+    /**
+     * With the forward DFA, where the match find() would report in input[from..to) ends. With the reverse
+     * one, where the longest match that ends at to starts, reading input[from..to) backwards.
+     *
+     * @param budget if not null, the limits of the call, see MatchBudget.
+     * @return -1 if there is no match, or GAVE_UP if the cache thrashed.
+     */
+    int find(final CharSequence input, final int from, final int to, final MatchBudget budget) {
+        DfaState current = startState;
+        int lastFlushPosition = -1;
+        int misses = 0;
+        int found = -1;
+        final int length = to - from;
+        for (int k = 0; ; ++k) {
+            if (current == startState && prefilter != null) {
+                // Only fresh threads, so the search can skip to where one of them may get anywhere.
+                final int candidate = prefilter.nextCandidate(input, from + k, to);
+                if (candidate < 0) {
+                    record(k, misses);
+                    return found;
+                }
+                if (budget != null) {
+                    budget.step(candidate - from - k);
+                }
+                k = candidate - from;
+            }
+            if ((current.flags & MATCH_HERE) != 0) {
+                found = reverse ? to - k : from + k;
+            }
+            if (current.isDead() || k == length) {
+                record(k, misses);
+                return found;
+            }
+            if (budget != null) {
+                budget.step(1);
+            }
+            final char c = reverse ? input.charAt(to - 1 - k) : input.charAt(from + k);
+            DfaState next = c < CACHED_ALPHABET_SIZE ? current.transitions[c] : null;
+            if (next == null) {
+                ++misses;
+                final int flushesBefore = flushes;
+                next = step(current, c);
+                if (flushes != flushesBefore) {
+                    if (lastFlushPosition >= 0 && k - lastFlushPosition < MIN_CHARS_PER_STATE * maxStates) {
+                        record(k + 1, misses);
+                        if (metrics != null) {
+                            metrics.dfaFellBack();
+                        }
+                        return GAVE_UP;
+                    }
+                    lastFlushPosition = k;
+                }
+            }
+            current = next;
+        }
+    }
+
+    private void record(final int charsRead, final int misses) {
+        if (metrics != null) {
+            metrics.dfaCacheUsed(charsRead - misses, misses);
+        }
+    }
+
+    private DfaState newStartState() {
+        return intern(new int[0], 0, true);
+    }
+
+    private synchronized DfaState step(final DfaState from, final char c) {
+        nextStates.clear();
+        for (final int pc : from.nfaStates) {
+            if (program.matches(pc, c)) {
+                for (final int nextPc : program.closureAfter(pc)) {
+                    nextStates.add(nextPc);
+                }
+            }
+        }
+        final int[] threads = new int[nextStates.size()];
+        for (int k = 0; k < threads.length; ++k) {
+            threads[k] = nextStates.get(k);
+        }
+        if (cache.size() >= maxStates) {
+            flush();
+            // from belongs to the old generation of states, no point remembering the transition on it.
+            return intern(threads, from.flags & MATCHED, false);
+        }
+        final DfaState next = intern(threads, from.flags & MATCHED, false);
+        if (c < CACHED_ALPHABET_SIZE) {
+            from.transitions[c] = next;
+        }
+        return next;
+    }
+
+    private void flush() {
+        cache = new HashMap<LazyDfa.StateSet, DfaState>();
+        startState = newStartState();
+        ++flushes;
+        if (metrics != null) {
+            metrics.dfaCacheFlushed();
+        }
+    }
+
+    /**
+     * The state for the threads that got past a char, after the forward DFA starts new threads and drops
+     * the ones after a match.
+     *
+     * @param matched whether a match was seen before this position, MATCHED or 0.
+     * @param first   whether this is the start state, the only one the reverse DFA starts threads in.
+     */
+    private DfaState intern(final int[] threads, final int matched, final boolean first) {
+        nextStates.clear();
+        for (final int pc : threads) {
+            nextStates.add(pc);
+        }
+        if (reverse ? first : matched == 0) {
+            for (final int pc : program.startClosure()) {
+                nextStates.add(pc);
+            }
+        }
+        int flags = matched;
+        int size = nextStates.size();
+        for (int k = 0; k < size; ++k) {
+            if (program.isMatch(nextStates.get(k))) {
+                flags |= MATCHED | MATCH_HERE;
+                if (!reverse) {
+                    size = k;
+                }
+                break;
+            }
+        }
+        // The threads, then the flags, as the key.
+        final int[] key = new int[size + 1];
+        for (int k = 0; k < size; ++k) {
+            key[k] = nextStates.get(k);
+        }
+        if (reverse) {
+            Arrays.sort(key, 0, size);
+        }
+        key[size] = flags;
+        final LazyDfa.StateSet stateSet = new LazyDfa.StateSet(key);
+        DfaState state = cache.get(stateSet);
+        if (state == null) {
+            state = new DfaState(Arrays.copyOf(key, size), flags);
+            cache.put(stateSet, state);
+        }
+        return state;
+    }
+
+    private static final class DfaState {
+        final int[] nfaStates;
+        final int flags;
+        final DfaState[] transitions = new DfaState[CACHED_ALPHABET_SIZE];
+
+        DfaState(final int[] nfaStates, final int flags) {
+            this.nfaStates = nfaStates;
+            this.flags = flags;
+        }
+
+        boolean isDead() {
+            return nfaStates.length == 0;
+        }
+    }
+}
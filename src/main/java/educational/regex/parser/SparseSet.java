@@ -0,0 +1,60 @@
+package educational.regex.parser;
+
+/**
+ * A set of ints from [0, capacity) with constant time add, contains and clear, that remembers the order
+ * in which its members were added. Nothing is allocated after construction.
+ * See https://research.swtch.com/sparse
+ */
+final class SparseSet {
+    private final int[] dense;
+    private final int[] sparse;
+    private int size;
+
+    SparseSet(final int capacity) {
+        this.dense = new int[capacity];
+        this.sparse = new int[capacity];
+    }
+
+    public boolean contains(final int value) {
+        final int index = sparse[value];
+        return index < size && dense[index] == value;
+    }
+
+    /**
+     * @return false if the value was already in the set.
+     */
+    public boolean add(final int value) {
+        if (contains(value)) {
+            return false;
+        }
+        dense[size] = value;
+        sparse[value] = size;
+        ++size;
+        return true;
+    }
+
+    public int get(final int index) {
+        return dense[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Drops everything added after the first size members.
+     */
+    public void truncate(final int size) {
+        if (size < this.size) {
+            this.size = size;
+        }
+    }
+}
@@ -1,8 +1,5 @@
 package educational.regex.parser;
 
-import java.util.HashSet;
-import java.util.Set;
-
 /**
  * Created by prasanna.venkatasubramanian on 9/2/15.
  */
@@ -27,19 +24,6 @@ class State {
         return false;
     }
 
-    public Set<State> getNextStates() {
-        return new HashSet<State>() {
-            {
-                if (next != null) {
-                    add(next);
-                    if (next.hasUnlabeledEdges()) {
-                        addAll(next.getNextStates());
-                    }
-                }
-            }
-        };
-    }
-
     @Override
     public String toString() {
         return String.valueOf(id);
@@ -0,0 +1,242 @@
+package educational.regex.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Matches input that arrives in pieces, and may never fit in memory as a whole, like a multi-GB request
+ * body or a socket. The set of states we are on is carried from one chunk to the next, so memory use
+ * depends only on the size of the automaton: the input is never buffered.
+ *
+ * A StreamMatcher works in one of two modes:
+ *
+ * - whole input (Matcher.newStream()): matches() tells whether everything fed so far matches the pattern,
+ *   just like Matcher.matches() on the concatenation of the chunks. Once isDead() is true, no further input
+ *   can make it match, and feeding stops early.
+ *
+ * - search (Matcher.newSearchStream(listener)): every match is reported to the listener with absolute
+ *   offsets as soon as it ends, and the search resumes right after it. Since the input seen so far is not
+ *   kept around, we can't wait to see whether a match could go on to become a longer one the way find()
+ *   does: the reported match is the one that ends first, and of those the one that starts leftmost. So a+
+ *   on "aaa" reports three matches here, while findAll() gives one.
+ *
+ * Not safe to share across threads.
+ */
+public final class StreamMatcher {
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Gets told about matches in search mode.
+     */
+    public interface MatchListener {
+        void onMatch(long start, long end);
+    }
+
+    private final NfaProgram program;
+    private final MatchListener listener;
+
+    private SparseSet current;
+    private SparseSet next;
+    private long[] currentStarts;
+    private long[] nextStarts;
+    private final Counters counters;
+    private long position;
+    private char[] readBuffer;
+
+    /**
+     * @param listener null for the whole input mode.
+     */
+    /* package */ StreamMatcher(final NfaProgram program, final MatchListener listener) {
+        this.program = program;
+        this.listener = listener;
+        this.current = new SparseSet(program.size());
+        this.next = new SparseSet(program.size());
+        this.currentStarts = new long[program.size()];
+        this.nextStarts = new long[program.size()];
+        this.counters = new Counters(program);
+        addStartThreads();
+        if (listener != null) {
+            reportMatch();
+        }
+    }
+
+    public StreamMatcher feed(final char[] chunk, final int offset, final int length) {
+        return feed(CharBuffer.wrap(chunk, offset, length));
+    }
+
+    public StreamMatcher feed(final CharSequence chunk) {
+        final int length = chunk.length();
+        for (int i = 0; i < length && !isDead(); ++i) {
+            step(chunk.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Feeds everything the reader has, until it runs out or no match is possible anymore. Does not close it.
+     */
+    public StreamMatcher feed(final Reader reader) throws IOException {
+        if (readBuffer == null) {
+            readBuffer = new char[BUFFER_SIZE];
+        }
+        int read;
+        while (!isDead() && (read = reader.read(readBuffer)) >= 0) {
+            feed(readBuffer, 0, read);
+        }
+        return this;
+    }
+
+    /**
+     * Decodes and feeds everything the channel has, until it runs out or no match is possible anymore.
+     * Malformed input is an error. Does not close the channel.
+     */
+    public StreamMatcher feed(final ReadableByteChannel channel, final Charset charset) throws IOException {
+        final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+        boolean endOfInput = false;
+        while (!endOfInput && !isDead()) {
+            endOfInput = channel.read(bytes) < 0;
+            bytes.flip();
+            decode(decoder, bytes, chars, endOfInput);
+            bytes.compact();
+        }
+        if (endOfInput) {
+            while (decoder.flush(chars) == CoderResult.OVERFLOW) {
+                drain(chars);
+            }
+            drain(chars);
+        }
+        return this;
+    }
+
+    /**
+     * How many chars have been fed so far.
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * Whether no matter what comes next, there can't be a match. Never the case when searching.
+     */
+    public boolean isDead() {
+        return listener == null && current.isEmpty();
+    }
+
+    /**
+     * In whole input mode, whether all the input fed so far matches the pattern.
+     */
+    public boolean matches() {
+        for (int k = 0; k < current.size(); ++k) {
+            if (program.isMatch(current.get(k))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void decode(final CharsetDecoder decoder,
+                        final ByteBuffer bytes,
+                        final CharBuffer chars,
+                        final boolean endOfInput) throws CharacterCodingException {
+        while (true) {
+            final CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            drain(chars);
+            if (result.isUnderflow()) {
+                return;
+            }
+        }
+    }
+
+    private void drain(final CharBuffer chars) {
+        chars.flip();
+        feed(chars);
+        chars.clear();
+    }
+
+    private void step(final char c) {
+        next.clear();
+        for (int k = 0; k < current.size(); ++k) {
+            final int pc = current.get(k);
+            if (program.opcodes[pc] == NfaProgram.COUNT) {
+                final boolean accepted = program.accepts(pc, c);
+                final boolean leaving = accepted && counters.canLeave(pc, position + 1);
+                counters.step(pc, accepted, position + 1);
+                if (!counters.isEmpty(pc)) {
+                    next.add(pc);
+                }
+                if (leaving) {
+                    follow(pc);
+                }
+            } else if (program.matches(pc, c)) {
+                follow(pc);
+            }
+        }
+        ++position;
+
+        final SparseSet swap = current;
+        current = next;
+        next = swap;
+        final long[] swapStarts = currentStarts;
+        currentStarts = nextStarts;
+        nextStarts = swapStarts;
+
+        if (listener != null) {
+            addStartThreads();
+            reportMatch();
+        }
+    }
+
+    private void follow(final int pc) {
+        for (final int nextPc : program.closureAfter(pc)) {
+            if (next.add(nextPc)) {
+                nextStarts[nextPc] = currentStarts[pc];
+            }
+            if (program.opcodes[nextPc] == NfaProgram.COUNT) {
+                counters.enter(nextPc, position + 1);
+            }
+        }
+    }
+
+    /**
+     * Threads are in order of their starting positions, so the first one on a MATCH state has the leftmost
+     * start of all the matches that end here. Once it's reported, the search starts over from here. The
+     * empty match the new threads may find right here is not reported, since MATCH states don't step.
+     */
+    private void reportMatch() {
+        for (int k = 0; k < current.size(); ++k) {
+            final int pc = current.get(k);
+            if (program.isMatch(pc)) {
+                listener.onMatch(currentStarts[pc], position);
+                current.clear();
+                addStartThreads();
+                return;
+            }
+        }
+    }
+
+    private void addStartThreads() {
+        for (final int pc : program.startClosure()) {
+            if (current.add(pc)) {
+                currentStarts[pc] = position;
+            }
+            if (program.opcodes[pc] == NfaProgram.COUNT) {
+                counters.enter(pc, position);
+            }
+        }
+    }
+}
@@ -4,8 +4,18 @@ package educational.regex.parser;
  * Created by prasanna.venkatasubramanian on 9/5/15.
  */
 public class TerminalState extends State {
+    /**
+     * Which pattern reaching this state means a match of, when several patterns share one NFA (see RegexSet).
+     */
+    final int patternIndex;
+
     public TerminalState(final int id) {
+        this(id, 0);
+    }
+
+    public TerminalState(final int id, final int patternIndex) {
         super(id);
+        this.patternIndex = patternIndex;
         isTerminal = true;
     }
 }
@@ -0,0 +1,298 @@
+package educational.regex.parser;
+
+import educational.regex.characterclasses.CharacterClass;
+import educational.regex.characterclasses.CharacterClasses;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns an NfaProgram over chars into one over the bytes of their UTF-8 encoding, so that UTF-8 input can
+ * be matched as it is, without decoding it first. Each CHAR state becomes a small automaton of byte CHAR
+ * states that accepts the encodings of the chars its class accepts, the way
+ * https://swtch.com/~rsc/regexp/regexp3.html describes: a class of all the chars comes out as
+ * [00-7F] | [C2-DF][80-BF] | E0[A0-BF][80-BF] | ... A byte is given to the engines as the char of the same
+ * value.
+ *
+ * The char program sees a char outside of the BMP as two chars, a surrogate pair, so a CHAR state that
+ * accepts high surrogates is followed to the CHAR states that could take the low one, and the 4 bytes of
+ * every pair they accept together go straight from the one to the next of the other. Lone surrogates can't
+ * be written in UTF-8, so nothing else is made of surrogates.
+ *
+ * Only well-formed UTF-8 is ever accepted: overlong forms, encoded surrogates, truncated sequences and
+ * stray continuation bytes are accepted by no state.
+ *
+ * The pcs of the states of the char program stay the same, and the byte states are added at the end.
+ */
+final class Utf8Program {
+    private static final int[] MAX_OF_LENGTH = {0x7F, 0x7FF, 0xFFFF, 0x10FFFF};
+
+    private final NfaProgram program;
+    private final Map<Integer, Integer> classIndexes = new HashMap<Integer, Integer>();
+    private final List<CharacterClass> classes = new ArrayList<CharacterClass>();
+    private int[] opcodes;
+    private int[] next;
+    private int[] alternative;
+    private int[] classIndex;
+    private int[] matchIds;
+    private int[] slots;
+    private int size;
+
+    private Utf8Program(final NfaProgram program) {
+        this.program = program;
+        this.size = program.size();
+        this.opcodes = Arrays.copyOf(program.opcodes, size * 4);
+        this.next = Arrays.copyOf(program.next, size * 4);
+        this.alternative = Arrays.copyOf(program.alternative, size * 4);
+        this.classIndex = new int[size * 4];
+        this.matchIds = Arrays.copyOf(program.matchIds, size * 4);
+        this.slots = Arrays.copyOf(program.slots, size * 4);
+    }
+
+    /**
+     * The program over UTF-8 bytes. COUNT states are spelled out first, since they count chars.
+     */
+    static NfaProgram compile(final NfaProgram charProgram) {
+        final NfaProgram program = charProgram.withoutCounters();
+        final Utf8Program utf8 = new Utf8Program(program);
+        final int[][] ranges = new int[program.classes.length][];
+        for (int i = 0; i < ranges.length; ++i) {
+            ranges[i] = CharacterClasses.ranges(program.classes[i]);
+        }
+        for (int pc = 0; pc < program.size(); ++pc) {
+            if (program.opcodes[pc] == NfaProgram.CHAR) {
+                utf8.lower(pc, ranges);
+            }
+        }
+        return utf8.build();
+    }
+
+    private void lower(final int pc, final int[][] ranges) {
+        final Trie trie = new Trie();
+        final int[] chars = ranges[program.classIndex[pc]];
+        for (int i = 0; i < chars.length; i += 2) {
+            final int from = chars[i];
+            final int to = chars[i + 1];
+            // Surrogates only take part as halves of a pair.
+            if (from < Character.MIN_SURROGATE) {
+                addRange(trie, from, Math.min(to, Character.MIN_SURROGATE - 1), program.next[pc]);
+            }
+            if (to > Character.MAX_SURROGATE) {
+                addRange(trie, Math.max(from, Character.MAX_SURROGATE + 1), to, program.next[pc]);
+            }
+        }
+        if (overlaps(chars, Character.MIN_HIGH_SURROGATE, Character.MAX_HIGH_SURROGATE)) {
+            for (final int low : program.closureAfter(pc)) {
+                if (program.opcodes[low] == NfaProgram.CHAR) {
+                    addPairs(trie, chars, ranges[program.classIndex[low]], program.next[low]);
+                }
+            }
+        }
+        emit(trie, pc);
+    }
+
+    /**
+     * Adds the code points of the surrogate pairs with a high surrogate in highs and a low one in lows.
+     */
+    private void addPairs(final Trie trie, final int[] highs, final int[] lows, final int target) {
+        for (int i = 0; i < highs.length; i += 2) {
+            final int highFrom = Math.max(highs[i], Character.MIN_HIGH_SURROGATE);
+            final int highTo = Math.min(highs[i + 1], Character.MAX_HIGH_SURROGATE);
+            for (int j = 0; highFrom <= highTo && j < lows.length; j += 2) {
+                final int lowFrom = Math.max(lows[j], Character.MIN_LOW_SURROGATE);
+                final int lowTo = Math.min(lows[j + 1], Character.MAX_LOW_SURROGATE);
+                if (lowFrom > lowTo) {
+                    continue;
+                }
+                if (lowFrom == Character.MIN_LOW_SURROGATE && lowTo == Character.MAX_LOW_SURROGATE) {
+                    // All the low surrogates, so the code points of all the high ones are one range.
+                    addRange(trie, codePoint(highFrom, lowFrom), codePoint(highTo, lowTo), target);
+                    continue;
+                }
+                for (int high = highFrom; high <= highTo; ++high) {
+                    addRange(trie, codePoint(high, lowFrom), codePoint(high, lowTo), target);
+                }
+            }
+        }
+    }
+
+    private static int codePoint(final int high, final int low) {
+        return Character.toCodePoint((char) high, (char) low);
+    }
+
+    private static boolean overlaps(final int[] ranges, final int from, final int to) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] <= to && ranges[i + 1] >= from) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the encodings of the code points [from, to] to the trie, as sequences of byte ranges. The range
+     * is split until the encodings of its ends have the same length and differ only in a run of trailing
+     * bytes that go all the way from 80 to BF, so that every byte of the sequence is a range of its own.
+     */
+    private static void addRange(final Trie trie, final int from, final int to, final int target) {
+        for (final int max : MAX_OF_LENGTH) {
+            if (from <= max && to > max) {
+                addRange(trie, from, max, target);
+                addRange(trie, max + 1, to, target);
+                return;
+            }
+        }
+        if (to <= MAX_OF_LENGTH[0]) {
+            trie.add(new int[]{from, to}, target);
+            return;
+        }
+        for (int i = 1; i < 4; ++i) {
+            final int mask = (1 << (6 * i)) - 1;
+            if ((from & ~mask) != (to & ~mask)) {
+                if ((from & mask) != 0) {
+                    addRange(trie, from, from | mask, target);
+                    addRange(trie, (from | mask) + 1, to, target);
+                    return;
+                }
+                if ((to & mask) != mask) {
+                    addRange(trie, from, (to & ~mask) - 1, target);
+                    addRange(trie, to & ~mask, to, target);
+                    return;
+                }
+            }
+        }
+        final int[] fromBytes = encode(from);
+        final int[] toBytes = encode(to);
+        final int[] sequence = new int[2 * fromBytes.length];
+        for (int i = 0; i < fromBytes.length; ++i) {
+            sequence[2 * i] = fromBytes[i];
+            sequence[2 * i + 1] = toBytes[i];
+        }
+        trie.add(sequence, target);
+    }
+
+    private static int[] encode(final int codePoint) {
+        if (codePoint <= MAX_OF_LENGTH[1]) {
+            return new int[]{0xC0 | codePoint >> 6, 0x80 | codePoint & 0x3F};
+        }
+        if (codePoint <= MAX_OF_LENGTH[2]) {
+            return new int[]{0xE0 | codePoint >> 12, 0x80 | codePoint >> 6 & 0x3F, 0x80 | codePoint & 0x3F};
+        }
+        return new int[]{0xF0 | codePoint >> 18, 0x80 | codePoint >> 12 & 0x3F, 0x80 | codePoint >> 6 & 0x3F,
+                0x80 | codePoint & 0x3F};
+    }
+
+    /**
+     * Writes the states for the trie out, starting at the given pc. A node with several edges becomes a
+     * chain of SPLITs, one for each edge but the last. A node without edges accepts nothing, which is a
+     * CHAR state with an empty class.
+     */
+    private void emit(final Trie trie, final int at) {
+        final List<Edge> edges = trie.edges;
+        if (edges.isEmpty()) {
+            set(at, NfaProgram.CHAR, 0, 0, byteClass(1, 0));
+            return;
+        }
+        int pc = at;
+        for (int i = 0; i < edges.size(); ++i) {
+            final Edge edge = edges.get(i);
+            final boolean lastEdge = i == edges.size() - 1;
+            final int charPc = lastEdge ? pc : add();
+            final int rest = lastEdge ? -1 : add();
+            if (!lastEdge) {
+                set(pc, NfaProgram.SPLIT, rest, charPc, 0);
+            }
+            final int target = edge.child != null ? add() : edge.target;
+            set(charPc, NfaProgram.CHAR, target, 0, byteClass(edge.from, edge.to));
+            if (edge.child != null) {
+                emit(edge.child, target);
+            }
+            pc = rest;
+        }
+    }
+
+    private int byteClass(final int from, final int to) {
+        final int key = from << 8 | to;
+        Integer index = classIndexes.get(key);
+        if (index == null) {
+            index = classes.size();
+            classes.add(CharacterClasses.fromRanges(from <= to ? new int[]{from, to} : new int[0]));
+            classIndexes.put(key, index);
+        }
+        return index;
+    }
+
+    private int add() {
+        if (size == opcodes.length) {
+            opcodes = Arrays.copyOf(opcodes, size * 2);
+            next = Arrays.copyOf(next, size * 2);
+            alternative = Arrays.copyOf(alternative, size * 2);
+            classIndex = Arrays.copyOf(classIndex, size * 2);
+            matchIds = Arrays.copyOf(matchIds, size * 2);
+            slots = Arrays.copyOf(slots, size * 2);
+        }
+        return size++;
+    }
+
+    private void set(final int pc, final int opcode, final int next, final int alternative, final int classIndex) {
+        this.opcodes[pc] = opcode;
+        this.next[pc] = next;
+        this.alternative[pc] = alternative;
+        this.classIndex[pc] = classIndex;
+    }
+
+    private NfaProgram build() {
+        if (classes.isEmpty()) {
+            // A program without CHAR states still needs a class for classIndex to point at.
+            byteClass(1, 0);
+        }
+        return new NfaProgram(Arrays.copyOf(opcodes, size), Arrays.copyOf(next, size),
+                Arrays.copyOf(alternative, size), Arrays.copyOf(classIndex, size), Arrays.copyOf(matchIds, size),
+                new int[size], new int[size], Arrays.copyOf(slots, size),
+                classes.toArray(new CharacterClass[classes.size()]), program.start);
+    }
+
+    /**
+     * Byte range sequences that share their first ranges share the states for them.
+     */
+    private static final class Trie {
+        private final List<Edge> edges = new ArrayList<Edge>();
+
+        void add(final int[] sequence, final int target) {
+            Trie node = this;
+            for (int i = 0; i < sequence.length; i += 2) {
+                final boolean last = i == sequence.length - 2;
+                Edge found = null;
+                for (final Edge edge : node.edges) {
+                    if (edge.from == sequence[i] && edge.to == sequence[i + 1] &&
+                            (last ? edge.child == null && edge.target == target : edge.child != null)) {
+                        found = edge;
+                        break;
+                    }
+                }
+                if (found == null) {
+                    found = new Edge(sequence[i], sequence[i + 1], last ? null : new Trie(), target);
+                    node.edges.add(found);
+                }
+                node = found.child;
+            }
+        }
+    }
+
+    private static final class Edge {
+        private final int from;
+        private final int to;
+        private final Trie child;
+        private final int target;
+
+        Edge(final int from, final int to, final Trie child, final int target) {
+            this.from = from;
+            this.to = to;
+            this.child = child;
+            this.target = target;
+        }
+    }
+}
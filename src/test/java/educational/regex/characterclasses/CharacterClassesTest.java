@@ -0,0 +1,71 @@
+package educational.regex.characterclasses;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CharacterClassesTest {
+
+    @Test
+    public void testRanges() throws Exception {
+        final CharacterClass lower = CharacterClasses.anyInRange(CharacterClasses.exactMatchOf('a'),
+                CharacterClasses.exactMatchOf('z'));
+        final CharacterClass digits = CharacterClasses.anyInRange(CharacterClasses.exactMatchOf('0'),
+                CharacterClasses.exactMatchOf('9'));
+        final CharacterClass underscore = CharacterClasses.exactMatchOf('_');
+
+        assertArrayEquals(new int[]{'0', '9', '_', '_', 'a', 'z'},
+                CharacterClasses.ranges(CharacterClasses.union(CharacterClasses.union(lower, underscore), digits)));
+        // Overlapping and adjacent ranges get merged.
+        assertArrayEquals(new int[]{'0', 'z'},
+                CharacterClasses.ranges(CharacterClasses.union(CharacterClasses.anyInRange(
+                        CharacterClasses.exactMatchOf('0'), CharacterClasses.exactMatchOf('`')), lower)));
+        assertArrayEquals(new int[]{0, '0' - 1, '9' + 1, 0xFFFF},
+                CharacterClasses.ranges(CharacterClasses.negationOf(digits)));
+        assertArrayEquals(new int[]{'a', 'f'},
+                CharacterClasses.ranges(CharacterClasses.intersection(lower, CharacterClasses.anyInRange(
+                        CharacterClasses.exactMatchOf('A'), CharacterClasses.exactMatchOf('f')))));
+        assertArrayEquals(new int[]{},
+                CharacterClasses.ranges(CharacterClasses.intersection(lower, digits)));
+        assertArrayEquals(new int[]{0, 0xFFFF}, CharacterClasses.ranges(CharacterClasses.anyCharMatcher()));
+    }
+
+    @Test
+    public void testCompiledClassAcceptsTheSameChars() throws Exception {
+        final CharacterClass greek = CharacterClasses.anyInRange(CharacterClasses.exactMatchOf('\u0391'),
+                CharacterClasses.exactMatchOf('\u03c9'));
+        final CharacterClass lower = CharacterClasses.anyInRange(CharacterClasses.exactMatchOf('a'),
+                CharacterClasses.exactMatchOf('z'));
+        final CharacterClass[] classes = {
+                CharacterClasses.exactMatchOf('x'),
+                CharacterClasses.anyCharMatcher(),
+                CharacterClasses.union(greek, lower),
+                CharacterClasses.negationOf(CharacterClasses.union(greek, lower)),
+                CharacterClasses.intersection(CharacterClasses.negationOf(lower), CharacterClasses.exactMatchOf('\u00e9')),
+                new CharacterClass() {
+                    @Override
+                    public boolean isAccepted(final char c) {
+                        return c % 3 == 0;
+                    }
+                },
+        };
+        for (final CharacterClass characterClass : classes) {
+            final CharacterClass compiled = CharacterClasses.compile(characterClass);
+            for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; ++c) {
+                assertEquals(characterClass + " on " + c,
+                        characterClass.isAccepted((char) c), compiled.isAccepted((char) c));
+            }
+        }
+    }
+
+    @Test
+    public void testCompiledClassToString() throws Exception {
+        assertEquals("x", CharacterClasses.compile(CharacterClasses.exactMatchOf('x')).toString());
+        assertEquals("ANY", CharacterClasses.compile(CharacterClasses.anyCharMatcher()).toString());
+        assertEquals("[0-9a-z]", CharacterClasses.compile(CharacterClasses.union(
+                CharacterClasses.anyInRange(CharacterClasses.exactMatchOf('a'), CharacterClasses.exactMatchOf('z')),
+                CharacterClasses.anyInRange(CharacterClasses.exactMatchOf('0'), CharacterClasses.exactMatchOf('9')))
+        ).toString());
+    }
+}
@@ -0,0 +1,62 @@
+package educational.regex.parser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AstOptimizerTest {
+
+    @Test
+    public void testRewrites() throws Exception {
+        final String[][] testCases = {
+                {"a|b|c", "[[a-c]]"},
+                {"(?:(?:a|b)|c)d", "(concat [[a-c]] d)"},
+                {"((a|b)|c)d", "(concat (group (alt (group [[a-b]]) c)) d)"},
+                {"ab|[xy]|z|cd", "(alt (concat a b) [[x-z]] (concat c d))"},
+                {"foobar|fool|foo", "(concat f o o (repeat{0,1} (alt (concat b a r) l)))"},
+                {"ab|ac|ad|b", "(alt (concat a [[b-d]]) b)"},
+                // The foo is preferred over the foobar, so the empty branch can't go.
+                {"foo|foobar", "(concat f o (alt o (concat o b a r)))"},
+                // Not next to each other, so they stay apart.
+                {"ab|c|ad", "(alt (concat a b) c (concat a d))"},
+                {"(?:x*)*", "(repeat{0,} x)"},
+                {"(?:x+)?", "(repeat{0,} x)"},
+                {"(?:x?)?", "(repeat{0,1} x)"},
+                {"(?:x+)+", "(repeat{1,} x)"},
+                {"(?:x*){2,3}", "(repeat{0,} x)"},
+                {"(?:x{2})*", "(repeat{0,} (repeat{2,2} x))"},
+                {"(?:a){1}", "a"},
+                {"(x*)*", "(repeat{0,} (group (repeat{0,} x)))"},
+        };
+        for (final String[] testCase : testCases) {
+            assertEquals(testCase[0], testCase[1], AstOptimizer.optimize(RegexParser.parse(testCase[0])).toString());
+        }
+    }
+
+    @Test
+    public void testFindIsUnchanged() throws Exception {
+        final String[][] testCases = {
+                {"foo|foobar|fool", "foobar fool foo"},
+                {"foobar|fool|foo", "foobar fool foo"},
+                {"a|ab|abc", "abc"},
+                {"(ab|a)(c|bcd)", "abcd"},
+                {"(a*)*b|(a+)?c", "aab aac"},
+                {"(?:a*)*b|(?:a+)?c", "aab aac"},
+        };
+        for (final String[] testCase : testCases) {
+            final RegexNfa nfa = RegexNfa.fromAst(RegexParser.parse(testCase[0]), 0, true);
+            final Matcher unoptimized = new Matcher(RegexNfa.toProgram(nfa.getStart()), nfa.getLiterals(),
+                    CompileOptions.DEFAULT);
+            final Matcher optimized = Parser.compile(testCase[0]);
+            final StringBuilder expected = new StringBuilder();
+            for (final Match match : unoptimized.findAll(testCase[1])) {
+                expected.append(match);
+            }
+            final StringBuilder actual = new StringBuilder();
+            for (final Match match : optimized.findAll(testCase[1])) {
+                actual.append(match);
+            }
+            assertEquals(testCase[0], expected.toString(), actual.toString());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package educational.regex.parser;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AutomatonFormatTest {
+    private static final String[] INPUTS = {"", "a", "ab", "abb", "aabb", "ERROR 504 timeout", "x\u00e9y", "GET /a/b"};
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final Map<String, Matcher> matchers = new LinkedHashMap<String, Matcher>();
+        matchers.put("(a|b)*abb", Parser.compile("(a|b)*abb"));
+        matchers.put("ERROR [0-9]+ timeout", Parser.compile("ERROR [0-9]+ timeout"));
+        matchers.put("x[^a-z]y", Parser.compile("x[^a-z]y", CompileOptions.DEFAULT.withEngine(Engine.DFA)));
+        matchers.put("(GET|PUT) /[a-z/]*", Parser.compile("(GET|PUT) /[a-z/]*",
+                CompileOptions.DEFAULT.withEngine(Engine.LAZY_DFA).withDfaCacheSize(7)));
+
+        final File file = File.createTempFile("patterns", ".rgx");
+        file.deleteOnExit();
+        try (final FileOutputStream out = new FileOutputStream(file)) {
+            AutomatonFormat.write(matchers, out.getChannel());
+        }
+        final Map<String, Matcher> loaded = AutomatonFormat.read(file.toPath());
+
+        assertEquals(matchers.keySet().toString(), loaded.keySet().toString());
+        for (final Map.Entry<String, Matcher> entry : matchers.entrySet()) {
+            final Matcher original = entry.getValue();
+            final Matcher copy = loaded.get(entry.getKey());
+            assertEquals(original.getOptions(), copy.getOptions());
+            assertEquals(original.getProgram().toString(), copy.getProgram().toString());
+            assertEquals(original.getDfaStateCount(), copy.getDfaStateCount());
+            for (final String input : INPUTS) {
+                assertEquals(entry.getKey() + " on " + input, original.matches(input), copy.matches(input));
+                assertEquals(String.valueOf(original.find(input)), String.valueOf(copy.find(input)));
+            }
+        }
+    }
+
+    @Test
+    public void testRejectsDamage() throws Exception {
+        final Map<String, Matcher> matchers = new LinkedHashMap<String, Matcher>();
+        matchers.put("ab*", Parser.compile("ab*"));
+        final ByteBuffer encoded = AutomatonFormat.encode(matchers);
+
+        final ByteBuffer flipped = copy(encoded);
+        flipped.put(flipped.limit() - 3, (byte) (flipped.get(flipped.limit() - 3) ^ 1));
+        assertRejected(flipped, "Checksum mismatch");
+
+        final ByteBuffer truncated = copy(encoded);
+        truncated.limit(truncated.limit() - 1);
+        assertRejected(truncated, "Truncated");
+
+        final ByteBuffer newer = copy(encoded);
+        newer.putInt(4, AutomatonFormat.VERSION + 1);
+        assertRejected(newer, "Unsupported version");
+
+        final ByteBuffer notOurs = copy(encoded);
+        notOurs.putInt(0, 0xCAFEBABE);
+        assertRejected(notOurs, "Not compiled patterns");
+
+        // A length that the bytes left can't hold is rejected before anything that big is allocated, even
+        // when the checksum is right. The pattern string's length is right after the number of patterns.
+        final ByteBuffer huge = copy(encoded);
+        huge.putInt(20, Integer.MAX_VALUE);
+        final ByteBuffer payload = huge.duplicate();
+        payload.position(16);
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        huge.putInt(12, (int) crc.getValue());
+        assertRejected(huge, "Corrupt payload");
+    }
+
+    private static ByteBuffer copy(final ByteBuffer buffer) {
+        final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        copy.flip();
+        return copy;
+    }
+
+    private static void assertRejected(final ByteBuffer buffer, final String message) {
+        try {
+            AutomatonFormat.read(buffer);
+            fail("Expected an IOException: " + message);
+        } catch (final IOException e) {
+            assertEquals(true, e.getMessage().startsWith(message));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package educational.regex.parser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchMatchTest {
+
+    @Test
+    public void testAgreesWithMatchingEachInput() throws Exception {
+        final Random random = new Random(7);
+        final List<String> inputs = new ArrayList<String>();
+        for (int i = 0; i < 10000; ++i) {
+            final StringBuilder input = new StringBuilder();
+            for (int j = random.nextInt(8); j > 0; --j) {
+                input.append((char) ('a' + random.nextInt(3)));
+            }
+            inputs.add(input.toString());
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (final Engine engine : Engine.values()) {
+                final Matcher matcher = Parser.compile("(a|b)*c(a|b)*", CompileOptions.DEFAULT.withEngine(engine));
+                final BitSet expected = new BitSet();
+                for (int i = 0; i < inputs.size(); ++i) {
+                    expected.set(i, matcher.matches(inputs.get(i)));
+                }
+                assertEquals(expected, matcher.matchAll(inputs));
+                assertEquals(expected, matcher.matchAll(inputs, pool, 100));
+                assertEquals(expected, matcher.matchAll(inputs.toArray(new String[inputs.size()])));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package educational.regex.parser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BitParallelNfaTest {
+
+    @Test
+    public void testFallsBackOnWidePatterns() throws Exception {
+        final StringBuilder pattern = new StringBuilder();
+        final StringBuilder input = new StringBuilder();
+        for (int i = 0; i < BitParallelNfa.MAX_POSITIONS; ++i) {
+            pattern.append("[a-z]");
+            input.append((char) ('a' + i % 26));
+        }
+        final NfaProgram narrow = ParserTest.programOf(pattern.toString());
+        assertEquals(true, BitParallelNfa.compile(narrow) != null);
+
+        pattern.append('!');
+        input.append('!');
+        final NfaProgram wide = ParserTest.programOf(pattern.toString());
+        assertEquals(null, BitParallelNfa.compile(wide));
+
+        final Matcher matcher = Parser.compile(pattern.toString(), CompileOptions.DEFAULT.withEngine(Engine.BIT_PARALLEL));
+        assertEquals(true, matcher.matches(input.toString()));
+        assertEquals(false, matcher.matches(input.substring(1)));
+    }
+
+    @Test
+    public void testSearchFirstEnd() throws Exception {
+        final BitParallelNfa nfa = BitParallelNfa.compile(ParserTest.programOf("ab+c"));
+        assertEquals(6, nfa.searchFirstEnd("xxabbcabc", 0));
+        assertEquals(9, nfa.searchFirstEnd("xxabbcabc", 3));
+        assertEquals(-1, nfa.searchFirstEnd("xxabbcabc", 7));
+        assertEquals(-1, nfa.searchFirstEnd("", 0));
+    }
+}
@@ -0,0 +1,40 @@
+package educational.regex.parser;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class DfaBytecodeTest {
+
+    @Test
+    public void testAgreesWithNfa() throws Exception {
+        final String[] patterns = {"(a|b)*abb", "[a-c]+x[^a]", "(ab|ba)*c?", "a?a?a?aaa", "[^a-z]*(\u00e9|z)+",
+                "(a|c|x|5| |\u00e9)*!"};
+        final Random random = new Random(11);
+        for (final String pattern : patterns) {
+            final Matcher nfa = Parser.compile(pattern);
+            final Matcher generated = Parser.compile(pattern, CompileOptions.DEFAULT.withEngine(Engine.DFA_BYTECODE));
+            assertEquals(pattern, true, generated.hasGeneratedDfa());
+            for (int i = 0; i < 5000; ++i) {
+                final StringBuilder input = new StringBuilder();
+                for (int j = random.nextInt(8); j > 0; --j) {
+                    input.append("abcxz5 !\u00e9\uffff".charAt(random.nextInt(10)));
+                }
+                assertEquals(pattern + " on " + input, nfa.matches(input), generated.matches(input));
+            }
+        }
+    }
+
+    @Test
+    public void testFallsBackOnLargeDfas() throws Exception {
+        // 2^12 states, each with a couple of comparisons, is too much code for a method.
+        final Matcher matcher = Parser.compile("(a|b)*a(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)",
+                CompileOptions.DEFAULT.withEngine(Engine.DFA_BYTECODE));
+        assertEquals(false, matcher.hasGeneratedDfa());
+        assertEquals(4096 + 1, matcher.getDfaStateCount());
+        assertEquals(true, matcher.matches("bbbba" + "bbbbbbbbbbb"));
+        assertEquals(false, matcher.matches("bbbba" + "bbbbbbbbbb"));
+    }
+}
@@ -0,0 +1,28 @@
+package educational.regex.parser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DfaTest {
+
+    @Test
+    public void testIsMinimal() throws Exception {
+        final CompileOptions dfa = CompileOptions.DEFAULT.withEngine(Engine.DFA);
+        // The textbook 4 states, plus the dead state for anything other than a and b.
+        assertEquals(5, Parser.compile("(a|b)*abb", dfa).getDfaStateCount());
+        assertEquals(5, Parser.compile("(a|b)*(abb|bbabb)", dfa).getDfaStateCount());
+        // The n'th last char being an a takes 2^n states to remember.
+        assertEquals(16 + 1, Parser.compile("(a|b)*a(a|b)(a|b)(a|b)", dfa).getDfaStateCount());
+        assertEquals(-1, Parser.compile("(a|b)*abb").getDfaStateCount());
+    }
+
+    @Test
+    public void testFallsBackOverTheStateLimit() throws Exception {
+        final Matcher matcher = Parser.compile("(a|b)*a(a|b)(a|b)(a|b)",
+                CompileOptions.DEFAULT.withEngine(Engine.DFA).withDfaStateLimit(10));
+        assertEquals(-1, matcher.getDfaStateCount());
+        assertEquals(true, matcher.matches("abbabaabbbababbbaaab"));
+        assertEquals(false, matcher.matches("abbabaabbbababbbbaab"));
+    }
+}
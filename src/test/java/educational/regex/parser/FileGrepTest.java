@@ -0,0 +1,94 @@
+package educational.regex.parser;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileGrepTest {
+
+    @Test
+    public void testAgreesWithMatchingEachLine() throws Exception {
+        final Matcher matcher = Parser.compile("(GET|PUT) /[a-z\u00e9]*( [0-9]+)*");
+        final Random random = new Random(42);
+        final String[] lines = {"GET /index 200", "PUT /caf\u00e9 201", "POST /x", "", "GET /", "PUT /a 1 2 3\r",
+                "GET /\u00fcber 404", "garbage \u20ac"};
+
+        final StringBuilder content = new StringBuilder();
+        final List<String> expected = new ArrayList<String>();
+        long offset = 0;
+        for (int i = 0; i < 2000; ++i) {
+            final String line = lines[random.nextInt(lines.length)];
+            final String withoutCr = line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+            final int length = withoutCr.getBytes(StandardCharsets.UTF_8).length;
+            if (matcher.matches(withoutCr)) {
+                expected.add(offset + "-" + (offset + length));
+            }
+            content.append(line).append('\n');
+            offset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+        // No line break at the end of the file.
+        content.append("GET /last");
+        expected.add(offset + "-" + (offset + 9));
+
+        final File file = File.createTempFile("filegrep", ".log");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final int[][] sizes = {{7, 64}, {100, 1000}, {4096, 1 << 20}};
+            for (final int[] size : sizes) {
+                final List<String> found = new ArrayList<String>();
+                final long count = new FileGrep(matcher, pool, size[0], size[1]).grep(file.toPath(),
+                        new FileGrep.LineListener() {
+                            @Override
+                            public void onMatch(final long start, final long end) {
+                                found.add(start + "-" + end);
+                            }
+                        });
+                assertEquals(expected, found);
+                assertEquals(expected.size(), count);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMalformedLinesMatchLikeBytes() throws Exception {
+        final Matcher matcher = Parser.compile("GET /.*");
+        final byte[] malformed = {'G', 'E', 'T', ' ', '/', (byte) 0xFF, 'x'};
+        final byte[] wellFormed = "GET /\u00e9".getBytes(StandardCharsets.UTF_8);
+        assertFalse(matcher.matches(malformed));
+        assertTrue(matcher.matches(wellFormed));
+
+        final File file = File.createTempFile("filegrep", ".log");
+        file.deleteOnExit();
+        final byte[] content = new byte[malformed.length + 1 + wellFormed.length];
+        System.arraycopy(malformed, 0, content, 0, malformed.length);
+        content[malformed.length] = '\n';
+        System.arraycopy(wellFormed, 0, content, malformed.length + 1, wellFormed.length);
+        Files.write(file.toPath(), content);
+
+        final List<String> found = new ArrayList<String>();
+        new FileGrep(matcher).grep(file.toPath(), new FileGrep.LineListener() {
+            @Override
+            public void onMatch(final long start, final long end) {
+                found.add(start + "-" + end);
+            }
+        });
+        final List<String> expected = new ArrayList<String>();
+        expected.add((malformed.length + 1) + "-" + content.length);
+        assertEquals(expected, found);
+    }
+}
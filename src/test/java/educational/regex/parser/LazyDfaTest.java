@@ -0,0 +1,20 @@
+package educational.regex.parser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LazyDfaTest {
+
+    @Test
+    public void testTinyCache() throws Exception {
+        ParserTest.assertMatchTestCases(CompileOptions.DEFAULT.withEngine(Engine.LAZY_DFA).withDfaCacheSize(2));
+
+        // Every character leads to a new set of NFA states, so a 2 state cache keeps flushing and we end up
+        // finishing on the NFA.
+        final Matcher matcher = Parser.compile("(a|b)*a(a|b)(a|b)(a|b)",
+                CompileOptions.DEFAULT.withEngine(Engine.LAZY_DFA).withDfaCacheSize(2));
+        assertEquals(true, matcher.matches("abbabaabbbababbbaaab"));
+        assertEquals(false, matcher.matches("abbabaabbbababbbbaab"));
+    }
+}
@@ -0,0 +1,124 @@
+package educational.regex.parser;
+
+import educational.regex.MatchAbortedException;
+import educational.regex.ParseException;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MatchLimitsTest {
+    private static final String INPUT = repeat('a', 100000);
+
+    @Test
+    public void testStepBudget() throws Exception {
+        final MatchLimits limits = MatchLimits.NONE.withStepBudget(1000);
+        for (final Engine engine : Engine.values()) {
+            final Matcher matcher = Parser.compileUncached("a*b", CompileOptions.DEFAULT.withEngine(engine));
+            assertFalse(matcher.matches(INPUT, MatchLimits.NONE));
+            assertTrue(matcher.matches("aab", limits));
+            assertAborted(engine.toString(), MatchAbortedException.Reason.STEP_BUDGET, matcher, limits);
+        }
+    }
+
+    @Test
+    public void testSearches() throws Exception {
+        final MatchLimits limits = MatchLimits.NONE.withStepBudget(1000);
+        final Matcher matcher = Parser.compile("(a)+[bc]");
+        assertEquals(null, matcher.find(INPUT, 0, MatchLimits.NONE));
+        try {
+            matcher.find(INPUT, 0, limits);
+            fail("find should have gone over its budget");
+        } catch (final MatchAbortedException e) {
+            assertEquals(MatchAbortedException.Reason.STEP_BUDGET, e.getReason());
+        }
+        try {
+            matcher.findGroups(INPUT, 0, limits);
+            fail("findGroups should have gone over its budget");
+        } catch (final MatchAbortedException e) {
+            assertEquals(MatchAbortedException.Reason.STEP_BUDGET, e.getReason());
+        }
+        // Skipping to the b costs a step for every char skipped.
+        try {
+            Parser.compile("bc").find(INPUT + "bc", 0, limits);
+            fail("the prefilter should have gone over the budget");
+        } catch (final MatchAbortedException e) {
+            assertEquals(MatchAbortedException.Reason.STEP_BUDGET, e.getReason());
+        }
+    }
+
+    @Test
+    public void testEveryPhaseOfASearchIsChecked() throws Exception {
+        // The forward DFA, or the bit-parallel pre-scan, reads the input once, and the reverse DFA, or the
+        // Pike VM, reads it again, so the budget runs out in the second phase.
+        final String input = "a" + repeat('x', 100000) + "b";
+        final MatchLimits limits = MatchLimits.NONE.withStepBudget(input.length() + 2000);
+        final Engine[] engines = {Engine.LAZY_DFA, Engine.DFA, Engine.DFA_BYTECODE, Engine.BIT_PARALLEL};
+        for (final Engine engine : engines) {
+            final Matcher matcher = Parser.compileUncached("a.*b", CompileOptions.DEFAULT.withEngine(engine));
+            assertEquals(engine.toString(), input.length(), matcher.find(input, 0, MatchLimits.NONE).end());
+            try {
+                matcher.find(input, 0, limits);
+                fail(engine + " should have gone over its budget");
+            } catch (final MatchAbortedException e) {
+                assertEquals(engine.toString(), MatchAbortedException.Reason.STEP_BUDGET, e.getReason());
+            }
+        }
+    }
+
+    @Test
+    public void testCancellationAndDeadline() throws Exception {
+        final Matcher matcher = Parser.compile("a*b");
+        final CancellationToken token = new CancellationToken();
+        assertFalse(matcher.matches(INPUT, MatchLimits.NONE.withCancellation(token)));
+        token.cancel();
+        assertAborted("cancelled", MatchAbortedException.Reason.CANCELLED, matcher,
+                MatchLimits.NONE.withCancellation(token));
+        assertAborted("timeout", MatchAbortedException.Reason.DEADLINE, matcher,
+                MatchLimits.NONE.withTimeout(0, TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testCompileLimits() throws Exception {
+        assertCompileError("a{1000}", CompileOptions.DEFAULT.withMaxStates(500), 0);
+        assertCompileError("x(ab){300}", CompileOptions.DEFAULT.withMaxStates(500), 1);
+        assertCompileError("a[a-ce-gx]", CompileOptions.DEFAULT.withMaxClassRanges(2), 1);
+        assertTrue(Parser.compileUncached("a{100}", CompileOptions.DEFAULT.withMaxStates(500))
+                .matches(repeat('a', 100)));
+        assertTrue(Parser.compileUncached("[a-ce-g]", CompileOptions.DEFAULT.withMaxClassRanges(2)).matches("f"));
+    }
+
+    private static void assertAborted(final String message,
+                                      final MatchAbortedException.Reason reason,
+                                      final Matcher matcher,
+                                      final MatchLimits limits) {
+        try {
+            matcher.matches(INPUT, limits);
+            fail(message + " should have been aborted");
+        } catch (final MatchAbortedException e) {
+            assertEquals(message, reason, e.getReason());
+            assertTrue(message, e.getSteps() > 0);
+        }
+    }
+
+    private static void assertCompileError(final String pattern, final CompileOptions options, final int position) {
+        try {
+            Parser.compileUncached(pattern, options);
+            fail(pattern + " should not compile");
+        } catch (final ParseException e) {
+            assertEquals(pattern, position, e.getPosition());
+        }
+    }
+
+    private static String repeat(final char c, final int count) {
+        final StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; ++i) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
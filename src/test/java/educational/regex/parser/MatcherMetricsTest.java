@@ -0,0 +1,104 @@
+package educational.regex.parser;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MatcherMetricsTest {
+
+    @Test
+    public void testOffByDefault() throws Exception {
+        assertNull(Parser.compileUncached("ab", CompileOptions.DEFAULT).getMetrics());
+    }
+
+    @Test
+    public void testNotShared() throws Exception {
+        final CompileOptions options = CompileOptions.DEFAULT.withMetrics(true);
+        final Matcher first = Parser.compile("a[0-9]+", options);
+        final Matcher second = Parser.compile("a[0-9]+", options);
+        assertTrue(first.matches("a1"));
+        assertEquals(1, first.getMetrics().snapshot().getMatchCount());
+        assertEquals(0, second.getMetrics().snapshot().getMatchCount());
+    }
+
+    @Test
+    public void testMatchesAndSearches() throws Exception {
+        final Matcher matcher = Parser.compileUncached("a[0-9]+", CompileOptions.DEFAULT.withMetrics(true));
+        assertTrue(matcher.matches("a123"));
+        assertTrue(matcher.matches("a1".getBytes("UTF-8")));
+        assertEquals(2, countOf(matcher.findAll("xxa1 yy a22")));
+
+        final MatcherMetrics.Snapshot snapshot = matcher.getMetrics().snapshot();
+        assertEquals("a[0-9]+", snapshot.getPattern());
+        assertTrue(snapshot.getCompileNanos() > 0);
+        assertEquals(matcher.getProgram().size(), snapshot.getNfaStateCount());
+        assertEquals(-1, snapshot.getDfaStateCount());
+        assertEquals(2, snapshot.getMatchCount());
+        // Two matches, and the search that finds no third one.
+        assertEquals(3, snapshot.getSearchCount());
+        // Every match starts with an a, which the prefilter skips to.
+        assertEquals(2, snapshot.getPrefilterCandidates());
+        assertEquals(2 + 4, snapshot.getPrefilterSkippedChars());
+
+        long chars = 0;
+        for (final long count : snapshot.getActiveStateHistogram()) {
+            chars += count;
+        }
+        // matches() reads all of a123 and a1, and the searches a1 and the space that ends it, and a22.
+        assertEquals(4 + 2 + 3 + 3, chars);
+
+        matcher.getMetrics().reset();
+        assertEquals(0, matcher.getMetrics().getMatchCount());
+        assertEquals("a[0-9]+", matcher.getMetrics().getPattern());
+    }
+
+    @Test
+    public void testLazyDfaCache() throws Exception {
+        final Matcher matcher = Parser.compileUncached("(ab)*",
+                CompileOptions.DEFAULT.withEngine(Engine.LAZY_DFA).withMetrics(true));
+        assertTrue(matcher.matches("abab"));
+        assertTrue(matcher.matches("abab"));
+        final MatcherMetrics metrics = matcher.getMetrics();
+        assertEquals(8, metrics.getDfaCacheHits() + metrics.getDfaCacheMisses());
+        // a and b from the start state, then a and b again from the state after ab.
+        assertEquals(2, metrics.getDfaCacheMisses());
+        assertEquals(0, metrics.getDfaCacheFlushes());
+    }
+
+    @Test
+    public void testPrefilterRejects() throws Exception {
+        final Matcher matcher = Parser.compileUncached("[a-z]+needle", CompileOptions.DEFAULT.withMetrics(true));
+        assertNull(matcher.find("haystack"));
+        assertEquals(1, matcher.getMetrics().getPrefilterRejects());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        final Matcher matcher = Parser.compileUncached("x+", CompileOptions.DEFAULT.withMetrics(true));
+        final ObjectName name = matcher.getMetrics().registerMBean("x+ " + System.nanoTime());
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            matcher.matches("xxx");
+            assertEquals(1L, server.getAttribute(name, "MatchCount"));
+            assertEquals("x+", server.getAttribute(name, "Pattern"));
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            assertEquals(0L, server.getAttribute(name, "MatchCount"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    private static int countOf(final Iterable<Match> matches) {
+        int count = 0;
+        for (final Match ignored : matches) {
+            ++count;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,90 @@
+package educational.regex.parser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MatcherTest {
+
+    @Test
+    public void testFindAgreesWithJavaUtilRegex() throws Exception {
+        final String[][] testCases = {
+                {"abc", "xxabcxxabc"},
+                {"a+", "baaab"},
+                {"a*", "baaab"},
+                {"a|ab", "xab"},
+                {"ab|a", "xab"},
+                {"(a|ab)(c|bcd)", "abcd"},
+                {"(a*)+b", "aaac aab"},
+                {"x*", ""},
+                {"[0-9]+", "ERROR 504 timeout after 30s"},
+                {"[^ ]+ [0-9]+", "ERROR 504 timeout after 30s"},
+                {".*timeout", "ERROR 504 timeout after 30s timeout"},
+                {"(a|b)*c", "ababcabc"},
+                {"[0-9]{2,3}", "1 12 12345 9"},
+                {"a{2}", "aaaaa"},
+                {"x[0-9]{1,2}y", "x123y x12y"},
+        };
+        for (final String[] testCase : testCases) {
+            final String pattern = testCase[0];
+            final String input = testCase[1];
+            final Matcher matcher = Parser.compile(pattern);
+            final java.util.regex.Matcher expected = java.util.regex.Pattern.compile(pattern).matcher(input);
+
+            final StringBuilder expectedMatches = new StringBuilder();
+            while (expected.find()) {
+                expectedMatches.append('[').append(expected.start()).append(", ").append(expected.end()).append(")");
+            }
+            final StringBuilder actualMatches = new StringBuilder();
+            for (final Match match : matcher.findAll(input)) {
+                actualMatches.append(match);
+            }
+            assertEquals("pattern: " + pattern + ", input: " + input, expectedMatches.toString(), actualMatches.toString());
+        }
+    }
+
+    @Test
+    public void testGroupsAgreeWithJavaUtilRegex() throws Exception {
+        final String[][] testCases = {
+                {"(a|b)*c", "ababcabc"},
+                {"(x)?y", "y xy"},
+                {"(?:a)(b)", "abab"},
+                {"(a|ab)(c|bcd)(d*)", "abcd"},
+                {"((a)|b)+", "abba"},
+                {"([0-9]+)-([0-9]{2})", "tel 555-12 x 7-345"},
+        };
+        for (final String[] testCase : testCases) {
+            final String pattern = testCase[0];
+            final String input = testCase[1];
+            final Matcher matcher = Parser.compile(pattern);
+            final java.util.regex.Matcher expected = java.util.regex.Pattern.compile(pattern).matcher(input);
+            assertEquals(pattern, expected.groupCount(), matcher.groupCount());
+
+            final StringBuilder expectedGroups = new StringBuilder();
+            while (expected.find()) {
+                for (int i = 0; i <= expected.groupCount(); ++i) {
+                    expectedGroups.append(i).append('=').append(expected.group(i)).append(' ');
+                }
+            }
+            final StringBuilder actualGroups = new StringBuilder();
+            for (final Match match : matcher.findAllGroups(input)) {
+                for (int i = 0; i <= match.groupCount(); ++i) {
+                    actualGroups.append(i).append('=').append(match.group(i)).append(' ');
+                }
+            }
+            assertEquals("pattern: " + pattern + ", input: " + input, expectedGroups.toString(), actualGroups.toString());
+        }
+    }
+
+    @Test
+    public void testFindFrom() throws Exception {
+        final Matcher matcher = Parser.compile("b+");
+        // The slice is "bcbd".
+        final Match match = matcher.find(java.nio.CharBuffer.wrap("abbcbd".toCharArray(), 2, 4), 1);
+        assertEquals(2, match.start());
+        assertEquals(3, match.end());
+        assertEquals("b", match.group().toString());
+        assertEquals(null, matcher.find("abbcbd", 5));
+        assertEquals(null, Parser.compile("b+", CompileOptions.DEFAULT.withEngine(Engine.BIT_PARALLEL)).find("ac"));
+    }
+}
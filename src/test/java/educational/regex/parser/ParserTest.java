@@ -1,6 +1,6 @@
 package educational.regex.parser;
 
-import org.junit.Before;
+import educational.regex.ParseException;
 import org.junit.Test;
 
 import java.util.LinkedHashMap;
@@ -16,132 +16,139 @@ import static org.junit.Assert.assertEquals;
 public class ParserTest {
     private static final Logger log = Logger.getLogger(ParserTest.class.getName());
 
-    @Before
-    public void setUp() {
+    // Static, as the tests of the engines match the shared table too.
+    static {
         log.setLevel(Level.OFF);
     }
 
     @Test
-    public void testInsertionOfConcatOperator() throws Exception {
+    public void testNfaToProgram() throws Exception {
         final Map<String, String> testCases = new LinkedHashMap<String, String>() {
             {
-                put("a", "a");
-                put("ab", "a#b");
-                put("ab#", "a#b#\\#");
-                put("a\\?b", "a#\\?#b");
-                put("ab(cd)", "a#b#(c#d)");
-                put("ab(c#d)", "a#b#(c#\\##d)");
-                put("a(bb)+a", "a#(b#b)+#a");
-                put("a(\\*)", "a#(\\*)");
-                put("a\\?\\*", "a#\\?#\\*");
-                put("a???", "a???");
-                put("a?b|c+d*(ef+)?", "a?#b|c+#d*#(e#f+)?");
-                put("a\\?b|c+d*(ef+)?", "a#\\?#b|c+#d*#(e#f+)?");
-                put("abc", "a#b#c");
-                put("a+bc", "a+#b#c");
-                put("a|b", "a|b");
-                put("a(b)c", "a#(b)#c");
-                put("a[b]c", "a#[b]#c");
-                put("a[a-z]d", "a#[a-z]#d");
-                put("[a-zA-Z0-9]", "[a-z#A-Z#0-9]");
-                put("[^a-z]", "[^a-z]");
-                //TODO: put("[-0-9]", "[-#0-9]");
-                //TODO: put("[0-9-]", "[0-9#-]");
-                put("[0-9\\-]", "[0-9#\\-]");
-                put("[0-9[a-z]]", "[0-9#[a-z]]");
-                put("[0-9\\]]", "[0-9#\\]]");
-                put("a#b", "a#\\##b");
-                put("a\\*b", "a#\\*#b");
+                // Group 0 is saved around every pattern.
+                put("ab", ">0: save 0 -> 1\n 1: char a -> 2\n 2: char b -> 3\n 3: save 1 -> 4\n 4: match\n");
+                put("a*", ">0: save 0 -> 1\n 1: split 2, 3\n 2: char a -> 1\n 3: save 1 -> 4\n 4: match\n");
+                put("a|b", ">0: save 0 -> 1\n 1: split 2, 3\n 2: char a -> 4\n 3: char b -> 4\n 4: save 1 -> 5\n" +
+                        " 5: match\n");
             }
         };
         for (final Map.Entry<String, String> testCase : testCases.entrySet()) {
-            assertEquals(testCase.getValue(), new String(Parser.insertConcatOperator(testCase.getKey().toCharArray())));
+            assertEquals(testCase.getValue(), programOf(testCase.getKey()).toString());
         }
     }
 
     @Test
-    public void testInfixToPostfix() throws Exception {
-        final Map<String, String> testCases = new LinkedHashMap<String, String>() {
-            {
-                put("a", "a");
-                put("ab", "ab#");
-                put("a|b", "ab|");
-                put("a\\?b", "a\\?#b#");
-                put("abcd", "ab#c#d#");
-                put("ab(cd)", "ab#cd##");
-                put("ab(c#d)", "ab#c\\##d##");
-                put("ab#", "ab#\\##");
-                put("a???", "a???");
-                put("a\\?\\*", "a\\?#\\*#");
-                put("a?b|c+d*(ef+)?", "a?b#c+d*#ef+#?#|");
-                put("a\\?b|c+d*(ef+)?", "a\\?#b#c+d*#ef+#?#|");
-                // With character classes
-                put("a.b", "a.#b#");
-                put("a[a-z]d", "a[az-]#d#");
-                put("[a-zA-Z0-9]", "[az-AZ-#09-#]");
-                put("[^a-z]", "[az-^]");
-                //TODO: put("[-0-9]", "[-09-#]");
-                //TODO: put("[0-9-]", "[09--#]");
-                put("[0-9\\-]", "[09-\\-#]");
-                put("[0-9[a-z]]", "[09-[az-]#]");
-                put("[0-9\\]]", "[09-\\]#]");
+    public void testEpsilonClosures() throws Exception {
+        // (a?)* : the star's SPLIT and the ?'s SPLIT point at each other.
+        final NfaProgram program = programOf("(?:a?)*");
+        assertEquals(2, program.startClosure().length);
+        for (final int pc : program.startClosure()) {
+            assertEquals(true, program.opcodes[pc] != NfaProgram.SPLIT);
+        }
+        for (int pc = 0; pc < program.size(); ++pc) {
+            if (program.opcodes[pc] == NfaProgram.CHAR) {
+                assertEquals(2, program.closureAfter(pc).length);
             }
-        };
-        for (final Map.Entry<String, String> testCase : testCases.entrySet()) {
-            final String actualOutput = new String(Parser.infixToPostfix(testCase.getKey()));
-            assertEquals(testCase.getValue(), actualOutput);
         }
     }
 
     @Test
-    public void testPostfixToNfa() throws Exception {
-        final String[] postfixes = {
-                "a+",
-                "ab#c#",
-                "abb#+#a#",
-        };
-        for (final String postfix : postfixes) {
-            final State startState = RegexNfa.postfixToNfa(postfix.toCharArray());
-            final String serializedStateTransitions = StateSerializer.serialize(startState);
-            log.info("Postfix: " + postfix + " to NFA: " + serializedStateTransitions);
+    public void testDeeplyNestedNullableStars() throws Exception {
+        final StringBuilder pattern = new StringBuilder("a");
+        for (int i = 0; i < 5000; ++i) {
+            pattern.insert(0, '(').append("?)*");
         }
+        final Matcher matcher = Parser.compile(pattern.toString());
+        assertEquals(true, matcher.matches(""));
+        assertEquals(true, matcher.matches("aaaa"));
+        assertEquals(false, matcher.matches("aaba"));
     }
 
+    private static final String[][] MATCH_TEST_CASES = {
+            {"a", "a", "true"},
+            {"a?", "a", "true"},
+            {"a?", "", "true"},
+            {"a+", "", "false"},
+            {"a*", "aaaaaaa", "true"},
+            {"ab", "abc", "false"},
+            {"ab*", "a", "true"},
+            {"a\\*\\?", "a*?", "true"},
+            {"ab*c?", "abbbbb", "true"},
+            {"a|b*c?", "bbbbc", "true"},
+            {"a(bb)+a", "abbbba", "true"},
+            {"a(bb)+a", "abbba", "false"},
+            //Nested unlabeled edges
+            {"(a|b)*", "abba", "true"},
+            {"(a|b)*", "abca", "false"},
+            {"(a|b)+", "", "false"},
+            {"(a?)*", "aa", "true"},
+            {"((a*)*)*", "aaa", "true"},
+            {"(a*b*)*", "abab", "true"},
+            {"(a*b*)*c", "ababc", "true"},
+            //Character Classes
+            {".*", "aaaaaaa", "true"},
+            {".", "g", "true"},
+            {"a*...", "amen", "true"},
+            {"[a-z]", "x", "true"},
+            {"a[a-z]d", "and", "true"},
+            {"[a-zA-Z0-9]+", "ClassName007", "true"},
+            {"[^a-zA-Z0-9]+", "#$!!_+=", "true"},
+            {"[^a-z]+", "caf\u00e9", "false"},
+            {".\u00e9+", "c\u00e9\u00e9", "true"},
+            {"[^a-z0-9]+", "A5", "false"},
+            {"[-a]+", "-a-", "true"},
+            {"a\\.b", "a.b", "true"},
+            {"a\\.b", "axb", "false"},
+            {"a#b", "a#b", "true"},
+            {"(ab|cd|ef)+", "abefcd", "true"},
+            //Counted repetition
+            {"a{3}", "aaa", "true"},
+            {"a{3}", "aa", "false"},
+            {"a{3}", "aaaa", "false"},
+            {"[0-9]{1,3}-x", "12-x", "true"},
+            {"[0-9]{1,3}", "1234", "false"},
+            {"a{2,}", "aaaaa", "true"},
+            {"a{2,}", "a", "false"},
+            {"x{0,2}y", "y", "true"},
+            {"x{0,2}y", "xxxy", "false"},
+            {"(ab){2,3}", "ababab", "true"},
+            {"(ab){2,3}", "abababab", "false"},
+            {"(a{1,2}b)+", "abaabab", "true"},
+            {"a{2}{3}", "aaaaaa", "true"},
+            {"(a{2})*", "aaa", "false"},
+            {"a.{2}b", "axyb", "true"},
+            {"a{,2}", "a{,2}", "true"},
+    };
+
     @Test
     public void testMatch() throws Exception {
-        final String[][] testCases = {
-                {"a", "a", "true"},
-                {"a?", "a", "true"},
-                {"a?", "", "true"},
-                {"a+", "", "false"},
-                {"a*", "aaaaaaa", "true"},
-                {"ab", "abc", "false"},
-                {"ab*", "a", "true"},
-                {"a\\*\\?", "a*?", "true"},
-                {"ab*c?", "abbbbb", "true"},
-                {"a|b*c?", "bbbbc", "true"},
-                {"a(bb)+a", "abbbba", "true"},
-                {"a(bb)+a", "abbba", "false"},
-                //Character Classes
-                {".*", "aaaaaaa", "true"},
-                {".", "g", "true"},
-                {"a*...", "amen", "true"},
-                {"[a-z]", "x", "true"},
-                {"a[a-z]d", "and", "true"},
-                {"[a-zA-Z0-9]+", "ClassName007", "true"},
-                {"[^a-zA-Z0-9]+", "#$!!_+=", "true"},
-        };
+        for (final Engine engine : Engine.values()) {
+            assertMatchTestCases(CompileOptions.DEFAULT.withEngine(engine));
+        }
+    }
 
-        for (final String[] testCase : testCases) {
+    /**
+     * Matches the shared table of patterns and inputs with the options, for the tests of each engine's own
+     * settings.
+     */
+    /* package */ static void assertMatchTestCases(final CompileOptions options) throws Exception {
+        for (final String[] testCase : MATCH_TEST_CASES) {
             final String pattern = testCase[0];
             final String input = testCase[1];
             final boolean expectedMatches = Boolean.parseBoolean(testCase[2]);
 
             log.info("Matching input: " + input + " on pattern: " + pattern);
-            final Matcher matcher = Parser.compile(pattern);
+            final Matcher matcher = Parser.compile(pattern, options);
             log.info("Compiled " + pattern + " ~> " + matcher);
             final boolean actualMatches = matcher.matches(input);
-            assertEquals("pattern: " + pattern + ", input: " + input, expectedMatches, actualMatches);
+            assertEquals("pattern: " + pattern + ", input: " + input + ", " + options, expectedMatches, actualMatches);
         }
     }
+
+    /**
+     * The program the parser lowers the pattern to, before the syntax tree is simplified.
+     */
+    /* package */ static NfaProgram programOf(final String pattern) throws ParseException {
+        return RegexNfa.toProgram(RegexNfa.fromAst(RegexParser.parse(pattern), 0, false).getStart());
+    }
 }
@@ -0,0 +1,112 @@
+package educational.regex.parser;
+
+import educational.regex.ParseException;
+import educational.regex.UnmatchedClosingBrace;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class PatternCacheTest {
+
+    @Test
+    public void testHitsAndEvictions() throws Exception {
+        final PatternCache cache = new PatternCache(2);
+        final Matcher ab = cache.get("ab", CompileOptions.DEFAULT);
+        assertSame(ab, cache.get("ab", CompileOptions.DEFAULT));
+        cache.get("ab", CompileOptions.DEFAULT.withEngine(Engine.LAZY_DFA));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        // ab is now the least recently used one.
+        cache.get("cd", CompileOptions.DEFAULT);
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.size());
+        assertEquals(false, ab == cache.get("ab", CompileOptions.DEFAULT));
+    }
+
+    @Test
+    public void testFailuresAreNotCached() throws Exception {
+        final PatternCache cache = new PatternCache(2);
+        for (int i = 0; i < 2; ++i) {
+            try {
+                cache.get("a)", CompileOptions.DEFAULT);
+                fail("a) should not compile");
+            } catch (final UnmatchedClosingBrace expected) {
+                // expected
+            }
+        }
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testConcurrentMissesCompileOnce() throws Exception {
+        final PatternCache cache = new PatternCache(16);
+        final int numThreads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            final CountDownLatch ready = new CountDownLatch(numThreads);
+            final List<Future<Matcher>> results = new ArrayList<Future<Matcher>>();
+            for (int i = 0; i < numThreads; ++i) {
+                results.add(executor.submit(new Callable<Matcher>() {
+                    @Override
+                    public Matcher call() throws ParseException, InterruptedException {
+                        ready.countDown();
+                        ready.await();
+                        return cache.get("([a-z]+[0-9]*)+@(com|org)", CompileOptions.DEFAULT);
+                    }
+                }));
+            }
+            final Matcher first = results.get(0).get();
+            for (final Future<Matcher> result : results) {
+                assertSame(first, result.get());
+            }
+            assertEquals(1, cache.getMissCount());
+            assertEquals(numThreads - 1, cache.getHitCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMatcherIsShareableAcrossThreads() throws Exception {
+        for (final Engine engine : Engine.values()) {
+            final Matcher matcher = Parser.compile("(a|b)*a(a|b)(a|b)", CompileOptions.DEFAULT.withEngine(engine));
+            final ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+                for (int t = 0; t < 4; ++t) {
+                    final int seed = t;
+                    results.add(executor.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            int mismatches = 0;
+                            for (int i = 0; i < 2000; ++i) {
+                                final String input = Integer.toBinaryString(i * 31 + seed).replace('0', 'a').replace('1', 'b');
+                                if (matcher.matches(input) != input.matches("(a|b)*a(a|b)(a|b)")) {
+                                    ++mismatches;
+                                }
+                            }
+                            return mismatches;
+                        }
+                    }));
+                }
+                for (final Future<Integer> result : results) {
+                    assertEquals(engine.toString(), 0, (int) result.get());
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+}
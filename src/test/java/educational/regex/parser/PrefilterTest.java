@@ -0,0 +1,52 @@
+package educational.regex.parser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PrefilterTest {
+
+    @Test
+    public void testLiterals() throws Exception {
+        final String[][] testCases = {
+                // pattern, prefix, required
+                {"ERROR [0-9]+ timeout", "ERROR ", " timeout"},
+                {"abc", "abc", "abc"},
+                {"(foo|foobar)x", "foo", "foo"},
+                {"a(b|c)d", "a", "a"},
+                {"[0-9]+ms", "", "ms"},
+                {"x*abc", "", "abc"},
+                {"(ab)+c", "ab", "abc"},
+                {"a|b", "", ""},
+                {".*", "", ""},
+        };
+        for (final String[] testCase : testCases) {
+            final Literals literals = Parser.compileUncached(testCase[0], CompileOptions.DEFAULT).getLiterals();
+            assertEquals(testCase[0], testCase[1], literals.getPrefix());
+            assertEquals(testCase[0], testCase[2], literals.getRequired());
+        }
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        final StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            log.append("INFO ").append(i).append(" request served in 12ms\n");
+        }
+        log.append("ERROR 504 timeout\n");
+        final String input = log.toString();
+        final int errorAt = input.indexOf("ERROR");
+
+        final String[] patterns = {"ERROR [0-9]+ timeout", "[0-9]+ timeout", "[E]RROR", "x*ERROR", "(R|T)+O"};
+        for (final String pattern : patterns) {
+            final java.util.regex.Matcher expected = java.util.regex.Pattern.compile(pattern).matcher(input);
+            assertEquals(true, expected.find());
+            final Match match = Parser.compile(pattern).find(input);
+            assertEquals(pattern, expected.start(), match.start());
+            assertEquals(pattern, expected.end(), match.end());
+        }
+        assertEquals(null, Parser.compile("ERROR [0-9]+ timeout").find(input, errorAt + 1));
+        assertEquals(null, Parser.compile("[0-9]+ timeout").find(input.substring(0, errorAt)));
+        assertEquals(true, errorAt < Parser.compile("[0-9]+ timeout").find(input).start());
+    }
+}
@@ -0,0 +1,67 @@
+package educational.regex.parser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProgramAnalysisTest {
+
+    @Test
+    public void testLengths() throws Exception {
+        assertLengths("abc", 3, 3);
+        assertLengths("a|bcd", 1, 3);
+        assertLengths("(ab)?c{2,5}", 2, 7);
+        assertLengths("[0-9]{1,1000}x", 2, 1001);
+        assertLengths("a*", 0, Integer.MAX_VALUE);
+        assertLengths("x(ab|c)+", 2, Integer.MAX_VALUE);
+        // Nothing at all can follow a class that accepts nothing.
+        assertLengths("a|b[^\u0000-\uffff]c", 1, 1);
+    }
+
+    @Test
+    public void testAcceptsForever() throws Exception {
+        assertNull(analysisOf("ab*").acceptsForever);
+        assertNull(analysisOf("a.*b").acceptsForever);
+        assertNull(analysisOf("a.").acceptsForever);
+        assertTrue(analysisOf("a.*").acceptsForever != null);
+        assertTrue(analysisOf("(x|y.*)").acceptsForever != null);
+    }
+
+    @Test
+    public void testMatchesAgree() throws Exception {
+        final String[] patterns = {"ab.*", "a(.*|b)c?", "(.*)", "x{2,3}", "a|b[^\u0000-\uffff]c", "[^\u0000-\uffff]"};
+        final String[] inputs = {"", "a", "ab", "abc", "abcabc", "xx", "xxxx", "bc"};
+        for (final String pattern : patterns) {
+            final java.util.regex.Pattern expected = java.util.regex.Pattern.compile(pattern);
+            for (final Engine engine : Engine.values()) {
+                final Matcher matcher = Parser.compileUncached(pattern, CompileOptions.DEFAULT.withEngine(engine));
+                for (final String input : inputs) {
+                    assertEquals(engine + " " + pattern + " on " + input, expected.matcher(input).matches(),
+                            matcher.matches(input));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDfaUniversalState() throws Exception {
+        final Dfa dfa = Dfa.compile(Parser.compileUncached("ab.*", CompileOptions.DEFAULT).getProgram(), 100);
+        assertTrue(dfa.getUniversal() >= 0);
+        assertFalse(dfa.getUniversal() == dfa.getStart());
+        assertEquals(-1, Dfa.compile(Parser.compileUncached("ab", CompileOptions.DEFAULT).getProgram(), 100)
+                .getUniversal());
+    }
+
+    private static void assertLengths(final String pattern, final int min, final int max) throws Exception {
+        final ProgramAnalysis analysis = analysisOf(pattern);
+        assertEquals(pattern, min, analysis.minLength);
+        assertEquals(pattern, max, analysis.maxLength);
+    }
+
+    private static ProgramAnalysis analysisOf(final String pattern) throws Exception {
+        return Parser.compileUncached(pattern, CompileOptions.DEFAULT).getProgram().analysis;
+    }
+}
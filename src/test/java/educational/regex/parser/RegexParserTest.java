@@ -0,0 +1,100 @@
+package educational.regex.parser;
+
+import educational.regex.ParseException;
+import educational.regex.UnexpectedEscapeChar;
+import educational.regex.UnmatchedClosingBrace;
+import educational.regex.UnmatchedOpeningBrace;
+import educational.regex.characterclasses.InvalidCharacterClassSpecification;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RegexParserTest {
+
+    @Test
+    public void testTree() throws Exception {
+        final String[][] testCases = {
+                {"a", "a"},
+                {"ab", "(concat a b)"},
+                {"a|bc|d", "(alt a (concat b c) d)"},
+                {"a(b|c)*", "(concat a (repeat{0,} (group (alt b c))))"},
+                {"a(?:b|c)", "(concat a (?: (alt b c)))"},
+                {"a+?", "(repeat{0,1} (repeat{1,} a))"},
+                {"\\(#", "(concat ( #)"},
+                {"a.", "(concat a [ANY])"},
+                {"^-", "(concat ^ -)"},
+        };
+        for (final String[] testCase : testCases) {
+            assertEquals(testCase[0], testCase[1], RegexParser.parse(testCase[0]).toString());
+        }
+    }
+
+    @Test
+    public void testPositions() throws Exception {
+        final ConcatNode concat = (ConcatNode) RegexParser.parse("ab(c|d)+[xy]");
+        assertEquals(0, concat.start);
+        assertEquals(12, concat.end);
+
+        final RepeatNode repeat = (RepeatNode) concat.items.get(2);
+        assertEquals(2, repeat.start);
+        assertEquals(8, repeat.end);
+
+        final AlternationNode alternation = (AlternationNode) ((GroupNode) repeat.child).child;
+        assertEquals(3, alternation.start);
+        assertEquals(6, alternation.end);
+        assertEquals(5, alternation.branches.get(1).start);
+
+        final ClassNode characterClass = (ClassNode) concat.items.get(3);
+        assertEquals(8, characterClass.start);
+        assertEquals(12, characterClass.end);
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        assertError("ab)", UnmatchedClosingBrace.class, 2);
+        assertError("a]", UnmatchedClosingBrace.class, 1);
+        assertError("a(b(c)", UnmatchedOpeningBrace.class, 1);
+        assertError("a[bc", UnmatchedOpeningBrace.class, 1);
+        assertError("*a", ParseException.class, 0);
+        assertError("a(*)", ParseException.class, 2);
+        assertError("a||b", ParseException.class, 2);
+        assertError("()", ParseException.class, 1);
+        assertError("a\\", UnexpectedEscapeChar.class, 1);
+        assertError("a\\b", UnexpectedEscapeChar.class, 1);
+        assertError("x[]", InvalidCharacterClassSpecification.class, 1);
+        assertError("[z-a]", InvalidCharacterClassSpecification.class, 1);
+    }
+
+    @Test
+    public void testLargeAlternation() throws Exception {
+        final StringBuilder pattern = new StringBuilder();
+        for (int i = 0; pattern.length() < 100 * 1024; ++i) {
+            if (i > 0) {
+                pattern.append('|');
+            }
+            pattern.append("word").append(i);
+        }
+
+        final long start = System.nanoTime();
+        final Matcher matcher = Parser.compileUncached(pattern.toString(), CompileOptions.DEFAULT);
+        // Used to take seconds, with the time going up as the square of the number of words.
+        assertTrue("took " + (System.nanoTime() - start) / 1000000 + "ms", System.nanoTime() - start < 5000000000L);
+        assertTrue(matcher.matches("word1234"));
+        assertFalse(matcher.matches("word"));
+    }
+
+    private static void assertError(final String pattern,
+                                    final Class<? extends ParseException> expected,
+                                    final int position) {
+        try {
+            RegexParser.parse(pattern);
+            fail(pattern + " should not parse");
+        } catch (final ParseException e) {
+            assertEquals(pattern, expected, e.getClass());
+            assertEquals(pattern, position, e.getPosition());
+        }
+    }
+}
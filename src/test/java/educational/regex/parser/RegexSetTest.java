@@ -0,0 +1,65 @@
+package educational.regex.parser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class RegexSetTest {
+    private static final List<String> PATTERNS = Arrays.asList(
+            "/api/v[0-9]+/users/[0-9]+",
+            "/api/v1/.*",
+            "/static/.*",
+            "/api/v[0-9]+/users/me",
+            ".*\\?debug",
+            "/(a|b)*"
+    );
+
+    private static final String[] INPUTS = {
+            "/api/v1/users/42",
+            "/api/v2/users/me",
+            "/api/v1/users/me",
+            "/static/app.js",
+            "/static/app.js?debug",
+            "/abba",
+            "/",
+            "/nothing/here",
+            "",
+    };
+
+    @Test
+    public void testMatchesAgreesWithEachPattern() throws Exception {
+        for (final Engine engine : new Engine[]{Engine.NFA, Engine.LAZY_DFA, Engine.DFA}) {
+            final RegexSet set = RegexSet.compile(PATTERNS, CompileOptions.DEFAULT.withEngine(engine));
+            assertEquals(PATTERNS.size(), set.size());
+            for (final String input : INPUTS) {
+                final BitSet expected = new BitSet();
+                for (int i = 0; i < PATTERNS.size(); ++i) {
+                    if (Parser.compile(PATTERNS.get(i)).matches(input)) {
+                        expected.set(i);
+                    }
+                }
+                assertEquals(engine + " on " + input, expected, set.matches(input));
+                assertEquals(engine + " on " + input, !expected.isEmpty(), set.matchesAny(input));
+            }
+        }
+    }
+
+    @Test
+    public void testManyPatterns() throws Exception {
+        final List<String> patterns = new ArrayList<String>();
+        for (int i = 0; i < 2000; ++i) {
+            patterns.add("/route" + i + "/[a-z]+");
+        }
+        final RegexSet set = RegexSet.compile(patterns.toArray(new String[patterns.size()]));
+        final BitSet expected = new BitSet();
+        expected.set(1234);
+        assertEquals(expected, set.matches("/route1234/items"));
+        assertEquals(new BitSet(), set.matches("/route1234/42"));
+        assertEquals("/route7/[a-z]+", set.getPattern(7));
+    }
+}
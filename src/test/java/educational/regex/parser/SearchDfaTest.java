@@ -0,0 +1,61 @@
+package educational.regex.parser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SearchDfaTest {
+
+    @Test
+    public void testSameMatchesAsThePikeVm() throws Exception {
+        final String[] patterns = {"abcd|c", "(a|ab)(c|bcd)", "a*", "(a+)(b+)?", "x(y|z)*x", "[a-c]{2,3}d?"};
+        final String[] inputs = {"", "abcd", "zabcdz", "aabbab", "xyzx xx xyx", "abcabcdd", "ccc"};
+        for (final String pattern : patterns) {
+            final Matcher expected = Parser.compileUncached(pattern, CompileOptions.DEFAULT);
+            for (final Engine engine : new Engine[]{Engine.LAZY_DFA, Engine.DFA, Engine.DFA_BYTECODE}) {
+                // A cache of 2 states flushes all the time, and gives up on some of the searches.
+                for (final int cacheSize : new int[]{2, 1000}) {
+                    final Matcher matcher = Parser.compileUncached(pattern,
+                            CompileOptions.DEFAULT.withEngine(engine).withDfaCacheSize(cacheSize));
+                    for (final String input : inputs) {
+                        final String message = engine + " " + cacheSize + " " + pattern + " on " + input;
+                        assertEquals(message, matches(expected.findAll(input)), matches(matcher.findAll(input)));
+                        assertEquals(message, groups(expected.findAllGroups(input)),
+                                groups(matcher.findAllGroups(input)));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReverse() throws Exception {
+        final NfaProgram program = Parser.compileUncached("a(b|cd)*e", CompileOptions.DEFAULT).getProgram();
+        final SearchDfa reverse = new SearchDfa(program.reverse(), null, true, 1000, null);
+        // The longest match that ends at the end of the input.
+        assertEquals(2, reverse.find("xxabcdbe", 0, 8, null));
+        assertEquals(-1, reverse.find("xxbcdbe", 0, 7, null));
+        // Only reads back to from.
+        assertEquals(-1, reverse.find("abcdbe", 3, 6, null));
+        assertEquals(0, reverse.find("abcdbe", 0, 6, null));
+    }
+
+    private static String matches(final Iterable<Match> matches) {
+        final StringBuilder sb = new StringBuilder();
+        for (final Match match : matches) {
+            sb.append(match);
+        }
+        return sb.toString();
+    }
+
+    private static String groups(final Iterable<Match> matches) {
+        final StringBuilder sb = new StringBuilder();
+        for (final Match match : matches) {
+            for (int group = 0; group <= match.groupCount(); ++group) {
+                sb.append('[').append(match.start(group)).append(", ").append(match.end(group)).append(')');
+            }
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+}
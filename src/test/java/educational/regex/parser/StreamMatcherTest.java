@@ -0,0 +1,82 @@
+package educational.regex.parser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamMatcherTest {
+
+    @Test
+    public void testWholeInputAcrossChunks() throws Exception {
+        final Matcher matcher = Parser.compile("(ab)+c*");
+        final StreamMatcher stream = matcher.newStream();
+        assertEquals(false, stream.matches());
+        stream.feed("a");
+        assertEquals(false, stream.matches());
+        stream.feed("bab".toCharArray(), 0, 3);
+        assertEquals(true, stream.matches());
+        stream.feed("cc");
+        assertEquals(true, stream.matches());
+        assertEquals(6, stream.position());
+        assertEquals(false, stream.isDead());
+
+        stream.feed("a");
+        assertEquals(true, stream.isDead());
+        assertEquals(false, stream.matches());
+    }
+
+    @Test
+    public void testStopsReadingOnceDead() throws Exception {
+        final Reader reader = new StringReader("abxxxxxxxxxxxxxxxxxxxxxxx");
+        final StreamMatcher stream = Parser.compile("ab*").newStream().feed(reader);
+        assertEquals(true, stream.isDead());
+        assertEquals(3, stream.position());
+    }
+
+    @Test
+    public void testChannel() throws Exception {
+        final Charset utf8 = Charset.forName("UTF-8");
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            body.append("caf\u00e9 ");
+        }
+        final byte[] bytes = body.toString().getBytes(utf8);
+        final StreamMatcher stream = Parser.compile("(caf\u00e9 )+").newStream()
+                .feed(Channels.newChannel(new ByteArrayInputStream(bytes)), utf8);
+        assertEquals(true, stream.matches());
+        assertEquals(body.length(), stream.position());
+    }
+
+    @Test
+    public void testSearchReportsAbsoluteOffsets() throws Exception {
+        final List<String> matches = new ArrayList<String>();
+        final StreamMatcher stream = Parser.compile("ERROR [0-9]+;").newSearchStream(new StreamMatcher.MatchListener() {
+            @Override
+            public void onMatch(final long start, final long end) {
+                matches.add(start + "-" + end);
+            }
+        });
+        stream.feed("INFO 1; ERR").feed("OR 50").feed("4; INFO 2; ERROR 7;");
+        assertEquals("[8-18, 27-35]", matches.toString());
+    }
+
+    @Test
+    public void testSearchReportsEarliestEnd() throws Exception {
+        final List<String> matches = new ArrayList<String>();
+        Parser.compile("a+|ba").newSearchStream(new StreamMatcher.MatchListener() {
+            @Override
+            public void onMatch(final long start, final long end) {
+                matches.add(start + "-" + end);
+            }
+        }).feed("aaba");
+        assertEquals("[0-1, 1-2, 2-4]", matches.toString());
+    }
+}
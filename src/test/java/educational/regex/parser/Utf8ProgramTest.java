@@ -0,0 +1,81 @@
+package educational.regex.parser;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Utf8ProgramTest {
+    private static final String GRINNING = "\ud83d\ude00";
+
+    @Test
+    public void testBytesAgreeWithChars() throws Exception {
+        final String[] patterns = {
+                "caf\u00e9",
+                ".",
+                "..",
+                "[^a]+",
+                "[a-\u00e9]*\u20ac",
+                "(\u00e9|\u20ac)+x?",
+                GRINNING + "+",
+                "[\ud800-\udbff][\ude00-\ude01]",
+                ".*" + GRINNING + ".*",
+        };
+        final String[] inputs = {
+                "", "a", "cafe", "caf\u00e9", "\u00e9", "\u20ac", "ab\u20ac", "\u00e9\u20ac\u00e9x",
+                GRINNING, GRINNING + GRINNING, "\ud83d\ude02", "x" + GRINNING + "y", "\uffff", "\u0800",
+        };
+        for (final Engine engine : Engine.values()) {
+            for (final String pattern : patterns) {
+                final Matcher matcher = Parser.compileUncached(pattern, CompileOptions.DEFAULT.withEngine(engine));
+                for (final String input : inputs) {
+                    assertEquals(engine + " " + pattern + " on " + input, matcher.matches(input),
+                            matcher.matches(input.getBytes(StandardCharsets.UTF_8)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMalformedInputNeverMatches() throws Exception {
+        final Matcher matcher = Parser.compile(".*");
+        assertTrue(matcher.matches(new byte[0]));
+        final int[][] malformed = {
+                {0xC0, 0x80},             // Overlong NUL.
+                {0xE0, 0x80, 0xAF},       // Overlong /.
+                {0xED, 0xA0, 0x80},       // An encoded surrogate.
+                {0xE2, 0x82},             // Truncated.
+                {0x61, 0x80},             // Stray continuation byte.
+                {0xF0, 0x9F, 0x98, 0x61}, // Truncated before an ASCII char.
+                {0xF5, 0x80, 0x80, 0x80}, // Past U+10FFFF.
+                {0xFF},
+        };
+        for (final int[] bytes : malformed) {
+            final byte[] input = new byte[bytes.length];
+            for (int i = 0; i < bytes.length; ++i) {
+                input[i] = (byte) bytes[i];
+            }
+            assertFalse(java.util.Arrays.toString(bytes), matcher.matches(input));
+        }
+    }
+
+    @Test
+    public void testSlicesAndBuffers() throws Exception {
+        final Matcher matcher = Parser.compile("\u00e9+");
+        final byte[] bytes = "x\u00e9\u00e9y".getBytes(StandardCharsets.UTF_8);
+        assertTrue(matcher.matches(bytes, 1, 4));
+        assertFalse(matcher.matches(bytes, 0, 4));
+        // Cuts the second e in half.
+        assertFalse(matcher.matches(bytes, 1, 3));
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        direct.position(1).limit(5);
+        assertTrue(matcher.matches(direct));
+        assertEquals(1, direct.position());
+    }
+}